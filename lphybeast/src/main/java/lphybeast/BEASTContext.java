@@ -2,14 +2,17 @@ package lphybeast;
 
 import beast.base.core.BEASTInterface;
 import beast.base.core.Function;
+import beast.base.core.Input;
 import beast.base.core.Loggable;
 import beast.base.evolution.alignment.Alignment;
 import beast.base.evolution.alignment.Taxon;
 import beast.base.evolution.datatype.DataType;
 import beast.base.evolution.likelihood.GenericTreeLikelihood;
+import beast.base.evolution.likelihood.ThreadedTreeLikelihood;
 import beast.base.evolution.substitutionmodel.Frequencies;
 import beast.base.evolution.tree.Tree;
 import beast.base.evolution.tree.TreeInterface;
+import beast.base.evolution.tree.TreeParser;
 import beast.base.inference.*;
 import beast.base.inference.distribution.ParametricDistribution;
 import beast.base.inference.distribution.Prior;
@@ -17,9 +20,9 @@ import beast.base.inference.parameter.IntegerParameter;
 import beast.base.inference.parameter.Parameter;
 import beast.base.inference.parameter.RealParameter;
 import beast.base.parser.XMLProducer;
+import beast.pkgmgmt.BEASTClassLoader;
 import beastlabs.core.util.Slice;
 import beastlabs.util.BEASTVector;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import coupledMCMC.CoupledMCMC;
 import feast.expressions.ExpCalculator;
@@ -36,11 +39,18 @@ import lphy.core.vectorization.VectorizedRandomVariable;
 import lphy.core.vectorization.operation.ElementsAt;
 import lphy.core.vectorization.operation.SliceValue;
 import lphybeast.spi.LPhyBEASTExt;
+import lphybeast.inference.ESSTargetMCMC;
+import lphybeast.inference.InProcessRunner;
+import lphybeast.inference.ProfilingMCMC;
+import lphybeast.tobeast.CoreAllocation;
+import lphybeast.tobeast.EncodedSequences;
+import lphybeast.tobeast.PartitionMerger;
 import lphybeast.tobeast.loggers.LoggerFactory;
 import lphybeast.tobeast.loggers.LoggerHelper;
 import lphybeast.tobeast.operators.DefaultOperatorStrategy;
 import lphybeast.tobeast.operators.DefaultTreeOperatorStrategy;
 import lphybeast.tobeast.operators.OperatorStrategy;
+import lphybeast.tobeast.operators.OperatorTuner;
 import lphybeast.tobeast.operators.TreeOperatorStrategy;
 import lphybeast.tobeast.values.ValueToParameter;
 import org.xml.sax.SAXException;
@@ -49,6 +59,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.*;
 
 import static java.lang.Math.toIntExact;
@@ -78,27 +89,39 @@ public class BEASTContext {
 
     List<Class<? extends Generator>> excludedGeneratorClasses;
     List<Class> excludedValueTypes;
+    // resolve the converters and exclusions above by classes
+    private final LPhyBEASTLoader loader;
 
     //*** to BEAST ***//
 
-    private List<StateNode> state = new ArrayList<>();
+    // state nodes in the order of adding, which is kept in XML
+    private final Set<StateNode> state = new IdentityLinkedHashSet<>();
+
+    // counters of the conversion, e.g. ID lookups
+    private final ConversionStats conversionStats = new ConversionStats();
 
     // a list of extra beast elements in the keys,
-    // with a pointer to the graphical model node that caused their production
-    private Multimap<BEASTInterface, GraphicalModelNode<?>> elements = HashMultimap.create();
+    // with a pointer to the graphical model node that caused their production,
+    // which are also indexed by their IDs.
+    // The graphical model nodes bound to their equivalent BEAST objects are kept in both directions.
+    private BEASTObjectIndex elements = new BEASTObjectIndex(conversionStats);
     private List<StateNodeInitialiser> inits = new ArrayList<>();
 
-    // a map of graphical model nodes to a list of equivalent BEASTInterface objects
-    private Map<GraphicalModelNode<?>, BEASTInterface> beastObjects = new HashMap<>();
-
-    // a map of BEASTInterface to graphical model nodes that they represent
-    private Map<BEASTInterface, GraphicalModelNode<?>> BEASTToLPHYMap = new HashMap<>();
-
     SortedMap<String, Taxon> allTaxa = new TreeMap<>();
+    // the sequences streamed by BEASTXMLWriter, where the index is in the sequence tokens
+    private final List<EncodedSequences> streamedSequences = new ArrayList<>();
+    // the heavy BEAST objects whose initAndValidate is left to BEAST, given by --deferValidation
+    private final List<BEASTInterface> deferredObjects = new ArrayList<>();
+    // the XML file path without extension, where the binary alignments are written next to
+    private String outPathNoExt = null;
+    // the MCMC or MC3 created for XML, which is also run in-process given by --run
+    private MCMC mcmc = null;
+    // the IDs of the lphy values before changed to canonical, which are restored after the XML is created
+    private final Map<Value<?>, String> originalIDs = new IdentityHashMap<>();
 
     //*** operators ***//
     // a list of beast state nodes to skip the automatic operator creation for.
-    private Set<StateNode> skipOperators = new HashSet<>();
+    private final Set<StateNode> skipOperators = new IdentityLinkedHashSet<>();
     // extra operators either for default or from extensions
     private List<Operator> extraOperators = new ArrayList<>();
     // A list of strategy patterns define how to create operators in extensions,
@@ -116,6 +139,17 @@ public class BEASTContext {
     // required
     final private LPhyBeastConfig lPhyBeastConfig;
 
+    // --operatorSchedule
+    private static final String TARGETED_OPERATOR_SCHEDULE = "targeted";
+    private static final String TARGETED_OPERATOR_SCHEDULE_CLASS = "targetedbeast.operatorschedule.TargetedOperatorSchedule";
+    private static final String TARGETED_OPERATOR_SCHEDULE_ID = "TargetedOperatorSchedule_";
+    // --essTarget starts logging at this fraction of the default interval, which ESSTargetMCMC then doubles
+    private static final int ESS_LOG_EVERY_DIVISOR = 64;
+    // only used when the class of operator schedule cannot be loaded
+    private String operatorScheduleElement = null;
+    // the allocation of --cores and the tuning of --tuneOperators written into XML
+    private final List<String> runComments = new ArrayList<>();
+
     @Deprecated
     public BEASTContext(LPhyParserDictionary parserDictionary, LPhyBeastConfig lPhyBeastConfig) {
         this(parserDictionary, null, lPhyBeastConfig);
@@ -134,6 +168,7 @@ public class BEASTContext {
         if (loader == null)
             loader = LPhyBEASTLoader.getInstance();
         this.lPhyBeastConfig = lPhyBeastConfig;
+        this.loader = loader;
 
         valueToBEASTList = loader.valueToBEASTList;
         generatorToBEASTMap = loader.generatorToBEASTMap;
@@ -158,15 +193,23 @@ public class BEASTContext {
         // default to 1M if not specified
         if (chainLength < NUM_OF_SAMPLES)
             throw new IllegalArgumentException("Invalid length for MCMC chain, len = " + chainLength);
-        // Will throw an ArithmeticException in case of overflow.
-        long logEvery = lPhyBeastConfig.getLogEvery();
-        int nsamp = toIntExact(chainLength/logEvery);
-        if (nsamp < NUM_OF_SAMPLES/2)
-            LoggerUtils.log.warning("The number of logged sample (" + nsamp + ") is too small ! Prefer " + NUM_OF_SAMPLES);
+        long logEvery;
+        if (lPhyBeastConfig.getESSTarget() > 0) {
+            // --essTarget, where chainLength is the maximum, and logEvery is adapted in BEAST
+            logEvery = Math.max(1, chainLength / NUM_OF_SAMPLES / ESS_LOG_EVERY_DIVISOR);
+        } else {
+            // Will throw an ArithmeticException in case of overflow.
+            logEvery = lPhyBeastConfig.getLogEvery();
+            int nsamp = toIntExact(chainLength / logEvery);
+            if (nsamp < NUM_OF_SAMPLES/2)
+                LoggerUtils.log.warning("The number of logged sample (" + nsamp + ") is too small ! Prefer " + NUM_OF_SAMPLES);
+        }
 
         // this fills in List<StateNode> state
         createBEASTObjects();
         assert state.size() > 0;
+        // -t, replace the starting tree on the object graph
+        setStartingTree();
 
         // if preBurnin < 0, then will be defined by all state nodes size
         if (preBurnin < 0)
@@ -175,7 +218,10 @@ public class BEASTContext {
         LoggerUtils.log.info("Set MCMC chain length = " + chainLength + ", log every = " +
                 logEvery + ", samples = " + NUM_OF_SAMPLES + ", preBurnin = " + preBurnin + ", sampleFromPrior = " + sampleFromPrior);
 
-        MCMC mcmc = createMCMC(chainLength, logEvery, logFileStem, preBurnin, sampleFromPrior);
+        mcmc = createMCMC(chainLength, logEvery, logFileStem, preBurnin, sampleFromPrior);
+        if (lPhyBeastConfig.getTuneOperators() > 0)
+            tuneOperators(mcmc);
+        checkDeferredObjects();
 
         return new XMLProducer().toXML(mcmc, elements.keySet());
     }
@@ -202,8 +248,12 @@ public class BEASTContext {
             LoggerUtils.log.warning("The number of logged sample (" + nsamp + ") is too small ! Prefer " + NUM_OF_SAMPLES);
         }
 
+        if (lPhyBeastConfig.getESSTarget() > 0)
+            LoggerUtils.log.warning("--essTarget is not available for MC3, so the full chain length is run !");
+
         createBEASTObjects();
         assert state.size() > 0;
+        setStartingTree();
 
         if (preBurnin < 0) {
             preBurnin = getAllStatesSize(state) * 10;
@@ -214,6 +264,10 @@ public class BEASTContext {
 
 
         CoupledMCMC mc3 = createMC3(chainLength, logEvery, logFileStem, preBurnin);
+        if (lPhyBeastConfig.getTuneOperators() > 0)
+            tuneOperators(mc3);
+        checkDeferredObjects();
+        mcmc = mc3;
 
         return new XMLProducer().toXML(mc3, elements.keySet());
     }
@@ -321,11 +375,11 @@ public class BEASTContext {
      * @return  {@link Function}
      */
     public Function getAsFunctionOrRealParameter(Value value) {
-        BEASTInterface beastInterface = beastObjects.get(value);
+        BEASTInterface beastInterface = elements.getBEASTObject(value);
         if (beastInterface == null) {
             // value is generated by ExpressionNode
             if (value.getGenerator() instanceof ExpressionNode expressionNode) {
-                beastInterface = beastObjects.get(expressionNode);
+                beastInterface = elements.getBEASTObject(expressionNode);
                 if (beastInterface instanceof Function function) {
                     addToContext(value, beastInterface);
                     return function;
@@ -345,7 +399,7 @@ public class BEASTContext {
      * @return the RealParameter associated with this value if it exists, or can be coerced. Has a side-effect if coercion occurs.
      */
     public RealParameter getAsRealParameter(Value value) {
-        Parameter param = (Parameter) beastObjects.get(value);
+        Parameter param = (Parameter) elements.getBEASTObject(value);
 
         if (param instanceof RealParameter) return (RealParameter) param;
         if (param instanceof IntegerParameter) {
@@ -372,7 +426,7 @@ public class BEASTContext {
     }
 
     public IntegerParameter getAsIntegerParameter(Value value) {
-        Parameter param = (Parameter) beastObjects.get(value);
+        Parameter param = (Parameter) elements.getBEASTObject(value);
         if (param instanceof IntegerParameter) return (IntegerParameter) param;
         if (param instanceof RealParameter) {
             if (param.getDimension() == 1) {
@@ -430,7 +484,7 @@ public class BEASTContext {
         }
 
         // have to use this when alignment is observed
-        BEASTInterface beastInterface = beastObjects.get(node);
+        BEASTInterface beastInterface = elements.getBEASTObject(node);
 
         if (beastInterface != null) {
             return beastInterface;
@@ -440,7 +494,6 @@ public class BEASTContext {
             if (parts.length == 2) {
                 int index = Integer.parseInt(parts[1]);
                 Slice slice = createSliceFromVector(node, parts[0], index);
-                beastObjects.put(node, slice);
                 return slice;
             }
         }
@@ -452,15 +505,24 @@ public class BEASTContext {
         return null;
     }
 
+    /**
+     * The objects bound to graphical model nodes are also added to elements by {@link #addToContext(GraphicalModelNode, BEASTInterface)},
+     * so the ID index of elements covers both.
+     * @param id  the ID of the beast object
+     * @return    the beast object having this ID, or null if not found.
+     */
     public BEASTInterface getBEASTObject(String id) {
-        for (BEASTInterface beastInterface : elements.keySet()) {
-            if (id.equals(beastInterface.getID())) return beastInterface;
-        }
+        return elements.getByID(id);
+    }
 
-        for (BEASTInterface beastInterface : beastObjects.values()) {
-            if (beastInterface.getID() !=  null && id.equals(beastInterface.getID().equals(id))) return beastInterface;
-        }
-        return null;
+    /**
+     * Change the ID of a beast object, and keep it being found by {@link #getBEASTObject(String)}.
+     * @param beastObject  the beast object in this context
+     * @param id           the new ID
+     */
+    public void setBEASTObjectID(BEASTInterface beastObject, String id) {
+        beastObject.setID(id);
+        elements.updateID(beastObject);
     }
 
     public Slice createSliceFromVector(GraphicalModelNode node, String id, int index) {
@@ -484,7 +546,7 @@ public class BEASTContext {
      */
     public BEASTInterface handleSliceRequest(SliceValue sliceValue) {
 
-        BEASTInterface slicedBEASTValue = beastObjects.get(sliceValue.getSlicedValue());
+        BEASTInterface slicedBEASTValue = elements.getBEASTObject(sliceValue.getSlicedValue());
 
 
         if (slicedBEASTValue != null) {
@@ -504,7 +566,7 @@ public class BEASTContext {
     }
 
     public GraphicalModelNode getGraphicalModelNode(BEASTInterface beastInterface) {
-        return BEASTToLPHYMap.get(beastInterface);
+        return elements.getGraphicalModelNode(beastInterface);
     }
 
     public void addBEASTObject(BEASTInterface newBEASTObject, GraphicalModelNode graphicalModelNode) {
@@ -520,30 +582,21 @@ public class BEASTContext {
      * @see #addToContext(GraphicalModelNode, BEASTInterface) with conditions to determine if add to state node list.
      */
     public void addStateNode(StateNode stateNode, GraphicalModelNode graphicalModelNode, boolean createOperators) {
-        if (!state.contains(stateNode)) {
+        if (state.add(stateNode))
             elements.put(stateNode, graphicalModelNode);
-            state.add(stateNode);
-        }
         if (!createOperators) skipOperators.add(stateNode);
     }
 
     public void removeBEASTObject(BEASTInterface beastObject) {
+        // also remove the nodes bound to it
         elements.removeAll(beastObject);
-        BEASTToLPHYMap.remove(beastObject);
         if (beastObject instanceof StateNode) state.remove(beastObject);
         if (beastObject instanceof StateNode) skipOperators.remove(beastObject);
 
-        GraphicalModelNode matchingKey = null;
-        for (GraphicalModelNode key : beastObjects.keySet()) {
-            if (getBEASTObject(key) == beastObject) {
-                matchingKey = key;
-                break;
-            }
-        }
-        if (matchingKey != null) beastObjects.remove(matchingKey);
-
         // it may be in extraLoggables
         extraLoggables.remove(beastObject);
+        // e.g. the tree likelihoods replaced by --mergePartitions are not validated
+        deferredObjects.remove(beastObject);
     }
 
     // dealing with -ob "?;?", which can specify any var in lphy to be fixed in beast2 XML.
@@ -567,38 +620,15 @@ public class BEASTContext {
     }
 
     public GeneratorToBEAST getGeneratorToBEAST(Generator generator) {
-        GeneratorToBEAST toBEAST = generatorToBEASTMap.get(generator.getClass());
-
-        if (toBEAST == null) {
-            // else see if there is a compatible to beast
-            for (Class c : generatorToBEASTMap.keySet()) {
-                // if *ToBEAST exists
-                if (c.isAssignableFrom(generator.getClass())) {
-                    toBEAST = generatorToBEASTMap.get(c);
-                }
-            }
-        }
-        return toBEAST;
+        return loader.getConverterCache().getGeneratorToBEAST(generator.getClass());
     }
 
     public ValueToBEAST getMatchingValueToBEAST(Value value) {
-
-        for (ValueToBEAST possibleToBEAST : valueToBEASTList) {
-            if (possibleToBEAST.match(value)) {
-                return possibleToBEAST;
-            }
-        }
-        return null;
+        return loader.getConverterCache().getMatchingValueToBEAST(value);
     }
 
     public ValueToBEAST getValueToBEAST(Object rawValue) {
-        for (ValueToBEAST possibleToBEAST : valueToBEASTList) {
-            // if *ToBEAST exists
-            if (possibleToBEAST.match(rawValue)) {
-                return possibleToBEAST;
-            }
-        }
-        return null;
+        return loader.getConverterCache().getValueToBEAST(rawValue);
     }
 
     /**
@@ -623,7 +653,16 @@ public class BEASTContext {
 
         CompoundDistribution posterior = createBEASTPosterior();
 
-        MCMC mcmc = new MCMC();
+        MCMC mcmc;
+        if (lPhyBeastConfig.getESSTarget() > 0) {
+            if (lPhyBeastConfig.perfLog)
+                LoggerUtils.log.warning("--perfLog cannot measure the time of operators given --essTarget, " +
+                        "so only their calls are logged !");
+            mcmc = createESSTargetMCMC();
+        } else {
+            // --perfLog measures the time of operators in BEAST
+            mcmc = lPhyBeastConfig.perfLog ? new ProfilingMCMC() : new MCMC();
+        }
         mcmc.setInputValue("distribution", posterior);
         mcmc.setInputValue("chainLength", chainLength);
 
@@ -636,6 +675,7 @@ public class BEASTContext {
             System.out.println(operators.get(i));
         }
         mcmc.setInputValue("operator", operators);
+        setOperatorSchedule(mcmc);
 
         // TODO eventually all logging related code should go there
         // create XML logger section
@@ -644,10 +684,12 @@ public class BEASTContext {
         // 3 default loggers: parameter logger, screen logger, tree logger.
         List<Logger> loggers = loggerFactory.createLoggers(logEvery, logFileStem);
         // extraLoggers processed in LoggerFactory
+        if (lPhyBeastConfig.perfLog)
+            loggers.add(loggerFactory.createPerformanceLogger(logEvery, logFileStem, operators));
         mcmc.setInputValue("logger", loggers);
 
         State state = new State();
-        state.setInputValue("stateNode", this.state);
+        state.setInputValue("stateNode", new ArrayList<>(this.state));
         state.initAndValidate();
         elements.put(state, null);
 
@@ -667,6 +709,30 @@ public class BEASTContext {
         return mcmc;
     }
 
+    /**
+     * @return  the MCMC stopping once the ESS of the posterior and the parameters given by --essParams
+     *          reach --essTarget, and adapting the log interval to keep about {@link LPhyBeastConfig#NUM_OF_SAMPLES}.
+     */
+    private ESSTargetMCMC createESSTargetMCMC() {
+        ESSTargetMCMC mcmc = new ESSTargetMCMC();
+        mcmc.setInputValue("essTarget", lPhyBeastConfig.getESSTarget());
+        mcmc.setInputValue("samples", NUM_OF_SAMPLES);
+        List<Function> functions = new ArrayList<>();
+        for (String id : lPhyBeastConfig.getESSParams()) {
+            BEASTInterface beastObject = getBEASTObject(id);
+            if (beastObject == null)
+                beastObject = getBEASTObject(Symbols.getCanonical(id));
+            if (!(beastObject instanceof Function function))
+                throw new IllegalArgumentException("Cannot find the parameter " + id + " given by --essParams !");
+            functions.add(function);
+        }
+        mcmc.setInputValue("function", functions);
+        LoggerUtils.log.info("Stop MCMC once the ESS of posterior " +
+                (functions.isEmpty() ? "" : "and " + String.join(", ", lPhyBeastConfig.getESSParams()) + " ") +
+                "reach " + lPhyBeastConfig.getESSTarget());
+        return mcmc;
+    }
+
     // ----- MC3 Construction -----
     /**
      * Builds the {@link CoupledMCMC} object for multiple chains at different temperatures.
@@ -698,6 +764,7 @@ public class BEASTContext {
             System.out.println(operators.get(i));
         }
         mc3.setInputValue("operator", operators);
+        setOperatorSchedule(mc3);
 
         // TODO eventually all logging related code should go there
         // create XML logger section
@@ -706,10 +773,12 @@ public class BEASTContext {
         // 3 default loggers: parameter logger, screen logger, tree logger.
         List<Logger> loggers = loggerFactory.createLoggers(logEvery, logFileStem);
         // extraLoggers processed in LoggerFactory
+        if (lPhyBeastConfig.perfLog)
+            loggers.add(loggerFactory.createPerformanceLogger(logEvery, logFileStem, operators));
         mc3.setInputValue("logger", loggers);
 
         State state = new State();
-        state.setInputValue("stateNode", this.state);
+        state.setInputValue("stateNode", new ArrayList<>(this.state));
         state.initAndValidate();
         elements.put(state, null);
 
@@ -725,6 +794,127 @@ public class BEASTContext {
         return mc3;
     }
 
+    /**
+     * Tune the operator weights by a pilot chain in-process given by --tuneOperators,
+     * which requires the deferred objects to be validated.
+     * For MC3, the pilot only runs the cold chain.
+     * @see OperatorTuner
+     */
+    private void tuneOperators(MCMC mcmc) {
+        validateDeferredObjects("the pilot run");
+        OperatorTuner tuner = new OperatorTuner(lPhyBeastConfig.getTuneOperators());
+        tuner.tune(mcmc);
+        String comment = tuner.toString();
+        runComments.add(comment);
+        LoggerUtils.log.info(comment);
+    }
+
+    /**
+     * Set the operator schedule given by --operatorSchedule, where only 'targeted' is supported,
+     * and the others are ignored with a warning.
+     * If its class is not loaded, then the element will be inserted
+     * into the XML before &lt;/run&gt; when it is written.
+     * @see #getOperatorScheduleElement()
+     */
+    private void setOperatorSchedule(MCMC mcmc) {
+        String operatorSchedule = lPhyBeastConfig.getOperatorSchedule();
+        if (operatorSchedule == null)
+            return;
+        if (!TARGETED_OPERATOR_SCHEDULE.equalsIgnoreCase(operatorSchedule)) {
+            // as before, other schedules are ignored
+            LoggerUtils.log.warning("Ignore the unsupported operator schedule : " + operatorSchedule +
+                    ", only '" + TARGETED_OPERATOR_SCHEDULE + "' is available.");
+            return;
+        }
+
+        try {
+            Object schedule = BEASTClassLoader.forName(TARGETED_OPERATOR_SCHEDULE_CLASS)
+                    .getDeclaredConstructor().newInstance();
+            ((BEASTInterface) schedule).setID(TARGETED_OPERATOR_SCHEDULE_ID);
+            mcmc.setInputValue("operatorschedule", schedule);
+        } catch (ReflectiveOperationException e) {
+            LoggerUtils.log.warning("Cannot load " + TARGETED_OPERATOR_SCHEDULE_CLASS +
+                    ", the operator schedule will be written into XML without validation.");
+            operatorScheduleElement = "    <operatorschedule id=\"" + TARGETED_OPERATOR_SCHEDULE_ID + "\" " +
+                    "spec=\"" + TARGETED_OPERATOR_SCHEDULE_CLASS + "\"/>\n";
+        }
+    }
+
+    /**
+     * @return the operator schedule element to insert before &lt;/run&gt;,
+     *         if it cannot be created as a BEAST object, otherwise null.
+     */
+    public String getOperatorScheduleElement() {
+        return operatorScheduleElement;
+    }
+
+    /**
+     * @return  the allocation of --cores and the tuning of --tuneOperators as XML comments,
+     *          and the operator schedule element, which are inserted before &lt;/run&gt;,
+     *          or null if none is required.
+     * @see #getOperatorScheduleElement()
+     */
+    public String getRunElement() {
+        if (runComments.isEmpty())
+            return operatorScheduleElement;
+        StringBuilder sb = new StringBuilder();
+        for (String comment : runComments)
+            sb.append("    <!--\n    ").append(comment.strip().replace("--", "- -")
+                    .replace("\n", "\n    ")).append("\n    -->\n");
+        if (operatorScheduleElement != null)
+            sb.append(operatorScheduleElement);
+        return sb.toString();
+    }
+
+    /**
+     * Replace the newick of all objects in the object graph, if the starting tree is given by -t,
+     * which is the same as replacing every newick attribute in the XML.
+     * The graph is walked from the state nodes, BEAST objects and initialisers through their inputs without recursion.
+     * The {@link TreeParser} is parsed again, so the tree in memory is the starting tree.
+     */
+    private void setStartingTree() {
+        final String startingNewick;
+        try {
+            startingNewick = lPhyBeastConfig.getStartingTreeNewick();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (startingNewick == null)
+            return;
+
+        Set<BEASTInterface> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<BEASTInterface> stack = new ArrayDeque<>();
+        List<BEASTInterface> roots = new ArrayList<>(state);
+        roots.addAll(elements.keySet());
+        for (StateNodeInitialiser init : inits) {
+            if (init instanceof BEASTInterface bI)
+                roots.add(bI);
+        }
+        for (BEASTInterface root : roots) {
+            if (visited.add(root))
+                stack.push(root);
+        }
+        int replaced = 0;
+        while (!stack.isEmpty()) {
+            BEASTInterface bI = stack.pop();
+            Input<?> newickInput = bI.getInputs().get("newick");
+            // only the newick attributes written into the XML
+            if (newickInput != null && newickInput.get() instanceof String) {
+                bI.setInputValue("newick", startingNewick);
+                // parse it again, so the tree in memory is the starting tree
+                if (bI instanceof TreeParser treeParser)
+                    treeParser.initAndValidate();
+                replaced++;
+            }
+            for (BEASTInterface input : bI.listActiveBEASTObjects()) {
+                if (visited.add(input))
+                    stack.push(input);
+            }
+        }
+        LoggerUtils.log.info("Replaced " + replaced + " starting tree newick from file: " +
+                lPhyBeastConfig.getStartingTreeFile());
+    }
+
     // posterior, likelihood, prior
     private CompoundDistribution[] topDist;
 
@@ -749,60 +939,109 @@ public class BEASTContext {
      * Make a BEAST2 model from the current model in parser.
      */
     private void createBEASTObjects() {
+        final long start = System.nanoTime();
         // all sinks of the graphical model, including in the data block.
         List<Value<?>> sinks = parserDictionary.getDataModelSinks();
+        // inputs are always before outputs, and each value is only once
+        List<Value<?>> postOrder = getPostOrderValues(sinks);
 
-        for (Value<?> value : sinks) {
-            createBEASTValueObjects(value);
+        // creates the beast value objects
+        for (Value<?> value : postOrder) {
+            createBEASTValueObject(value);
+            conversionStats.valueVisits++;
         }
 
-        Set<Generator> visited = new HashSet<>();
         // 1st traverse calls modifyBEASTValues in each GeneratorToBEAST if implemented,
         // which is to modify/replace the BEASTInterface stored in map, e.g., SliceDoubleArrayToBEAST
-        for (Value<?> value : sinks) {
-            traverseBEASTGeneratorObjects(value, true, false, visited);
-        }
+        conversionStats.modifyVisits += traverseBEASTGeneratorObjects(postOrder, true, false);
 
-        visited.clear();
         // 2nd traverse converts a generator to an equivalent BEAST object
-        for (Value<?> value : sinks) {
-            traverseBEASTGeneratorObjects(value, false, true, visited);
-        }
+        conversionStats.generatorVisits += traverseBEASTGeneratorObjects(postOrder, false, true);
+
+        conversionStats.conversionTime += System.nanoTime() - start;
+        LoggerUtils.log.info(conversionStats.toString());
     }
 
     private void updateIDs(Value<?> value) {
         String id = value.getId();
-        if (id != null && !id.trim().isEmpty())
-            value.setId(Symbols.getCanonical(id));
+        if (id != null && !id.trim().isEmpty()) {
+            String canonicalId = Symbols.getCanonical(id);
+            if (!canonicalId.equals(id)) {
+                originalIDs.putIfAbsent(value, id);
+                value.setId(canonicalId);
+            }
+        }
     }
 
     /**
-     * Creates the beast value objects in a post-order traversal, so that inputs are always created before outputs.
-     *
-     * @param value the value to convert to a beast value (after doing so for the inputs of its generator, recursively)
+     * Restore the IDs of lphy values changed to canonical during the conversion,
+     * so that the parser dictionary can be reused, e.g. by {@link ReplicateEngine} for the next replicate.
+     * It should be called after the XML is created.
      */
-    private void createBEASTValueObjects(Value<?> value) {
+    public void restoreIDs() {
+        for (Map.Entry<Value<?>, String> entry : originalIDs.entrySet())
+            entry.getKey().setId(entry.getValue());
+        originalIDs.clear();
+    }
+
+    // a value in the traversal, with the iterator of its generator inputs to visit
+    private record PostOrderFrame(Value<?> value, Iterator<?> inputs) { }
+
+    /**
+     * Traverse the graphical model from the sinks without recursion, so that a deep model does not overflow the stack.
+     * The values shared by several outputs are only visited once.
+     * The IDs are updated when the values are first reached, if unicode is not used in the log.
+     * @param sinks the sinks of the graphical model
+     * @return the values in the post-order, so that inputs are always before outputs.
+     */
+    private List<Value<?>> getPostOrderValues(List<Value<?>> sinks) {
+        List<Value<?>> postOrder = new ArrayList<>();
+        Set<Value<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<PostOrderFrame> stack = new ArrayDeque<>();
+
+        for (Value<?> sink : sinks) {
+            if (visited.add(sink))
+                stack.push(createPostOrderFrame(sink));
+
+            while (!stack.isEmpty()) {
+                PostOrderFrame frame = stack.peek();
+                if (frame.inputs().hasNext()) {
+                    // do values of inputs first
+                    Value<?> input = (Value<?>) frame.inputs().next();
+                    if (visited.add(input))
+                        stack.push(createPostOrderFrame(input));
+                } else {
+                    // now that the inputs are done we can do this one.
+                    stack.pop();
+                    postOrder.add(frame.value());
+                }
+            }
+        }
+        conversionStats.valuesTraversed += postOrder.size();
+        return postOrder;
+    }
+
+    private PostOrderFrame createPostOrderFrame(Value<?> value) {
         // Windows issue that cannot display greek letters correctly
         if (!lPhyBeastConfig.isLogUnicode()) {
             updateIDs(value);
         }
-
-        // do values of inputs recursively first
         Generator<?> generator = value.getGenerator();
-        if (generator != null) {
-
-            for (Object inputObject : generator.getParams().values()) {
-                Value<?> input = (Value<?>) inputObject;
-                createBEASTValueObjects(input);
-            }
-        }
+        Iterator<?> inputs = generator == null ? Collections.emptyIterator() :
+                generator.getParams().values().iterator();
+        return new PostOrderFrame(value, inputs);
+    }
 
-        // now that the inputs are done we can do this one.
+    /**
+     * Creates the beast value object, after doing so for the inputs of its generator.
+     *
+     * @param value the value to convert to a beast value
+     */
+    private void createBEASTValueObject(Value<?> value) {
         // TODO && alignment is not observed
-        if (beastObjects.get(value) == null && !skipValue(value)) {
+        if (elements.getBEASTObject(value) == null && !skipValue(value)) {
             valueToBEAST(value);
         }
-
     }
 
     // if alignment is observed, skip valueToBEAST for simulated value in the model block,
@@ -813,26 +1052,23 @@ public class BEASTContext {
         return false;
     }
 
-    private void traverseBEASTGeneratorObjects(Value<?> value, boolean modifyValues, boolean createGenerators, Set<Generator> visited) {
-
-        Generator<?> generator = value.getGenerator();
-        if (generator != null) {
-
-            for (Object inputObject : generator.getParams().values()) {
-                Value<?> input = (Value<?>) inputObject;
-                traverseBEASTGeneratorObjects(input, modifyValues, createGenerators, visited);
-            }
-
-            if (!visited.contains(generator)) {
+    /**
+     * Each generator is processed once, given the first value it generates in the post-order.
+     * @return the number of generators processed.
+     */
+    private int traverseBEASTGeneratorObjects(List<Value<?>> postOrder, boolean modifyValues, boolean createGenerators) {
+        Set<Generator<?>> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Value<?> value : postOrder) {
+            Generator<?> generator = value.getGenerator();
+            if (generator != null && visited.add(generator))
                 generatorToBEAST(value, generator, modifyValues, createGenerators);
-                visited.add(generator);
-            }
         }
+        return visited.size();
     }
 
     /**
      * This is called after valueToBEAST has been called on both the generated value and the input values.
-     * Side-effect of this method is to create an equivalent BEAST object of the generator and put it in the beastObjects map of this BEASTContext.
+     * Side-effect of this method is to create an equivalent BEAST object of the generator and bind it to the generator in the elements of this BEASTContext.
      *
      * @param value
      * @param generator
@@ -846,7 +1082,7 @@ public class BEASTContext {
             GeneratorToBEAST toBEAST = getGeneratorToBEAST(generator);
 
             if (toBEAST != null) {
-                BEASTInterface beastValue = beastObjects.get(value);
+                BEASTInterface beastValue = elements.getBEASTObject(value);
                 // If this is a generative distribution then swap to the observed value if it exists
                 if (generator instanceof GenerativeDistribution &&
                         ObservationUtils.isObserved(value.getId(), parserDictionary)) {
@@ -874,6 +1110,7 @@ public class BEASTContext {
                     }
                 } else {
                     addToContext(generator, beastGenerator);
+                    conversionStats.generatorsConverted++;
                 }
             }
         }
@@ -882,11 +1119,7 @@ public class BEASTContext {
     private boolean isExcludedGenerator(Generator generator) {
         if (LPhyBEASTExt.isExcludedGenerator(generator))
             return true;
-        for (Class<? extends Generator> gCls : excludedGeneratorClasses)
-            // if generator.getClass() is either the same as, or is a superclass or superinterface of, gCls.
-            if (gCls.isAssignableFrom(generator.getClass()))
-                return true;
-        return false;
+        return loader.getConverterCache().isExcludedGeneratorClass(generator.getClass());
     }
 
     private BEASTInterface valueToBEAST(Value<?> val) {
@@ -907,6 +1140,7 @@ public class BEASTContext {
             // but there is another special method to do this
             /** {@link #putBEASTObject(GraphicalModelNode, BEASTInterface)} **/
             addToContext(val, beastValue);
+            conversionStats.valuesConverted++;
         }
         return beastValue;
     }
@@ -929,27 +1163,15 @@ public class BEASTContext {
             } else
                 componentClass = valueType.getComponentType();
 
-            for (Class vCls : excludedValueTypes) {
-                // if vCls is either the same as, or is a superclass or superinterface of value.getType().
-                if (vCls != null && vCls.isAssignableFrom(componentClass))
-                    return true;
-            }
-        } else {
-            for (Class vCls : excludedValueTypes) {
-                // compare the wrapped value's class.
-                // if vCls is either the same as, or is a superclass or superinterface of value.getType().
-                if (vCls != null && vCls.isAssignableFrom(valueType))
-                    return true;
-            }
+            return loader.getConverterCache().isExcludedValueType(componentClass);
         }
-        return false;
+        // compare the wrapped value's class.
+        return loader.getConverterCache().isExcludedValueType(valueType);
     }
 
-    // fill in beastObjects, BEASTToLPHYMap, elements, and state
+    // bind node to beastInterface in elements, and fill in state
     private void addToContext(GraphicalModelNode node, BEASTInterface beastInterface) {
-        beastObjects.put(node, beastInterface);
-        BEASTToLPHYMap.put(beastInterface, node);
-        elements.put(beastInterface, node);
+        elements.bind(node, beastInterface);
 
         if (isState(node)) {
             Value var = (Value) node;
@@ -968,25 +1190,20 @@ public class BEASTContext {
                 } else if (beastInterface instanceof Concatenate) {
                     Concatenate concatenate = (Concatenate) beastInterface;
                     for (Function function : concatenate.functionsInput.get()) {
-                        if (function instanceof StateNode && !state.contains(function)) {
-                            state.add((StateNode) function);
-                        }
+                        if (function instanceof StateNode stateNode)
+                            state.add(stateNode);
                     }
                 } else if (beastInterface instanceof BEASTVector) {
                     for (BEASTInterface beastElement : ((BEASTVector) beastInterface).getObjectList()) {
                         // BI obj is wrapped inside BEASTVector, so check existence again
-                        if (beastElement instanceof StateNode && !state.contains(beastElement)) {
-                            state.add((StateNode) beastElement);
-                        }
+                        if (beastElement instanceof StateNode stateNode)
+                            state.add(stateNode);
                     }
                 } else if (beastInterface instanceof Slice) {
                     BEASTInterface parent = (BEASTInterface)((Slice)beastInterface).functionInput.get();
-                    if (parent instanceof StateNode) {
-                        if (!state.contains(parent)) {
-                            state.add((StateNode) parent);
-                        } else {
-                            // parent already in state
-                        }
+                    if (parent instanceof StateNode stateNode) {
+                        // ignored if parent already in state
+                        state.add(stateNode);
                     } else {
                         throw new RuntimeException("Slice representing random value, but the sliced beast interface is not a state node!");
                     }
@@ -1079,7 +1296,7 @@ public class BEASTContext {
 
         List<Distribution> likelihoodList = new ArrayList<>();
 
-        for (Map.Entry<GraphicalModelNode<?>, BEASTInterface> entry : beastObjects.entrySet()) {
+        for (Map.Entry<GraphicalModelNode<?>, BEASTInterface> entry : elements.getNodeToObjectMap().entrySet()) {
             if (entry.getValue() instanceof Distribution) {
                 if ( !(entry.getKey() instanceof Generator) )
                     throw new IllegalArgumentException("Require likelihood or prior to be Generator !");
@@ -1121,6 +1338,9 @@ public class BEASTContext {
             }
         }
 
+        if (lPhyBeastConfig.mergePartitions)
+            mergePartitions(likelihoodList);
+
         for (BEASTInterface beastInterface : elements.keySet()) {
             if (beastInterface instanceof Distribution && !likelihoodList.contains(beastInterface) && !priorList.contains(beastInterface)) {
                 priorList.add((Distribution) beastInterface);
@@ -1138,6 +1358,9 @@ public class BEASTContext {
 
         CompoundDistribution likelihoods = new CompoundDistribution();
         likelihoods.setInputValue("distribution", likelihoodList);
+        // before validation, where the likelihoods take their threads
+        if (lPhyBeastConfig.getCores() > 0)
+            allocateCores(likelihoods, likelihoodList);
         likelihoods.initAndValidate();
         likelihoods.setID(LIKELIHOOD_ID);
         elements.put(likelihoods, null);
@@ -1155,6 +1378,84 @@ public class BEASTContext {
         return posterior;
     }
 
+    /**
+     * Replace the tree likelihoods having the identical model by the likelihood of their merged alignment,
+     * given by --mergePartitions. The alignments given by --logPartitions keep their own likelihoods,
+     * which are logged separately.
+     * @see PartitionMerger
+     */
+    private void mergePartitions(List<Distribution> likelihoodList) {
+        List<Distribution> candidates = new ArrayList<>();
+        for (Distribution dist : likelihoodList) {
+            if (dist instanceof GenericTreeLikelihood treeLikelihood &&
+                    lPhyBeastConfig.isPartitionLogged(treeLikelihood.dataInput.get().getID()))
+                continue;
+            candidates.add(dist);
+        }
+
+        PartitionMerger merger = new PartitionMerger(state::contains);
+        for (List<GenericTreeLikelihood> group : merger.group(candidates)) {
+            ThreadedTreeLikelihood merged = PartitionMerger.merge(group);
+            initAndValidate(merged);
+
+            likelihoodList.set(likelihoodList.indexOf(group.get(0)), merged);
+            for (GenericTreeLikelihood treeLikelihood : group) {
+                if (treeLikelihood != group.get(0))
+                    likelihoodList.remove(treeLikelihood);
+                // also remove it from loggers
+                removeBEASTObject(treeLikelihood);
+            }
+            elements.put(merged, null);
+            addExtraLoggable(merged);
+            LoggerUtils.log.info("Merge the partitions " + group.stream().map(l -> l.dataInput.get().getID()).toList() +
+                    " having the identical model into " + merged.dataInput.get().getID() + " with " +
+                    merged.dataInput.get().getPatternCount() + " patterns.");
+        }
+    }
+
+    /**
+     * Set the threads of the likelihood compound and each {@link ThreadedTreeLikelihood}
+     * given by --cores, where the cores are shared by all chains of MC3.
+     * BEAST uses no more threads than its -threads option.
+     * @see CoreAllocation
+     */
+    private void allocateCores(CompoundDistribution likelihoods, List<Distribution> likelihoodList) {
+        int cores = lPhyBeastConfig.getCores();
+        if (lPhyBeastConfig.isUseMC3())
+            cores = Math.max(1, cores / lPhyBeastConfig.getChains());
+
+        final int n = likelihoodList.size();
+        if (n < 1)
+            return;
+        int[] patternCounts = new int[n];
+        boolean[] threadable = new boolean[n];
+        String[] ids = new String[n];
+        for (int i = 0; i < n; i++) {
+            Distribution dist = likelihoodList.get(i);
+            if (dist instanceof GenericTreeLikelihood treeLikelihood)
+                patternCounts[i] = treeLikelihood.dataInput.get().getPatternCount();
+            threadable[i] = dist instanceof ThreadedTreeLikelihood;
+            ids[i] = dist.getID();
+        }
+        CoreAllocation allocation = CoreAllocation.allocate(cores, patternCounts, threadable);
+
+        // set before the likelihoods are validated, where the threaded tree likelihoods are deferred
+        // for the in-process run, otherwise the threads are only for the XML run by BEAST
+        for (int i = 0; i < n; i++) {
+            if (threadable[i])
+                likelihoodList.get(i).setInputValue("threads", allocation.getThreads()[i]);
+        }
+        if (allocation.getPartitionThreads() > 1) {
+            likelihoods.setInputValue("useThreads", true);
+            likelihoods.setInputValue("threads", allocation.getPartitionThreads());
+        }
+
+        String comment = allocation.toString(ids) + "Run BEAST with -threads " + lPhyBeastConfig.getCores() +
+                (lPhyBeastConfig.isUseMC3() ? ", which is shared by " + lPhyBeastConfig.getChains() + " chains." : ".");
+        runComments.add(comment);
+        LoggerUtils.log.info(comment);
+    }
+
     public Prior getPrior(Function param) {
         for (BEASTInterface beastInterface : elements.keySet()) {
             if (beastInterface instanceof Prior prior && prior.m_x.get().equals(param) ) {
@@ -1205,7 +1506,7 @@ public class BEASTContext {
         return false;
     }
 
-    protected int getAllStatesSize(List<StateNode> stateNodes) {
+    protected int getAllStatesSize(Collection<StateNode> stateNodes) {
         int size = 0;
         for (StateNode stateNode : stateNodes) {
             if (stateNode instanceof TreeInterface)
@@ -1219,11 +1520,25 @@ public class BEASTContext {
     public void clear() {
         state.clear();
         elements.clear();
-        beastObjects.clear();
         extraOperators.clear();
         skipOperators.clear();
     }
 
+    /**
+     * Run the MCMC or MC3 created by {@link #toBEASTXML(String)} or {@link #toBEASTXML_MC3(String)} in-process,
+     * given by --run, so that BEAST does not parse and initialise the XML again.
+     * The logs and state file are written next to the XML, see {@link InProcessRunner#run(MCMC, Path, Long)}.
+     * @param xmlPath  the XML file path, which gives the directory and the name of the state file.
+     * @param seed     the seed of BEAST, which is not set if null.
+     * @throws IOException if the logs or state file cannot be written.
+     */
+    public void runMCMC(Path xmlPath, Long seed) throws IOException {
+        if (mcmc == null)
+            throw new IllegalStateException("The MCMC has not been created, please call toBEASTXML first !");
+        validateDeferredObjects("the in-process run");
+        InProcessRunner.run(mcmc, xmlPath, seed);
+    }
+
     public void runBEAST(String logFileStem) {
 
         MCMC mcmc = createMCMC(1000000, 1000, logFileStem, 0, false);
@@ -1257,8 +1572,20 @@ public class BEASTContext {
         return extraOperators.stream().anyMatch(op -> op.getID().equals(opID));
     }
 
+    /**
+     * @return  a copy of state nodes in the order of adding.
+     *          Use {@link #addStateNode(StateNode, GraphicalModelNode, boolean)}
+     *          or {@link #removeBEASTObject(BEASTInterface)} to change them.
+     */
     public List<StateNode> getState() {
-        return state;
+        return new ArrayList<>(state);
+    }
+
+    /**
+     * @return  the counters collected while converting LPhy objects into BEAST objects.
+     */
+    public ConversionStats getConversionStats() {
+        return conversionStats;
     }
 
     public Multimap<BEASTInterface, GraphicalModelNode<?>> getElements() {
@@ -1266,7 +1593,7 @@ public class BEASTContext {
     }
 
     public Map<BEASTInterface, GraphicalModelNode<?>> getBEASTToLPHYMap() {
-        return BEASTToLPHYMap;
+        return elements.getObjectToNodeMap();
     }
 
     public Set<StateNode> getSkipOperators() {
@@ -1313,6 +1640,80 @@ public class BEASTContext {
         inits.add(beastInitializer);
     }
 
+    /**
+     * The sequences will be written by {@link BEASTXMLWriter} in place of
+     * the tokens given by {@link BEASTXMLWriter#getSequenceToken(int, int)}.
+     * @return  the index of the sequences used in the tokens.
+     */
+    public int addStreamedSequences(EncodedSequences sequences) {
+        streamedSequences.add(sequences);
+        return streamedSequences.size() - 1;
+    }
+
+    public List<EncodedSequences> getStreamedSequences() {
+        return streamedSequences;
+    }
+
+    /**
+     * @return  the XML file path without extension, or null if it is unknown, e.g. in unit tests.
+     */
+    public String getOutPathNoExt() {
+        return outPathNoExt;
+    }
+
+    public void setOutPathNoExt(String outPathNoExt) {
+        this.outPathNoExt = outPathNoExt;
+    }
+
+    /**
+     * Call initAndValidate of a heavy BEAST object, e.g. the tree likelihood allocating its partials,
+     * or leave it to BEAST when the XML is loaded, if --deferValidation is given.
+     * Then only the structural check runs before the XML is created.
+     * The threaded tree likelihoods are also deferred, if --run and --cores are given,
+     * because they take their threads when validated, which are allocated after they are created.
+     * @param beastInterface  the BEAST object whose inputs have been set
+     */
+    public void initAndValidate(BEASTInterface beastInterface) {
+        if (lPhyBeastConfig.deferValidation || (lPhyBeastConfig.runInProcess &&
+                lPhyBeastConfig.getCores() > 0 && beastInterface instanceof ThreadedTreeLikelihood))
+            deferredObjects.add(beastInterface);
+        else
+            beastInterface.initAndValidate();
+    }
+
+    // the deferred objects are validated in-process, if the MCMC runs before BEAST
+    void validateDeferredObjects(String reason) {
+        if (deferredObjects.isEmpty())
+            return;
+        LoggerUtils.log.info("Validate " + deferredObjects.size() + " deferred BEAST objects for " + reason + ".");
+        for (BEASTInterface beastInterface : deferredObjects)
+            beastInterface.initAndValidate();
+        deferredObjects.clear();
+    }
+
+    // the required inputs of deferred objects, and the taxa in tree likelihoods
+    void checkDeferredObjects() {
+        if (deferredObjects.isEmpty())
+            return;
+        for (BEASTInterface beastInterface : deferredObjects) {
+            try {
+                beastInterface.validateInputs();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid inputs of " + beastInterface.getID() + " : " + e.getMessage(), e);
+            }
+            if (beastInterface instanceof GenericTreeLikelihood treeLikelihood) {
+                Alignment data = treeLikelihood.dataInput.get();
+                TreeInterface tree = treeLikelihood.treeInput.get();
+                if (data.getTaxonCount() != tree.getLeafNodeCount())
+                    throw new IllegalArgumentException("The alignment " + data.getID() + " has " + data.getTaxonCount() +
+                            " taxa, but the tree " + tree.getID() + " has " + tree.getLeafNodeCount() +
+                            " tips in " + treeLikelihood.getID());
+            }
+        }
+        LoggerUtils.log.info("Defer the validation of " + deferredObjects.size() + " BEAST objects to " +
+                (lPhyBeastConfig.deferValidation ? "BEAST." : "the in-process run."));
+    }
+
     public Map<SequenceType, DataType> getDataTypeMap() {
         return this.dataTypeMap;
     }
@@ -1348,7 +1749,7 @@ public class BEASTContext {
 
     public List<Value<lphy.base.evolution.alignment.Alignment>> getAlignments() {
         ArrayList<Value<lphy.base.evolution.alignment.Alignment>> alignments = new ArrayList<>();
-        for (GraphicalModelNode node : beastObjects.keySet()) {
+        for (GraphicalModelNode node : elements.getNodeToObjectMap().keySet()) {
             if (node instanceof Value && node.value() instanceof lphy.base.evolution.alignment.Alignment) {
                 alignments.add((Value<lphy.base.evolution.alignment.Alignment>) node);
             }
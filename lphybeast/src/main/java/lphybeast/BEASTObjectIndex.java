@@ -0,0 +1,261 @@
+package lphybeast;
+
+import beast.base.core.BEASTInterface;
+import com.google.common.collect.*;
+import lphy.core.model.GraphicalModelNode;
+
+import java.util.*;
+
+/**
+ * The BEAST objects in {@link BEASTContext}, each of them with the graphical model nodes that caused their production.
+ * It also keeps an index from the ID to the BEAST objects, which is updated when the objects are added or removed,
+ * so that {@link #getByID(String)} does not scan all objects when the ID is found.
+ * If the ID of an object is set or changed after it is added, then call {@link #updateID(BEASTInterface)},
+ * e.g. by {@link BEASTContext#setBEASTObjectID(BEASTInterface, String)}, or add it again.
+ * Otherwise, the object is found by scanning all objects when its new ID is not in the index,
+ * where every object whose ID has changed is re-indexed.
+ * <p>
+ * A graphical model node can be bound to its equivalent BEAST object by {@link #bind(GraphicalModelNode, BEASTInterface)}.
+ * The bindings are kept in both directions, so that {@link #getBEASTObject(GraphicalModelNode)},
+ * {@link #getGraphicalModelNode(BEASTInterface)} and removing a BEAST object do not scan the other bindings.
+ * A bound object is always in the multimap, and removing it from the multimap also removes its bindings.
+ */
+public class BEASTObjectIndex extends ForwardingSetMultimap<BEASTInterface, GraphicalModelNode<?>> {
+
+    private final SetMultimap<BEASTInterface, GraphicalModelNode<?>> elements = HashMultimap.create();
+
+    // ID => BEAST objects in the order of adding, the first one with the same ID is returned
+    private final ListMultimap<String, BEASTInterface> idIndex = ArrayListMultimap.create();
+    // BEAST object => the ID when it was indexed
+    private final Map<BEASTInterface, String> indexedIDs = new IdentityHashMap<>();
+
+    // graphical model node => its equivalent BEAST object
+    private final Map<GraphicalModelNode<?>, BEASTInterface> nodeToObject = new HashMap<>();
+    // BEAST object => the nodes bound to it, the reverse of nodeToObject
+    private final Map<BEASTInterface, Set<GraphicalModelNode<?>>> objectToNodes = new IdentityHashMap<>();
+    // BEAST object => the node it represents, which is the last node bound to it
+    private final Map<BEASTInterface, GraphicalModelNode<?>> objectToNode = new IdentityHashMap<>();
+
+    private final ConversionStats stats;
+
+    public BEASTObjectIndex(ConversionStats stats) {
+        this.stats = Objects.requireNonNull(stats);
+    }
+
+    @Override
+    protected SetMultimap<BEASTInterface, GraphicalModelNode<?>> delegate() {
+        return elements;
+    }
+
+    /**
+     * @param id  the ID of BEAST object
+     * @return  the BEAST object having this ID, or null if not found.
+     */
+    public BEASTInterface getByID(String id) {
+        stats.idLookups++;
+        if (id == null) return null;
+
+        for (BEASTInterface beastInterface : idIndex.get(id)) {
+            // in case the ID is changed without updateID
+            if (id.equals(beastInterface.getID())) {
+                stats.idIndexHits++;
+                return beastInterface;
+            }
+        }
+        // the ID may be set or changed after the object is added
+        return scanAndReindex(id);
+    }
+
+    // scan all objects, re-index the ones whose ID has changed, and return the first one having the ID
+    private BEASTInterface scanAndReindex(String id) {
+        stats.idScans++;
+        BEASTInterface found = null;
+        for (BEASTInterface beastInterface : elements.keySet()) {
+            stats.objectsScanned++;
+            String newID = beastInterface.getID();
+            if (!Objects.equals(indexedIDs.get(beastInterface), newID)) {
+                stats.staleIDs++;
+                updateID(beastInterface);
+            }
+            if (found == null && id.equals(newID))
+                found = beastInterface;
+        }
+        return found;
+    }
+
+    /**
+     * Bind the graphical model node to its equivalent BEAST object, and add them into this multimap.
+     * The node is unbound from the BEAST object it was bound to before.
+     * @param node            graphical model node
+     * @param beastInterface  the BEAST object equivalent to the node
+     */
+    public void bind(GraphicalModelNode<?> node, BEASTInterface beastInterface) {
+        if (beastInterface == null) {
+            unbind(node);
+            return;
+        }
+        BEASTInterface previous = nodeToObject.put(node, beastInterface);
+        if (previous != null && previous != beastInterface)
+            removeNode(previous, node);
+        objectToNodes.computeIfAbsent(beastInterface, k -> new HashSet<>()).add(node);
+        objectToNode.put(beastInterface, node);
+        put(beastInterface, node);
+    }
+
+    /**
+     * @param node  graphical model node
+     * @return  the BEAST object bound to the node, or null if not bound.
+     */
+    public BEASTInterface getBEASTObject(GraphicalModelNode<?> node) {
+        return nodeToObject.get(node);
+    }
+
+    /**
+     * @param beastInterface  BEAST object
+     * @return  the graphical model node last bound to the BEAST object, or null if not bound.
+     */
+    public GraphicalModelNode<?> getGraphicalModelNode(BEASTInterface beastInterface) {
+        return objectToNode.get(beastInterface);
+    }
+
+    /**
+     * @return  the unmodifiable view of the graphical model nodes with their equivalent BEAST objects.
+     */
+    public Map<GraphicalModelNode<?>, BEASTInterface> getNodeToObjectMap() {
+        return Collections.unmodifiableMap(nodeToObject);
+    }
+
+    /**
+     * @return  the unmodifiable view of the BEAST objects with the graphical model nodes they represent.
+     */
+    public Map<BEASTInterface, GraphicalModelNode<?>> getObjectToNodeMap() {
+        return Collections.unmodifiableMap(objectToNode);
+    }
+
+    private void unbind(GraphicalModelNode<?> node) {
+        BEASTInterface previous = nodeToObject.remove(node);
+        if (previous != null)
+            removeNode(previous, node);
+    }
+
+    // only remove the reverse entry, objectToNode keeps the node the object represents
+    private void removeNode(BEASTInterface beastInterface, GraphicalModelNode<?> node) {
+        Set<GraphicalModelNode<?>> nodes = objectToNodes.get(beastInterface);
+        if (nodes != null && nodes.remove(node) && nodes.isEmpty())
+            objectToNodes.remove(beastInterface);
+    }
+
+    // remove all bindings of the BEAST object, which takes the time proportional to the nodes bound to it
+    private void unbindAll(BEASTInterface beastInterface) {
+        objectToNode.remove(beastInterface);
+        Set<GraphicalModelNode<?>> nodes = objectToNodes.remove(beastInterface);
+        if (nodes != null) {
+            for (GraphicalModelNode<?> node : nodes)
+                nodeToObject.remove(node);
+        }
+    }
+
+    /**
+     * Update the ID index after the ID of the given object is changed.
+     * @param beastInterface  BEAST object already in this index
+     */
+    public void updateID(BEASTInterface beastInterface) {
+        if (!elements.containsKey(beastInterface))
+            return;
+        unindex(beastInterface);
+        index(beastInterface);
+    }
+
+    @Override
+    public boolean put(BEASTInterface key, GraphicalModelNode<?> value) {
+        if (!elements.containsKey(key))
+            index(key);
+        else if (!Objects.equals(indexedIDs.get(key), key.getID()))
+            updateID(key);
+        return elements.put(key, value);
+    }
+
+    @Override
+    public boolean putAll(BEASTInterface key, Iterable<? extends GraphicalModelNode<?>> values) {
+        boolean changed = false;
+        for (GraphicalModelNode<?> value : values)
+            changed |= put(key, value);
+        return changed;
+    }
+
+    @Override
+    public boolean putAll(Multimap<? extends BEASTInterface, ? extends GraphicalModelNode<?>> multimap) {
+        boolean changed = false;
+        for (Map.Entry<? extends BEASTInterface, ? extends GraphicalModelNode<?>> entry : multimap.entries())
+            changed |= put(entry.getKey(), entry.getValue());
+        return changed;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        boolean changed = elements.remove(key, value);
+        if (changed) {
+            BEASTInterface beastInterface = (BEASTInterface) key;
+            if (value != null && nodeToObject.get(value) == beastInterface)
+                unbind((GraphicalModelNode<?>) value);
+            if (value != null && objectToNode.get(beastInterface) == value)
+                objectToNode.remove(beastInterface);
+            if (!elements.containsKey(key)) {
+                unbindAll(beastInterface);
+                unindex(beastInterface);
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public Set<GraphicalModelNode<?>> removeAll(Object key) {
+        Set<GraphicalModelNode<?>> removed = elements.removeAll(key);
+        if (key instanceof BEASTInterface beastInterface) {
+            unbindAll(beastInterface);
+            unindex(beastInterface);
+        }
+        return removed;
+    }
+
+    @Override
+    public Set<GraphicalModelNode<?>> replaceValues(BEASTInterface key, Iterable<? extends GraphicalModelNode<?>> values) {
+        if (!elements.containsKey(key))
+            index(key);
+        Set<GraphicalModelNode<?>> removed = elements.replaceValues(key, values);
+        for (GraphicalModelNode<?> node : removed) {
+            if (node != null && !elements.containsEntry(key, node) && nodeToObject.get(node) == key)
+                unbind(node);
+        }
+        if (!elements.containsKey(key)) {
+            unbindAll(key);
+            unindex(key);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        elements.clear();
+        nodeToObject.clear();
+        objectToNodes.clear();
+        objectToNode.clear();
+        idIndex.clear();
+        indexedIDs.clear();
+    }
+
+    private void index(BEASTInterface beastInterface) {
+        String id = beastInterface.getID();
+        if (id != null) {
+            idIndex.put(id, beastInterface);
+            indexedIDs.put(beastInterface, id);
+        }
+    }
+
+    private void unindex(BEASTInterface beastInterface) {
+        String id = indexedIDs.remove(beastInterface);
+        if (id != null)
+            idIndex.remove(id, beastInterface);
+    }
+
+}
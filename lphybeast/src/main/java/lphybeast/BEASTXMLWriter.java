@@ -0,0 +1,148 @@
+package lphybeast;
+
+import lphybeast.tobeast.EncodedSequences;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Write BEAST 2 XML with the LPhy code in a comment block
+ * into a file or the standard output through a buffered writer,
+ * without copying the whole document into another String.
+ * The sequences can be streamed from {@link EncodedSequences},
+ * whose tokens given by {@link #getSequenceToken(int, int)} are replaced in the XML.
+ */
+public class BEASTXMLWriter {
+
+    // this has to be the 1st line in the file
+    public static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+    private static final String RUN_END_TAG = "</run>";
+
+    // @lphybeast.sequence:alignment:taxon@
+    private static final String SEQUENCE_TOKEN_PREFIX = "@lphybeast.sequence:";
+    private static final char SEQUENCE_TOKEN_END = '@';
+
+    private BEASTXMLWriter() { }
+
+    /**
+     * Write the XML to a file.
+     * @param outPath     XML file path
+     * @param codeBlock   LPhy code in the comment block
+     * @param beastXML    BEAST 2 XML created by {@link beast.base.parser.XMLProducer}
+     * @param runElement  the element to insert before &lt;/run&gt;, null to ignore
+     * @throws IOException
+     */
+    public static void write(Path outPath, String codeBlock, String beastXML, String runElement) throws IOException {
+        write(outPath, codeBlock, beastXML, runElement, List.of());
+    }
+
+    /**
+     * Write the XML to a file, where the sequence tokens are replaced by the streamed sequences.
+     * @param sequences   the sequences of alignments, where the index is used in the sequence tokens.
+     * @see #write(Path, String, String, String)
+     */
+    public static void write(Path outPath, String codeBlock, String beastXML, String runElement,
+                             List<EncodedSequences> sequences) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(outPath, StandardCharsets.UTF_8)) {
+            write(writer, codeBlock, beastXML, runElement, sequences);
+        }
+    }
+
+    /**
+     * Write the XML to the given stream, e.g. the standard output, which is flushed but not closed.
+     * @see #write(Path, String, String, String)
+     */
+    public static void write(OutputStream out, String codeBlock, String beastXML, String runElement) throws IOException {
+        write(out, codeBlock, beastXML, runElement, List.of());
+    }
+
+    /**
+     * @see #write(Path, String, String, String, List)
+     * @see #write(OutputStream, String, String, String)
+     */
+    public static void write(OutputStream out, String codeBlock, String beastXML, String runElement,
+                             List<EncodedSequences> sequences) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        write(writer, codeBlock, beastXML, runElement, sequences);
+        writer.flush();
+    }
+
+    /**
+     * Write the XML declaration, LPhy code and BEAST 2 XML without its declaration.
+     * @see #write(Path, String, String, String)
+     */
+    public static void write(Writer writer, String codeBlock, String beastXML, String runElement) throws IOException {
+        write(writer, codeBlock, beastXML, runElement, List.of());
+    }
+
+    /**
+     * @see #write(Path, String, String, String, List)
+     * @see #write(Writer, String, String, String)
+     */
+    public static void write(Writer writer, String codeBlock, String beastXML, String runElement,
+                             List<EncodedSequences> sequences) throws IOException {
+        writer.write(XML_DECLARATION);
+        writer.write("\n");
+        // lphy code in comment block
+        writer.write("<!--\n");
+        writer.write(codeBlock);
+        writer.write("\n-->\n");
+
+        // skip the declaration generated by beast2
+        int start = skipDeclaration(beastXML);
+        if (runElement != null) {
+            int runEnd = beastXML.lastIndexOf(RUN_END_TAG);
+            if (runEnd < start)
+                throw new IllegalArgumentException("Cannot find " + RUN_END_TAG + " in BEAST 2 XML !");
+            writeXML(writer, beastXML, start, runEnd, sequences);
+            writer.write(runElement);
+            start = runEnd;
+        }
+        writeXML(writer, beastXML, start, beastXML.length(), sequences);
+        writer.write("\n");
+    }
+
+    /**
+     * @param alignment  the index of {@link EncodedSequences} given to the writer
+     * @param taxon      the taxon index
+     * @return  the token to replace the value of BEAST sequence, which is streamed by the writer.
+     */
+    public static String getSequenceToken(int alignment, int taxon) {
+        return SEQUENCE_TOKEN_PREFIX + alignment + ":" + taxon + SEQUENCE_TOKEN_END;
+    }
+
+    // write xml[start, end), and replace the sequence tokens
+    private static void writeXML(Writer writer, String xml, int start, int end,
+                                 List<EncodedSequences> sequences) throws IOException {
+        if (!sequences.isEmpty()) {
+            int token;
+            while ((token = xml.indexOf(SEQUENCE_TOKEN_PREFIX, start)) >= 0 && token < end) {
+                writer.write(xml, start, token - start);
+                int sep = xml.indexOf(':', token + SEQUENCE_TOKEN_PREFIX.length());
+                int tokenEnd = xml.indexOf(SEQUENCE_TOKEN_END, sep + 1);
+                if (sep < 0 || tokenEnd < 0 || tokenEnd >= end)
+                    throw new IllegalArgumentException("Invalid sequence token at " + token + " in BEAST 2 XML !");
+                int alignment = Integer.parseInt(xml, token + SEQUENCE_TOKEN_PREFIX.length(), sep, 10);
+                int taxon = Integer.parseInt(xml, sep + 1, tokenEnd, 10);
+                sequences.get(alignment).writeSequence(taxon, writer);
+                start = tokenEnd + 1;
+            }
+        }
+        writer.write(xml, start, end - start);
+    }
+
+    // the index after <?xml ... ?>, or 0 if no declaration
+    private static int skipDeclaration(String xml) {
+        int i = 0;
+        while (i < xml.length() && Character.isWhitespace(xml.charAt(i)))
+            i++;
+        if (!xml.startsWith("<?xml ", i))
+            return 0;
+        int end = xml.indexOf("?>", i);
+        return end < 0 ? 0 : end + 2;
+    }
+}
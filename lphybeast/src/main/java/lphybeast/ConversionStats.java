@@ -0,0 +1,91 @@
+package lphybeast;
+
+/**
+ * The counters collected while {@link BEASTContext} converts LPhy objects into BEAST objects.
+ * If the conversion is linear to the model size, then the number of the objects scanned
+ * should not grow faster than the number of the values and generators converted.
+ */
+public class ConversionStats {
+
+    // BEASTObjectIndex#getByID
+    long idLookups = 0;
+    long idIndexHits = 0;
+    // the scans of all objects when an ID is not in the index, and the objects scanned
+    long idScans = 0;
+    long objectsScanned = 0;
+    // the objects re-indexed by the scans, whose ID was set or changed without updating the index
+    long staleIDs = 0;
+
+    // the distinct values in the post-order of the graphical model,
+    // and the nodes visited by each pass, which are the values, then the generators twice
+    long valuesTraversed = 0;
+    long valueVisits = 0;
+    long modifyVisits = 0;
+    long generatorVisits = 0;
+
+    long valuesConverted = 0;
+    long generatorsConverted = 0;
+    // nanoseconds
+    long conversionTime = 0;
+
+    public long getIdLookups() {
+        return idLookups;
+    }
+
+    public long getIdIndexHits() {
+        return idIndexHits;
+    }
+
+    public long getIdScans() {
+        return idScans;
+    }
+
+    public long getObjectsScanned() {
+        return objectsScanned;
+    }
+
+    public long getStaleIDs() {
+        return staleIDs;
+    }
+
+    public long getValuesTraversed() {
+        return valuesTraversed;
+    }
+
+    public long getValueVisits() {
+        return valueVisits;
+    }
+
+    public long getModifyVisits() {
+        return modifyVisits;
+    }
+
+    public long getGeneratorVisits() {
+        return generatorVisits;
+    }
+
+    public long getValuesConverted() {
+        return valuesConverted;
+    }
+
+    public long getGeneratorsConverted() {
+        return generatorsConverted;
+    }
+
+    /**
+     * @return the time in milliseconds to create BEAST objects.
+     */
+    public double getConversionTimeMillis() {
+        return conversionTime / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Convert %d values and %d generators in %.1f ms, " +
+                        "traverse %d values (visits = %d), then generators (visits = %d to modify, %d to convert), " +
+                        "ID lookups = %d (index hits = %d, scans = %d, objects scanned = %d, stale IDs = %d)",
+                valuesConverted, generatorsConverted, getConversionTimeMillis(),
+                valuesTraversed, valueVisits, modifyVisits, generatorVisits,
+                idLookups, idIndexHits, idScans, objectsScanned, staleIDs);
+    }
+}
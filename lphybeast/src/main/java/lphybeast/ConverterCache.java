@@ -0,0 +1,152 @@
+package lphybeast;
+
+import lphy.core.model.Generator;
+import lphy.core.model.Value;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolve the converters and the excluded types registered by {@link LPhyBEASTLoader} from the classes of LPhy objects,
+ * and cache both the positive and negative results, so that the registry is only scanned once per class.
+ * The registry is copied when it is created, so {@link LPhyBEASTLoader#invalidateCache()}
+ * must be called after it is changed, e.g. after loading an extension.
+ * @see ValueToBEAST#match(Value)
+ */
+public class ConverterCache {
+
+    // the classes of a Value and its generator, which determine the matching ValueToBEAST
+    private record ValueKey(Class<?> valueClass, Class<?> generatorClass) { }
+    // the key of ValueToBEAST#match(Object), which only depends on the raw value class
+    private static final ValueKey RAW_VALUE = new ValueKey(null, null);
+
+    private final List<ValueToBEAST> valueToBEASTList;
+    private final Map<Class, GeneratorToBEAST> generatorToBEASTMap;
+    private final List<Class<? extends Generator>> excludedGeneratorClasses;
+    private final List<Class> excludedValueTypes;
+
+    // Optional.empty() is cached if no converter is found
+    private final ClassValue<Optional<GeneratorToBEAST>> generatorToBEASTCache = new ClassValue<>() {
+        @Override
+        protected Optional<GeneratorToBEAST> computeValue(Class<?> generatorClass) {
+            return Optional.ofNullable(findGeneratorToBEAST(generatorClass));
+        }
+    };
+    // raw value class => ValueToBEAST given the classes of the Value and its generator
+    private final ClassValue<Map<ValueKey, Optional<ValueToBEAST>>> valueToBEASTCache = new ClassValue<>() {
+        @Override
+        protected Map<ValueKey, Optional<ValueToBEAST>> computeValue(Class<?> rawValueClass) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    private final ClassValue<Boolean> excludedGeneratorCache = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> generatorClass) {
+            for (Class<? extends Generator> gCls : excludedGeneratorClasses)
+                // if generator.getClass() is either the same as, or is a superclass or superinterface of, gCls.
+                if (gCls.isAssignableFrom(generatorClass))
+                    return true;
+            return false;
+        }
+    };
+    private final ClassValue<Boolean> excludedValueTypeCache = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> valueType) {
+            for (Class vCls : excludedValueTypes) {
+                // if vCls is either the same as, or is a superclass or superinterface of value.getType().
+                if (vCls != null && vCls.isAssignableFrom(valueType))
+                    return true;
+            }
+            return false;
+        }
+    };
+
+    public ConverterCache(List<ValueToBEAST> valueToBEASTList, Map<Class, GeneratorToBEAST> generatorToBEASTMap,
+                          List<Class<? extends Generator>> excludedGeneratorClasses, List<Class> excludedValueTypes) {
+        this.valueToBEASTList = new ArrayList<>(valueToBEASTList);
+        // keep inserted ordering
+        this.generatorToBEASTMap = new LinkedHashMap<>(generatorToBEASTMap);
+        this.excludedGeneratorClasses = new ArrayList<>(excludedGeneratorClasses);
+        this.excludedValueTypes = new ArrayList<>(excludedValueTypes);
+    }
+
+    /**
+     * @param generatorClass  the class of {@link Generator}
+     * @return  the converter registered for this class, otherwise the last one registered for its superclass
+     *          or interface, or null if not found.
+     */
+    public GeneratorToBEAST getGeneratorToBEAST(Class<?> generatorClass) {
+        return generatorToBEASTCache.get(generatorClass).orElse(null);
+    }
+
+    /**
+     * @param value  LPhy {@link Value}
+     * @return  the first {@link ValueToBEAST} matching this value, or null if not found.
+     */
+    public ValueToBEAST getMatchingValueToBEAST(Value value) {
+        Generator generator = value.getGenerator();
+        ValueKey key = new ValueKey(value.getClass(), generator == null ? null : generator.getClass());
+        return valueToBEASTCache.get(value.value().getClass())
+                .computeIfAbsent(key, k -> Optional.ofNullable(findValueToBEAST(value))).orElse(null);
+    }
+
+    /**
+     * @param rawValue  the object wrapped by LPhy {@link Value}
+     * @return  the first {@link ValueToBEAST} matching this raw value, or null if not found.
+     */
+    public ValueToBEAST getValueToBEAST(Object rawValue) {
+        return valueToBEASTCache.get(rawValue.getClass())
+                .computeIfAbsent(RAW_VALUE, k -> Optional.ofNullable(findValueToBEAST(rawValue))).orElse(null);
+    }
+
+    /**
+     * @param generatorClass  the class of {@link Generator}
+     * @return  if the class is assignable to one of the excluded generator classes.
+     */
+    public boolean isExcludedGeneratorClass(Class<?> generatorClass) {
+        return excludedGeneratorCache.get(generatorClass);
+    }
+
+    /**
+     * @param valueType  the class of the object wrapped by {@link Value}, or the component class of an array
+     * @return  if the class is assignable to one of the excluded value types.
+     */
+    public boolean isExcludedValueType(Class<?> valueType) {
+        return excludedValueTypeCache.get(valueType);
+    }
+
+    private GeneratorToBEAST findGeneratorToBEAST(Class<?> generatorClass) {
+        GeneratorToBEAST toBEAST = generatorToBEASTMap.get(generatorClass);
+
+        if (toBEAST == null) {
+            // else see if there is a compatible to beast
+            for (Map.Entry<Class, GeneratorToBEAST> entry : generatorToBEASTMap.entrySet()) {
+                // if *ToBEAST exists
+                if (entry.getKey().isAssignableFrom(generatorClass)) {
+                    toBEAST = entry.getValue();
+                }
+            }
+        }
+        return toBEAST;
+    }
+
+    private ValueToBEAST findValueToBEAST(Value value) {
+        for (ValueToBEAST possibleToBEAST : valueToBEASTList) {
+            if (possibleToBEAST.match(value)) {
+                return possibleToBEAST;
+            }
+        }
+        return null;
+    }
+
+    private ValueToBEAST findValueToBEAST(Object rawValue) {
+        for (ValueToBEAST possibleToBEAST : valueToBEASTList) {
+            // if *ToBEAST exists
+            if (possibleToBEAST.match(rawValue)) {
+                return possibleToBEAST;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,122 @@
+package lphybeast;
+
+import java.util.*;
+
+/**
+ * A set comparing elements by reference, which iterates in the insertion order.
+ * {@link #add(Object)}, {@link #contains(Object)} and {@link #remove(Object)} take constant time,
+ * so it can replace a list of BEAST objects, such as state nodes, checked by contains before adding.
+ * @param <E> the type of elements
+ */
+public class IdentityLinkedHashSet<E> extends AbstractSet<E> {
+
+    private static class Entry<E> {
+        final E element;
+        Entry<E> prev;
+        Entry<E> next;
+
+        Entry(E element) {
+            this.element = element;
+        }
+    }
+
+    private final Map<E, Entry<E>> entries = new IdentityHashMap<>();
+    private Entry<E> head = null;
+    private Entry<E> tail = null;
+    private int modCount = 0;
+
+    public IdentityLinkedHashSet() { }
+
+    public IdentityLinkedHashSet(Collection<? extends E> c) {
+        addAll(c);
+    }
+
+    @Override
+    public boolean add(E element) {
+        if (entries.containsKey(element))
+            return false;
+        Entry<E> entry = new Entry<>(element);
+        entries.put(element, entry);
+        if (tail == null) {
+            head = entry;
+        } else {
+            tail.next = entry;
+            entry.prev = tail;
+        }
+        tail = entry;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return entries.containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        Entry<E> entry = entries.remove(o);
+        if (entry == null)
+            return false;
+        unlink(entry);
+        return true;
+    }
+
+    private void unlink(Entry<E> entry) {
+        if (entry.prev == null) head = entry.next;
+        else entry.prev.next = entry.next;
+        if (entry.next == null) tail = entry.prev;
+        else entry.next.prev = entry.prev;
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        head = tail = null;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<>() {
+            Entry<E> next = head;
+            Entry<E> last = null;
+            int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public E next() {
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                if (next == null)
+                    throw new NoSuchElementException();
+                last = next;
+                next = next.next;
+                return last.element;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+                entries.remove(last.element);
+                unlink(last);
+                last = null;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+}
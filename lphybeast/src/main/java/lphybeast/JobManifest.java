@@ -0,0 +1,192 @@
+package lphybeast;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The manifest of a batch of {@link LPhyBeastJob}, e.g. a parameter sweep over scripts, constants and seeds,
+ * which is either a CSV file with a header, or a JSONL file of the same format as the jobs of --serve.
+ * The columns are "script", "constants", "seed", "replicates", "out" and "options",
+ * where only "script" is required, and "id" is the row number if it is not given.
+ * <p>
+ * In CSV, the "constants" are split by ';', e.g. "n=12;L=100", "out" is the XML file path or its stem,
+ * and the "options" are split by white spaces. A relative path of the script is resolved against
+ * the folder containing the manifest, but the output path follows the same rule as the command line.
+ */
+public class JobManifest {
+
+    public static final String SCRIPT = "script";
+    public static final String CONSTANTS = "constants";
+    public static final String SEED = "seed";
+    public static final String REPLICATES = "replicates";
+    public static final String OUT = "out";
+    public static final String OPTIONS = "options";
+    public static final String ID = "id";
+
+    private static final List<String> COLUMNS = List.of(ID, SCRIPT, CONSTANTS, SEED, REPLICATES, OUT, OPTIONS);
+
+    /**
+     * @param manifest  the CSV or JSONL (if the extension is .jsonl or .json) file
+     * @param options   the command line options applied to every job before the options of each row
+     * @return  the jobs in the order of rows
+     * @throws IOException  if the manifest cannot be read, or has an invalid row.
+     */
+    public static List<LPhyBeastJob> read(Path manifest, List<String> options) throws IOException {
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        Path dir = manifest.toAbsolutePath().getParent();
+        String fileName = manifest.getFileName().toString().toLowerCase();
+        List<LPhyBeastJob> jobs = fileName.endsWith(".jsonl") || fileName.endsWith(".json") ?
+                readJSONL(lines) : readCSV(lines);
+
+        List<LPhyBeastJob> resolved = new ArrayList<>();
+        for (LPhyBeastJob job : jobs) {
+            List<String> allOptions = new ArrayList<>(options);
+            allOptions.addAll(job.options());
+            resolved.add(new LPhyBeastJob(job.id(), dir.resolve(job.script()), job.constants(), job.seed(),
+                    job.replicates(), job.out(), allOptions));
+        }
+        return resolved;
+    }
+
+    static List<LPhyBeastJob> readJSONL(List<String> lines) throws IOException {
+        List<LPhyBeastJob> jobs = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.isBlank())
+                continue;
+            try {
+                jobs.add(LPhyBeastJob.fromJSON(new JSONObject(line), Integer.toString(jobs.size() + 1)));
+            } catch (JSONException | IllegalArgumentException e) {
+                throw new IOException("Invalid job in line " + (i + 1) + " : " + e.getMessage(), e);
+            }
+        }
+        return jobs;
+    }
+
+    static List<LPhyBeastJob> readCSV(List<String> lines) throws IOException {
+        List<LPhyBeastJob> jobs = new ArrayList<>();
+        List<String> header = null;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            // comments
+            if (line.isBlank() || line.startsWith("#"))
+                continue;
+            List<String> cells = splitCSVLine(line);
+            if (header == null) {
+                header = cells.stream().map(c -> c.trim().toLowerCase()).toList();
+                for (String column : header)
+                    if (!COLUMNS.contains(column))
+                        throw new IOException("Unknown column '" + column + "' in the manifest, " +
+                                "which only allows " + COLUMNS);
+                if (!header.contains(SCRIPT))
+                    throw new IOException("The manifest requires the column '" + SCRIPT + "' !");
+                continue;
+            }
+            if (cells.size() > header.size())
+                throw new IOException("Line " + (i + 1) + " has " + cells.size() +
+                        " cells, but the header has " + header.size() + " columns !");
+
+            Map<String, String> row = new HashMap<>();
+            for (int c = 0; c < cells.size(); c++) {
+                String cell = cells.get(c).trim();
+                if (!cell.isEmpty())
+                    row.put(header.get(c), cell);
+            }
+            if (!row.containsKey(SCRIPT))
+                throw new IOException("Line " + (i + 1) + " does not have the LPhy script !");
+
+            try {
+                String out = row.get(OUT);
+                if (out != null && !out.endsWith(".xml"))
+                    out += ".xml";
+                jobs.add(new LPhyBeastJob(row.getOrDefault(ID, Integer.toString(jobs.size() + 1)),
+                        Path.of(row.get(SCRIPT)),
+                        row.get(CONSTANTS),
+                        row.containsKey(SEED) ? Long.parseLong(row.get(SEED)) : null,
+                        row.containsKey(REPLICATES) ? Integer.parseInt(row.get(REPLICATES)) : null,
+                        out == null ? null : Path.of(out),
+                        row.containsKey(OPTIONS) ? List.of(row.get(OPTIONS).split("\\s+")) : List.of()));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid job in line " + (i + 1) + " : " + e.getMessage(), e);
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Split one line of CSV by ',', where a cell can be quoted by '"', and "" is an escaped quote.
+     * @param line  one line of CSV
+     * @return  the cells
+     */
+    static List<String> splitCSVLine(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        cell.append('"');
+                        i++;
+                    } else
+                        quoted = false;
+                } else
+                    cell.append(ch);
+            } else if (ch == '"')
+                quoted = true;
+            else if (ch == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else
+                cell.append(ch);
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    /**
+     * Write the summary of the jobs as a tab-delimited table, one row per job.
+     * @param summary  the output file
+     * @param jobs     the jobs in the manifest
+     * @param results  the results in the same order of jobs
+     * @throws IOException  if the file cannot be written.
+     */
+    public static void writeSummary(Path summary, List<LPhyBeastJob> jobs, List<JobResult> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(summary, StandardCharsets.UTF_8))) {
+            writer.println(String.join("\t", ID, SCRIPT, "status", "wall_time_ms", "xml_bytes",
+                    "peak_heap_MB", OUT, "error"));
+            for (int i = 0; i < jobs.size(); i++) {
+                LPhyBeastJob job = jobs.get(i);
+                JobResult result = results.get(i);
+                writer.println(String.join("\t", result.id(), job.script().toString(),
+                        result.success() ? "ok" : "error",
+                        Long.toString(result.wallTime()),
+                        Long.toString(result.xmlBytes()),
+                        String.format("%.1f", result.peakHeap() / (1024.0 * 1024.0)),
+                        String.join(",", result.outPaths().stream().map(Path::toString).toList()),
+                        // keep one line
+                        result.error() == null ? "" : result.error().replaceAll("\\s+", " ")));
+            }
+        }
+    }
+
+    /**
+     * @param manifest  the manifest file
+     * @return  the summary file next to the manifest, e.g. sweep_summary.tsv for sweep.csv
+     */
+    public static Path getSummaryFile(Path manifest) {
+        String fileName = manifest.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String stem = dot > 0 ? fileName.substring(0, dot) : fileName;
+        return manifest.toAbsolutePath().resolveSibling(stem + "_summary.tsv");
+    }
+
+}
@@ -0,0 +1,42 @@
+package lphybeast;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The result of {@link LPhyBeastJob}.
+ * @param id          the job ID
+ * @param success     if the XML are created
+ * @param outPaths    the XML file paths, one per replicate
+ * @param queueTime   the time in milliseconds waiting for a worker
+ * @param wallTime    the time in milliseconds to create the XML
+ * @param xmlBytes    the total size of the XML files
+ * @param peakHeap    the peak heap usage in bytes of the JVM while the job runs,
+ *                    which also includes other jobs running concurrently
+ * @param error       the error message, or null if successful
+ */
+public record JobResult(String id, boolean success, List<Path> outPaths, long queueTime, long wallTime,
+                        long xmlBytes, long peakHeap, String error) {
+
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("status", success ? "ok" : "error");
+        JSONArray out = new JSONArray();
+        for (Path path : outPaths)
+            out.put(path.toString());
+        json.put("out", out);
+        json.put("queueTimeMillis", queueTime);
+        json.put("wallTimeMillis", wallTime);
+        json.put("xmlBytes", xmlBytes);
+        json.put("peakHeapBytes", peakHeap);
+        if (error != null)
+            json.put("error", error);
+        return json;
+    }
+
+}
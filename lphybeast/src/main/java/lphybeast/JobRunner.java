@@ -0,0 +1,149 @@
+package lphybeast;
+
+import lphy.core.logger.LoggerUtils;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Run {@link LPhyBeastJob} in a bounded pool of workers, which share the {@link LPhyBEASTLoader} in this JVM.
+ * The options of each job are parsed by {@link LPhyBeastCMD}.
+ */
+public class JobRunner implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final int workers;
+    // resolve the relative path of scripts, as user.dir is changed by each job
+    private final Path baseDir = Path.of("").toAbsolutePath();
+    // the peak heap usage is reset when a job starts while no other job is running
+    private final AtomicInteger running = new AtomicInteger(0);
+
+    /**
+     * @param workers  the number of jobs to run concurrently. If 0, use the number of available processors.
+     * @param versionFiles  BEAST2 version files to init the loader, which can be null.
+     */
+    public JobRunner(int workers, String[] versionFiles) {
+        if (workers < 0)
+            throw new IllegalArgumentException("The number of workers cannot be negative : " + workers);
+        this.workers = workers == 0 ? Runtime.getRuntime().availableProcessors() : workers;
+        this.executor = Executors.newFixedThreadPool(this.workers);
+        LPhyBeastCMD.getLoader(versionFiles);
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @param job  the job
+     * @return  the result after the job is finished, which never completes exceptionally.
+     */
+    public CompletableFuture<JobResult> submit(LPhyBeastJob job) {
+        final long submitted = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> run(job, submitted), executor);
+    }
+
+    /**
+     * Run the job in the current thread.
+     * @param job  the job
+     * @return  the result, where the error message is given if failed.
+     */
+    public JobResult run(LPhyBeastJob job) {
+        return run(job, System.nanoTime());
+    }
+
+    private JobResult run(LPhyBeastJob job, long submitted) {
+        final long start = System.nanoTime();
+        final long queueTime = TimeUnit.NANOSECONDS.toMillis(start - submitted);
+        List<Path> outPaths = new ArrayList<>();
+        if (running.getAndIncrement() == 0)
+            resetPeakHeap();
+        try {
+            LPhyBeastCMD cmd = new LPhyBeastCMD();
+            // the options of the job can overwrite the options shared by all jobs
+            new CommandLine(cmd).setOverwrittenOptionsAllowed(true).parseArgs(job.toArgs(baseDir));
+            if (cmd.serve || cmd.manifest != null)
+                throw new IllegalArgumentException("A job cannot start another server or manifest !");
+
+            LPhyBeastConfig config;
+            // user.dir is set by the config
+            synchronized (LPhyBeast.SIMULATION_LOCK) {
+                config = cmd.createConfig();
+            }
+            if (config.isStdout())
+                throw new IllegalArgumentException("A job cannot write XML to the standard output !");
+
+            LPhyBeast lphyBeast = new LPhyBeast(LPhyBeastCMD.getLoader(null), config, cmd.repTot);
+            lphyBeast.checkInputs();
+            lphyBeast.run(cmd.repTot);
+
+            if (cmd.repTot > 1) {
+                for (int i = 0; i < cmd.repTot; i++)
+                    outPaths.add(config.getXMLFilePathWithRepId(i));
+            } else
+                outPaths.add(config.outPath);
+            return new JobResult(job.id(), true, outPaths, queueTime, millisSince(start),
+                    getFileSize(outPaths), getPeakHeap(), null);
+        } catch (Exception | StackOverflowError e) {
+            LoggerUtils.log.severe("Job " + job.id() + " failed : " + e);
+            return new JobResult(job.id(), false, outPaths, queueTime, millisSince(start),
+                    getFileSize(outPaths), getPeakHeap(), e.toString());
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    private static long getFileSize(List<Path> paths) {
+        long size = 0;
+        for (Path path : paths) {
+            try {
+                if (Files.isRegularFile(path))
+                    size += Files.size(path);
+            } catch (IOException e) {
+                LoggerUtils.log.warning("Cannot get the size of " + path + " : " + e.getMessage());
+            }
+        }
+        return size;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                pool.resetPeakUsage();
+    }
+
+    /**
+     * @return  the sum of the peak usage of the heap memory pools since the last reset.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Wait for the submitted jobs to finish.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+            LoggerUtils.log.info("Waiting for the running jobs to finish ...");
+    }
+
+}
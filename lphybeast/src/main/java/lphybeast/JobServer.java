@@ -0,0 +1,155 @@
+package lphybeast;
+
+import lphy.core.logger.LoggerUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keep the JVM and {@link LPhyBEASTLoader} alive, and read {@link LPhyBeastJob} as JSON lines,
+ * either from the standard input or from the connections to a Unix domain socket.
+ * The jobs are run concurrently by {@link JobRunner}, and the result of each job is written
+ * as a JSON line to the same stream once it finishes, so the results can be in a different order.
+ * The line {"command":"shutdown"} stops reading new jobs, and {@link JobRunner#close()} waits for the running jobs.
+ */
+public class JobServer {
+
+    public static final String COMMAND = "command";
+    public static final String SHUTDOWN = "shutdown";
+
+    private final JobRunner runner;
+    private final AtomicLong jobCount = new AtomicLong(0);
+
+    private volatile boolean shutdown = false;
+    private ServerSocketChannel serverChannel;
+
+    public JobServer(JobRunner runner) {
+        this.runner = runner;
+    }
+
+    /**
+     * Read jobs from the standard input until it is closed or the shutdown command is given.
+     * The standard output only has the results, and other messages are printed to the standard error.
+     */
+    public void serveStandardIO() throws IOException {
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(stdout, StandardCharsets.UTF_8));
+            serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), writer);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * Accept connections to the Unix domain socket, and read jobs from each of them,
+     * until the shutdown command is given.
+     * @param socketPath  the path of the socket, which is deleted after the server stops.
+     */
+    public void serve(Path socketPath) throws IOException {
+        Files.deleteIfExists(socketPath);
+        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        serverChannel.bind(UnixDomainSocketAddress.of(socketPath));
+        LoggerUtils.log.info("Accept LPhyBEAST jobs from " + socketPath + " using " + runner.getWorkers() + " workers");
+
+        int connections = 0;
+        try {
+            while (!shutdown) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (ClosedChannelException e) {
+                    // shutdown
+                    break;
+                }
+                Thread thread = new Thread(() -> {
+                    try (channel) {
+                        Reader reader = Channels.newReader(channel, StandardCharsets.UTF_8);
+                        Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
+                        serve(new BufferedReader(reader), writer);
+                    } catch (IOException e) {
+                        LoggerUtils.log.warning("Connection is closed : " + e.getMessage());
+                    }
+                }, "lphybeast-connection-" + connections++);
+                // the running jobs are waited by JobRunner#close, but not the idle connections
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } finally {
+            serverChannel.close();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    /**
+     * Read jobs line by line, and write the result of each job after it finishes.
+     * It returns after all jobs read from this reader finish.
+     * @param reader  JSON lines of jobs
+     * @param writer  JSON lines of results
+     */
+    public void serve(BufferedReader reader, Writer writer) throws IOException {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        String line;
+        while (!shutdown && (line = reader.readLine()) != null) {
+            if (line.isBlank())
+                continue;
+            final String defaultID = Long.toString(jobCount.incrementAndGet());
+            try {
+                JSONObject json = new JSONObject(line);
+                if (SHUTDOWN.equals(json.optString(COMMAND))) {
+                    shutdown();
+                    break;
+                }
+                LPhyBeastJob job = LPhyBeastJob.fromJSON(json, defaultID);
+                pending.add(runner.submit(job).thenAccept(result -> {
+                    try {
+                        writeLine(writer, result.toJSON().toString());
+                    } catch (JSONException | IOException e) {
+                        LoggerUtils.log.severe("Cannot write the result of job " + result.id() + " : " + e);
+                    }
+                }));
+            } catch (JSONException | IllegalArgumentException e) {
+                JobResult result = new JobResult(defaultID, false, List.of(), 0, 0, 0, 0,
+                        "Invalid job : " + e.getMessage());
+                try {
+                    writeLine(writer, result.toJSON().toString());
+                } catch (JSONException ex) {
+                    throw new IOException(ex);
+                }
+            }
+        }
+        CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+    }
+
+    private void writeLine(Writer writer, String line) throws IOException {
+        synchronized (writer) {
+            writer.write(line);
+            writer.write('\n');
+            writer.flush();
+        }
+    }
+
+    /**
+     * Stop reading new jobs, and close the socket if it is used.
+     */
+    public void shutdown() throws IOException {
+        shutdown = true;
+        if (serverChannel != null)
+            serverChannel.close();
+    }
+
+}
@@ -12,6 +12,7 @@ import lphybeast.tobeast.operators.DefaultTreeOperatorStrategy;
 import lphybeast.tobeast.operators.TreeOperatorStrategy;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -70,6 +71,9 @@ public class LPhyBEASTLoader {
      */
     public List<TreeOperatorStrategy> newTreeOperatorStrategies;
 
+    // resolve the converters and exclusions above by classes
+    private volatile ConverterCache converterCache;
+
     public static final String LPHY_BEAST_EXT = "lphybeast.spi.LPhyBEASTExt";
 
 
@@ -108,11 +112,7 @@ public class LPhyBEASTLoader {
     public List<LPhyBEASTExt> getExtClasses() throws IOException, ClassNotFoundException,
             InvocationTargetException, NoSuchMethodException, IllegalAccessException {
 
-        Map<String, Set<String>> providers = BEASTClassLoader.getServices();
-        Set<String> extStr = providers.get(LPHY_BEAST_EXT);
-
-        if (extStr==null || extStr.isEmpty())
-            throw new IllegalArgumentException("Cannot find the BEAST2 service implementing " + LPHY_BEAST_EXT + " !");
+        Set<String> extStr = getExtClassNames();
 
         List<LPhyBEASTExt> extensionList = new ArrayList<>();
         for (String clsStr : extStr) {
@@ -133,8 +133,93 @@ public class LPhyBEASTLoader {
     }
 
 
+    /**
+     * @return the cache to resolve converters and exclusions by classes, which is created after the registry is changed.
+     */
+    public ConverterCache getConverterCache() {
+        ConverterCache cache = converterCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (converterCache == null)
+                    converterCache = new ConverterCache(valueToBEASTList, generatorToBEASTMap,
+                            excludedGeneratorClasses, excludedValueTypes);
+                cache = converterCache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Discard the cached converters and exclusions, which must be called after the registry is changed.
+     */
+    public synchronized void invalidateCache() {
+        converterCache = null;
+    }
+
+    /**
+     * @return  the class names of LPhyBEAST extensions in the BEAST services.
+     */
+    public Set<String> getExtClassNames() {
+        Map<String, Set<String>> providers = BEASTClassLoader.getServices();
+        Set<String> extStr = providers.get(LPHY_BEAST_EXT);
+
+        if (extStr==null || extStr.isEmpty())
+            throw new IllegalArgumentException("Cannot find the BEAST2 service implementing " + LPHY_BEAST_EXT + " !");
+        return extStr;
+    }
+
     //    private void registerExtensions(ServiceLoader<LPhyBEASTExt> loader, String clsName) {
     private void registerExtensions(List<String> spiClsNames) {
+        final long start = System.nanoTime();
+        try {
+            // skip the discovery if the extensions and packages are not changed since the index was written
+            Path indexFile = RegistryIndex.getIndexFile();
+            String key = RegistryIndex.computeKey(getExtClassNames());
+            RegistryIndex index = RegistryIndex.read(indexFile, key);
+            boolean loaded = false;
+            if (index != null) {
+                try {
+                    registerExtensions(index, spiClsNames);
+                    System.out.println("Load the registry of extensions from " + indexFile);
+                    loaded = true;
+                } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+                    LoggerUtils.log.warning("Rebuild the registry index, as it cannot be loaded : " + e);
+                }
+            }
+            if (!loaded) {
+                List<RegistryIndex.Extension> extensions = discoverExtensions(spiClsNames);
+                // the index has to include all extensions
+                if (spiClsNames == null) {
+                    try {
+                        new RegistryIndex(key, extensions).write(indexFile);
+                    } catch (IOException e) {
+                        LoggerUtils.log.warning("Cannot write the registry index " + indexFile + " : " + e.getMessage());
+                    }
+                }
+            }
+
+            System.out.println("Load " + valueToBEASTList.size() + " ValuesToBEAST = " + valueToBEASTList);
+            System.out.println("Load " + generatorToBEASTMap.size() + " GeneratorToBEAST = " + generatorToBEASTMap);
+            System.out.println("Map " + dataTypeMap.size() + " data type(s) = " + dataTypeMap);
+            System.out.println("Exclude " + excludedGeneratorClasses.size() + " extra Generator(s) = " + excludedGeneratorClasses);
+            System.out.println("Exclude " + excludedValueTypes.size() + " extra Value(s) = " + excludedValueTypes);
+            System.out.println("Load " + newTreeOperatorStrategies.size() + " new Tree Operator Strategies = " + newTreeOperatorStrategies);
+
+            Runtime runtime = Runtime.getRuntime();
+            LoggerUtils.log.info(String.format("Register extensions in %.1f ms, loaded classes = %d, heap used = %.1f MB",
+                    (System.nanoTime() - start) / 1e6,
+                    ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(),
+                    (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0));
+
+        } catch (ServiceConfigurationError serviceError) {
+            System.err.println(serviceError);
+            serviceError.printStackTrace();
+        }
+        invalidateCache();
+
+    }
+
+    private void resetRegistry() {
         valueToBEASTList = new ArrayList<>();
         generatorToBEASTMap = new LinkedHashMap<>();
         dataTypeMap = new ConcurrentHashMap<>();
@@ -143,61 +228,129 @@ public class LPhyBEASTLoader {
         excludedValueTypes = new ArrayList<>();
 
         newTreeOperatorStrategies = new ArrayList<>();
+    }
 
-        try {
+    /**
+     * Instantiate all extensions to register their converters, when the registry index does not exist
+     * or is out of date. Every converter is instantiated here, because the value and generator classes
+     * in the index are only given by {@link ValueToBEAST#getValueClass()} and
+     * {@link GeneratorToBEAST#getGeneratorClass()} of the instances, which cannot be reliably
+     * derived from the type arguments of the converter classes.
+     * So only the runs loading the index, see {@link #registerExtensions(RegistryIndex, List)},
+     * instantiate the converters lazily.
+     * @return the index entries of the registered extensions.
+     */
+    private List<RegistryIndex.Extension> discoverExtensions(List<String> spiClsNames) {
+        resetRegistry();
+        List<RegistryIndex.Extension> extensions = new ArrayList<>();
 //            Iterator<LPhyBEASTExt> extensions = loader.iterator();
 //            while (extensions.hasNext()) { // TODO validation if add same name
 
-            List<LPhyBEASTExt> extList = null;
+        List<LPhyBEASTExt> extList = null;
+        try {
             try {
-                try {
-                    extList = getExtClasses();
-                } catch (ClassNotFoundException | InvocationTargetException | NoSuchMethodException |
-                         IllegalAccessException e) {
-                    throw new RuntimeException(e);
-                }
-            } catch (IOException e) {
+                extList = getExtClasses();
+            } catch (ClassNotFoundException | InvocationTargetException | NoSuchMethodException |
+                     IllegalAccessException e) {
                 throw new RuntimeException(e);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
 
-            for (LPhyBEASTExt ext : extList) {
-                //*** LPhyBEASTExtImpl must have a public no-args constructor ***//
+        for (LPhyBEASTExt ext : extList) {
+            //*** LPhyBEASTExtImpl must have a public no-args constructor ***//
 //                LPhyBEASTExt ext = extensions.next();
-                // clsName == null then register all
-                if (spiClsNames == null || spiClsNames.contains(ext.getClass().getName())) {
-                    System.out.println("Registering extension from " + ext.getClass().getName());
-
-                    final List<Class<? extends ValueToBEAST>> valuesToBEASTs = ext.getValuesToBEASTs();
-                    final List<Class<? extends GeneratorToBEAST>> generatorToBEASTs = ext.getGeneratorToBEASTs();
-                    final Map<SequenceType, DataType> dataTypeMap = ext.getDataTypeMap();
-
-                    registerValueToBEAST(valuesToBEASTs);
-                    registerGeneratorToBEAST(generatorToBEASTs);
-                    registerDataTypes(dataTypeMap);
+            // clsName == null then register all
+            if (spiClsNames == null || spiClsNames.contains(ext.getClass().getName())) {
+                System.out.println("Registering extension from " + ext.getClass().getName());
+
+                final List<Class<? extends ValueToBEAST>> valuesToBEASTs = ext.getValuesToBEASTs();
+                final List<Class<? extends GeneratorToBEAST>> generatorToBEASTs = ext.getGeneratorToBEASTs();
+                final Map<SequenceType, DataType> dataTypeMap = ext.getDataTypeMap();
+
+                List<RegistryIndex.Converter> valueConverters = new ArrayList<>();
+                for (ValueToBEAST<?,?> valueToBEAST : registerValueToBEAST(valuesToBEASTs)) {
+                    Class<?> valueClass = valueToBEAST.getValueClass();
+                    valueConverters.add(new RegistryIndex.Converter(valueToBEAST.getClass().getName(),
+                            (valueClass == null ? Object.class : valueClass).getName(), overridesMatch(valueToBEAST)));
+                }
+                List<RegistryIndex.Converter> generatorConverters = new ArrayList<>();
+                for (GeneratorToBEAST<?,?> generatorToBEAST : registerGeneratorToBEAST(generatorToBEASTs))
+                    generatorConverters.add(new RegistryIndex.Converter(generatorToBEAST.getClass().getName(),
+                            generatorToBEAST.getGeneratorClass().getName(), false));
+                registerDataTypes(dataTypeMap);
+
+                excludedGeneratorClasses.addAll(ext.getExcludedGenerator());
+                excludedValueTypes.addAll(ext.getExcludedValueType());
+
+                boolean newTreeOperatorStrategy = !(ext.getTreeOperatorStrategy() instanceof DefaultTreeOperatorStrategy);
+                if (newTreeOperatorStrategy)
+                    newTreeOperatorStrategies.add(ext.getTreeOperatorStrategy());
+
+                extensions.add(new RegistryIndex.Extension(ext.getClass().getName(), valueConverters, generatorConverters,
+                        ext.getExcludedGenerator().stream().map(Class::getName).toList(),
+                        ext.getExcludedValueType().stream().filter(Objects::nonNull).map(Class::getName).toList(),
+                        !dataTypeMap.isEmpty() || newTreeOperatorStrategy));
+            }
+        }
+        return extensions;
+    }
 
-                    excludedGeneratorClasses.addAll(ext.getExcludedGenerator());
-                    excludedValueTypes.addAll(ext.getExcludedValueType());
+    // if the match methods have to be called on the instance
+    private static boolean overridesMatch(ValueToBEAST<?,?> valueToBEAST) {
+        try {
+            Class<?> cls = valueToBEAST.getClass();
+            return cls.getMethod("match", Value.class).getDeclaringClass() != ValueToBEAST.class ||
+                    cls.getMethod("match", Object.class).getDeclaringClass() != ValueToBEAST.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
 
-                    if ( ! (ext.getTreeOperatorStrategy() instanceof DefaultTreeOperatorStrategy) )
-                        newTreeOperatorStrategies.add(ext.getTreeOperatorStrategy());
-                }
+    /**
+     * Register the converters from the index, which only instantiates the extensions
+     * having data types or tree operator strategies.
+     * The converters are registered by their class names, and instantiated when they are first used.
+     * The classes are loaded by the class loader of each extension.
+     */
+    private void registerExtensions(RegistryIndex index, List<String> spiClsNames) throws ReflectiveOperationException {
+        resetRegistry();
+        for (RegistryIndex.Extension extension : index.getExtensions()) {
+            if (spiClsNames != null && !spiClsNames.contains(extension.extClassName()))
+                continue;
+            Class<?> extCls = BEASTClassLoader.forName(extension.extClassName(), LPHY_BEAST_EXT);
+            ClassLoader extLoader = extCls.getClassLoader();
+
+            for (RegistryIndex.Converter converter : extension.valueToBEASTs())
+                valueToBEASTList.add(new LazyValueToBEAST<>(converter.converterClassName(),
+                        converter.lphyClassName(), converter.overridesMatch(), extLoader));
+            for (RegistryIndex.Converter converter : extension.generatorToBEASTs()) {
+                // generator classes are required to find the converters
+                Class<? extends Generator> generatorClass = Class.forName(converter.lphyClassName(), false, extLoader)
+                        .asSubclass(Generator.class);
+                if (generatorToBEASTMap.containsKey(generatorClass))
+                    LoggerUtils.log.warning(converter.converterClassName() + " exists in register, overwrite previous one !");
+                generatorToBEASTMap.put(generatorClass,
+                        new LazyGeneratorToBEAST<>(converter.converterClassName(), generatorClass, extLoader));
             }
 
-            System.out.println("Load " + valueToBEASTList.size() + " ValuesToBEAST = " + valueToBEASTList);
-            System.out.println("Load " + generatorToBEASTMap.size() + " GeneratorToBEAST = " + generatorToBEASTMap);
-            System.out.println("Map " + dataTypeMap.size() + " data type(s) = " + dataTypeMap);
-            System.out.println("Exclude " + excludedGeneratorClasses.size() + " extra Generator(s) = " + excludedGeneratorClasses);
-            System.out.println("Exclude " + excludedValueTypes.size() + " extra Value(s) = " + excludedValueTypes);
-            System.out.println("Load " + newTreeOperatorStrategies.size() + " new Tree Operator Strategies = " + newTreeOperatorStrategies);
+            for (String gCls : extension.excludedGenerators())
+                excludedGeneratorClasses.add(Class.forName(gCls, false, extLoader).asSubclass(Generator.class));
+            for (String vCls : extension.excludedValueTypes())
+                excludedValueTypes.add(Class.forName(vCls, false, extLoader));
 
-        } catch (ServiceConfigurationError serviceError) {
-            System.err.println(serviceError);
-            serviceError.printStackTrace();
+            if (extension.requiresInstance()) {
+                LPhyBEASTExt ext = (LPhyBEASTExt) extCls.getDeclaredConstructor().newInstance();
+                registerDataTypes(ext.getDataTypeMap());
+                if ( ! (ext.getTreeOperatorStrategy() instanceof DefaultTreeOperatorStrategy) )
+                    newTreeOperatorStrategies.add(ext.getTreeOperatorStrategy());
+            }
         }
-
     }
 
-    private void registerValueToBEAST(final List<Class<? extends ValueToBEAST>> valuesToBEASTs) {
+    private List<ValueToBEAST<?,?>> registerValueToBEAST(final List<Class<? extends ValueToBEAST>> valuesToBEASTs) {
+        List<ValueToBEAST<?,?>> registered = new ArrayList<>();
         for (Class<? extends ValueToBEAST> c : valuesToBEASTs) {
             try {
                 // https://docs.oracle.com/javase/9/docs/api/java/lang/Class.html#newInstance--
@@ -205,13 +358,16 @@ public class LPhyBEASTLoader {
                 if (this.valueToBEASTList.contains(valueToBEAST))
                     LoggerUtils.log.warning(valueToBEAST + " exists in register, overwrite previous one !");
                 this.valueToBEASTList.add(valueToBEAST);
+                registered.add(valueToBEAST);
             } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
                 e.printStackTrace();
             }
         }
+        return registered;
     }
 
-    private void registerGeneratorToBEAST(final List<Class<? extends GeneratorToBEAST>> generatorToBEASTs) {
+    private List<GeneratorToBEAST<?,?>> registerGeneratorToBEAST(final List<Class<? extends GeneratorToBEAST>> generatorToBEASTs) {
+        List<GeneratorToBEAST<?,?>> registered = new ArrayList<>();
         for (Class<? extends GeneratorToBEAST> c : generatorToBEASTs) {
             try {
                 // https://docs.oracle.com/javase/9/docs/api/java/lang/Class.html#newInstance--
@@ -219,10 +375,12 @@ public class LPhyBEASTLoader {
                 if (this.generatorToBEASTMap.containsKey(generatorToBEAST))
                     LoggerUtils.log.warning(generatorToBEAST + " exists in register, overwrite previous one !");
                 this.generatorToBEASTMap.put(generatorToBEAST.getGeneratorClass(), generatorToBEAST);
+                registered.add(generatorToBEAST);
             } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException e) {
                 e.printStackTrace();
             }
         }
+        return registered;
     }
 
     private void registerDataTypes(final Map<SequenceType, DataType> dataTypeMap) {
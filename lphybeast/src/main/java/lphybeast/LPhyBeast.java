@@ -3,20 +3,20 @@ package lphybeast;
 import lphy.base.evolution.alignment.Alignment;
 import lphy.base.evolution.tree.TimeTree;
 import lphy.core.codebuilder.CanonicalCodeBuilder;
+import lphy.core.io.UserDir;
 import lphy.core.logger.LoggerUtils;
 import lphy.core.model.Value;
 import lphy.core.parser.LPhyParserDictionary;
 import lphy.core.parser.graphicalmodel.GraphicalModel;
 import lphy.core.simulator.NamedRandomValueSimulator;
+import lphy.core.simulator.RandomUtils;
 import lphy.core.simulator.Sampler;
+import lphybeast.inference.InProcessRunner;
 
 import java.io.*;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.regex.Matcher;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 /**
@@ -29,6 +29,18 @@ public class LPhyBeast implements Runnable {
 
     final int repTot;
 
+    // LPhy simulations share one random number generator, and also user.dir
+    static final Object SIMULATION_LOCK = new Object();
+    // BEAST runs share one random number generator and the prefix of log files, given by --run
+    static final Object BEAST_RUN_LOCK = new Object();
+
+    // parse the script once per thread, and re-sample the values for each replicate
+    private boolean parseOnce = false;
+    private final Map<Thread, ReplicateEngine> engines = new ConcurrentHashMap<>();
+
+    // where to write XML, if it is the standard output
+    private final PrintStream xmlOut = System.out;
+
     // LPhyBeastConfig to contain all settings
     final public LPhyBeastConfig lPhyBeastConfig;
 
@@ -73,51 +85,153 @@ public class LPhyBeast implements Runnable {
 
     @Override
     public void run() {
-        if (lPhyBeastConfig.inPath == null || lPhyBeastConfig.outPath == null || repTot < 1 ||
-                lPhyBeastConfig.getChainLength() < LPhyBeastConfig.NUM_OF_SAMPLES)
-            throw new IllegalArgumentException("Illegal inputs : inPath = " + lPhyBeastConfig.inPath +
-                    ", outPath = " + lPhyBeastConfig.outPath + ", rep = " + repTot + ", chainLength = " +
-                    lPhyBeastConfig.getChainLength() + ", preBurnin = " + lPhyBeastConfig.getPreBurnin());
+        checkInputs();
 
+        PrintStream stdout = System.out;
         try {
+            if (lPhyBeastConfig.isStdout())
+                // keep the standard output for XML only, and print the messages to the standard error
+                System.setOut(System.err);
             run(repTot);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            System.setOut(stdout);
         }
     }
 
     /**
-     * run all replicates if repTot > 1
+     * Validate the inputs before {@link #run(int)}.
+     */
+    void checkInputs() {
+        if (lPhyBeastConfig.inPath == null || lPhyBeastConfig.outPath == null || repTot < 1 ||
+                lPhyBeastConfig.getChainLength() < LPhyBeastConfig.NUM_OF_SAMPLES)
+            throw new IllegalArgumentException("Illegal inputs : inPath = " + lPhyBeastConfig.inPath +
+                    ", outPath = " + lPhyBeastConfig.outPath + ", rep = " + repTot + ", chainLength = " +
+                    lPhyBeastConfig.getChainLength() + ", preBurnin = " + lPhyBeastConfig.getPreBurnin());
+
+        if (lPhyBeastConfig.isStdout() && repTot > 1)
+            throw new IllegalArgumentException("Cannot write " + repTot + " replicates to the standard output !");
+        if (lPhyBeastConfig.isStdout() && lPhyBeastConfig.runInProcess)
+            throw new IllegalArgumentException("Cannot run MCMC in-process when XML is written to the standard output !");
+    }
+
+    /**
+     * run all replicates if repTot > 1.
+     * If {@link LPhyBeastConfig#getThreads()} > 1, then the replicates are created concurrently,
+     * where each replicate has its own simulator, {@link BEASTContext} and output path.
      * @param repTot  number of replicates to run
      * @throws IOException
      */
     public void run(int repTot) throws IOException {
+        // the tree likelihoods take the threads of BEAST when they are created
+        if (lPhyBeastConfig.runInProcess)
+            InProcessRunner.setThreads(lPhyBeastConfig.getCores());
         // e.g. well-calibrated validations
         if (repTot > 1) {
-            LoggerUtils.log.info("\nStart " + repTot + " replicates : \n");
+            final int threads = Math.min(lPhyBeastConfig.getThreads(), repTot);
+            LoggerUtils.log.info("\nStart " + repTot + " replicates using " + threads + " thread(s) : \n");
+            // each replicate seed is derived from this, so it is reproducible regardless of threads
+            final long seed = getBaseSeed();
+            parseOnce = isParseOnce();
+
+            if (threads > 1) {
+                runConcurrently(repTot, threads, seed);
+            } else {
+                for (int i = 0; i < repTot; i++)
+                    writeReplicate(i, seed);
+            }
 
+            if (parseOnce)
+                ReplicateEngine.logTimeSaved(engines.values());
+        } else { // 1 simulation
+            Path outPath = getXMLFilePath(-1);
+            BEASTContext context = writeXMLFrom(outPath, lPhyBeastConfig.getSeed());
+            runInProcess(context, outPath, lPhyBeastConfig.getSeed());
+        }
+    }
+
+    private boolean isParseOnce() {
+        if (!lPhyBeastConfig.isParseOnce())
+            return false;
+        if (lPhyBeastConfig.getModel2File() != null || lPhyBeastConfig.isRandomStart()) {
+            LoggerUtils.log.warning("Parsing the LPhy script once does not support model misspecification " +
+                    "or random start, so the script will be parsed for every replicate !");
+            return false;
+        }
+        return true;
+    }
+
+    private long getBaseSeed() {
+        Long seed = lPhyBeastConfig.getSeed();
+        if (seed == null) {
+            seed = ThreadLocalRandom.current().nextLong();
+            LoggerUtils.log.info("No seed is given, use " + seed + " to derive the seed of each replicate.");
+        }
+        return seed;
+    }
+
+    private void runConcurrently(int repTot, int threads, long seed) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>(repTot);
             for (int i = 0; i < repTot; i++) {
-                // add _i after file stem
-                lPhyBeastConfig.setRepId(i);
-//                BufferedReader reader = lphyReader();
+                final int repId = i;
+                futures.add(pool.submit(() -> {
+                    writeReplicate(repId, seed);
+                    return null;
+                }));
+            }
+
+            List<Integer> failed = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
                 try {
-                    // need new reader
-                    writeXMLFrom();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    System.err.println("try replicate "  + i + " again ...");
-                    // try another simulation
-                    writeXMLFrom();
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    LoggerUtils.log.severe("Fail to create replicate " + i + " : " + e.getCause());
+                    failed.add(i);
                 }
             }
-        } else { // 1 simulation
-//            BufferedReader reader = lphyReader();
-            writeXMLFrom();
+            if (!failed.isEmpty())
+                throw new IOException("Fail to create " + failed.size() + " of " + repTot +
+                        " replicates : " + failed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating replicates !", e);
+        } finally {
+            pool.shutdownNow();
         }
     }
 
-    private Path getXMLFilePath() {
-        int repId = lPhyBeastConfig.getRepId();
+    // add _i after file stem, and try another simulation once if it fails.
+    // Only the simulation and XML are retried, but not the in-process run,
+    // which would otherwise run the MCMC again with a different seed.
+    private void writeReplicate(int repId, long seed) throws IOException {
+        Path outPath = getXMLFilePath(repId);
+        Long repSeed = LPhyBeastConfig.getReplicateSeed(seed, repId, 0);
+        BEASTContext context;
+        try {
+            context = writeXMLFrom(outPath, repSeed);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("try replicate "  + repId + " again ...");
+            // a different seed, but still deterministic
+            repSeed = LPhyBeastConfig.getReplicateSeed(seed, repId, 1);
+            context = writeXMLFrom(outPath, repSeed);
+        }
+        runInProcess(context, outPath, repSeed);
+    }
+
+    // --run, the replicates run one by one
+    private void runInProcess(BEASTContext context, Path outPath, Long seed) throws IOException {
+        if (lPhyBeastConfig.runInProcess) {
+            synchronized (BEAST_RUN_LOCK) {
+                context.runMCMC(outPath, seed);
+            }
+        }
+    }
+
+    private Path getXMLFilePath(int repId) {
         if ( (repId >= 0 && repTot <= 1) || (repId < 0 && repTot > 1) ) {
             throw new IllegalArgumentException("The replicate index (" + repId +
                     ") does not match the total replicates (" + repTot + ") ! " );
@@ -125,7 +239,7 @@ public class LPhyBeast implements Runnable {
 
         if (repId >= 0) {
             // add _i after file stem
-            return lPhyBeastConfig.getXMLFilePathWithRepId();
+            return lPhyBeastConfig.getXMLFilePathWithRepId(repId);
         } else {
             return lPhyBeastConfig.outPath;
         }
@@ -134,12 +248,46 @@ public class LPhyBeast implements Runnable {
     // the relative path given in readNexus in a script always refers to user.dir
     // out path without file extension for output file name,
     // and XML loggers after removing the parent dir.
-    private void writeXMLFrom() throws IOException {
+    // seed can be null, then the seed of LPhy is not set.
+    // return the context, which created the XML, for the in-process run.
+    private BEASTContext writeXMLFrom(Path outPath, Long seed) throws IOException {
         final File lphyFile = Objects.requireNonNull(lPhyBeastConfig.inPath).toFile();
-        Path outPath = getXMLFilePath();
         // outPath may be added i
         final String filePathNoExt = lPhyBeastConfig.getOutPathNoExtension(outPath);
 
+        LPhyParserDictionary parserDictFinal;
+        // null to create it from parserDictFinal
+        String codeBlock = null;
+        // LPhy uses a global random number generator, so simulations cannot run in parallel,
+        // but the conversion to BEAST objects and writing XML can.
+        synchronized (SIMULATION_LOCK) {
+            // the relative paths in the script refer to user.dir of this config
+            if (lPhyBeastConfig.getUserDir() != null)
+                UserDir.setUserDir(lPhyBeastConfig.getUserDir());
+            if (parseOnce) {
+                // the engine is owned by this thread, so its dictionary is safe to convert after the lock
+                ReplicateEngine engine = engines.get(Thread.currentThread());
+                if (engine == null) {
+                    engine = new ReplicateEngine(lphyFile, lPhyBeastConfig.getLphyConst(), lPhyBeastConfig.getVarNotLog());
+                    engines.put(Thread.currentThread(), engine);
+                }
+                parserDictFinal = engine.sample(seed, filePathNoExt + "_true");
+                codeBlock = engine.getCodeBlock();
+            } else {
+                if (seed != null)
+                    RandomUtils.setSeed(seed);
+                parserDictFinal = simulate(lphyFile, filePathNoExt);
+            }
+        }
+
+//TODO        LoggerUtils.log.info("Replace alignment(s) : " +  + "\n, replace time tree(s) : " + + "\n");
+
+        // create XML from reader, given file name and MCMC setting
+        return writeBEASTXML(parserDictFinal, codeBlock, filePathNoExt,
+                lPhyBeastConfig.isStdout() ? null : outPath);
+    }
+
+    private LPhyParserDictionary simulate(File lphyFile, String filePathNoExt) throws IOException {
         NamedRandomValueSimulator simulator = new NamedRandomValueSimulator();
         // constants are inputted by user for Macro
         final String[] constants = lPhyBeastConfig.getLphyConst();
@@ -190,13 +338,7 @@ public class LPhyBeast implements Runnable {
             parserDictFinal = parserDictM2;
 
         } // parserDictM2 is the final result to XML
-
-//TODO        LoggerUtils.log.info("Replace alignment(s) : " +  + "\n, replace time tree(s) : " + + "\n");
-
-        // create XML string from reader, given file name and MCMC setting
-        String xml = dictToBEASTXML(parserDictFinal, filePathNoExt);
-
-        writeXMLToFile(outPath, xml);
+        return parserDictFinal;
     }
 
     private LPhyParserDictionary processMisspecification(NamedRandomValueSimulator simulator, File lphyFile,
@@ -218,14 +360,11 @@ public class LPhyBeast implements Runnable {
         if (lPhyBeastConfig.log_orignal_xmls) {
             // due to Windows logging unicode issue, BEASTContext calls updateIDs(value) to update IDs
             // keep this line here, so IDs will be same between m1 and m2
-            String xml1str = dictToBEASTXML(parserDictM1, filePathNoExt +"_a1m1");
             Path outFilePath1 = Path.of(filePathNoExt +"_a1m1.xml");
+            writeBEASTXML(parserDictM1, null, filePathNoExt +"_a1m1", outFilePath1);
             // log m2 XML
-            String xml2str = dictToBEASTXML(parserDictM2, filePathNoExt +"_a2m2");
             Path outFilePath2 = Path.of(filePathNoExt +"_a2m2.xml");
-
-            writeXMLToFile(outFilePath1, xml1str);
-            writeXMLToFile(outFilePath2, xml2str);
+            writeBEASTXML(parserDictM2, null, filePathNoExt +"_a2m2", outFilePath2);
         }
 
         /*
@@ -333,14 +472,37 @@ public class LPhyBeast implements Runnable {
         return parserDictM2;
     }
 
-    private void writeXMLToFile(Path outPath, String xml) throws IOException {
-        FileWriter fileWriter = new FileWriter(Objects.requireNonNull(outPath).toFile());
-        PrintWriter writer = new PrintWriter(fileWriter);
-        writer.println(xml);
-        writer.flush();
-        writer.close();
+    /**
+     * Convert the parsed LPhy objects into BEAST 2 objects, and then write the XML
+     * into a file or the standard output through a buffered writer.
+     * @param parserDictionary
+     * @param codeBlock      the LPhy code added to the top of XML,
+     *                       if null, then create it from parserDictionary.
+     * @param filePathNoExt  file path but without extension
+     * @param outPath        XML file path, if null, then write to the standard output.
+     * @return    the context holding the BEAST objects written into XML.
+     * @throws IOException
+     */
+    private BEASTContext writeBEASTXML(LPhyParserDictionary parserDictionary, String codeBlock,
+                                       String filePathNoExt, Path outPath) throws IOException {
+        // lphy code in comment block, which must be created before BEASTContext changes IDs
+        if (codeBlock == null)
+            codeBlock = new CanonicalCodeBuilder().getCode(parserDictionary);
+
+        // register parser, pass cached loader
+        BEASTContext context = new BEASTContext(parserDictionary, loader, lPhyBeastConfig);
+        String xml = toBEASTXML(context, filePathNoExt);
 
-        LoggerUtils.log.info("Save BEAST 2 XML to " + outPath.toAbsolutePath() + "\n\n");
+        if (outPath == null) {
+            BEASTXMLWriter.write(xmlOut, codeBlock, xml, context.getRunElement(),
+                context.getStreamedSequences());
+            LoggerUtils.log.info("Write BEAST 2 XML to the standard output\n\n");
+        } else {
+            BEASTXMLWriter.write(outPath, codeBlock, xml, context.getRunElement(),
+                context.getStreamedSequences());
+            LoggerUtils.log.info("Save BEAST 2 XML to " + outPath.toAbsolutePath() + "\n\n");
+        }
+        return context;
     }
 
     /**
@@ -352,57 +514,40 @@ public class LPhyBeast implements Runnable {
      * @throws IOException
      */
     private String dictToBEASTXML(LPhyParserDictionary parserDictionary, String filePathNoExt) throws IOException {
-
-        // Add lphy script to the top of XML
-        CanonicalCodeBuilder canonicalCodeBuilder = new CanonicalCodeBuilder();
-        StringBuilder xmlBuilder = new StringBuilder();
-        // this has to be the 1st line in the file
-        xmlBuilder.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>").append("\n");
-        // lphy code in comment block
-        String codeBlock = canonicalCodeBuilder.getCode(parserDictionary);
-        xmlBuilder.append("<!--\n").append(codeBlock).append("\n-->");
-
+        String codeBlock = new CanonicalCodeBuilder().getCode(parserDictionary);
         // register parser, pass cached loader
         BEASTContext context = new BEASTContext(parserDictionary, loader, lPhyBeastConfig);
+        String xml = toBEASTXML(context, filePathNoExt);
+
+        StringWriter writer = new StringWriter(xml.length() + codeBlock.length() + 200);
+        BEASTXMLWriter.write(writer, codeBlock, xml, context.getRunElement(),
+                context.getStreamedSequences());
+        return writer.toString();
+    }
 
+    // BEAST 2 XML including the declaration generated by beast2
+    private String toBEASTXML(BEASTContext context, String filePathNoExt) {
         //*** Write BEAST 2 XML ***//
         // remove any dir in filePathNoExt here
         final String logFileStem = lPhyBeastConfig.rmParentDir(filePathNoExt);
         // filePathNoExt here is file stem, which will be used in XML log file names.
         // Cannot handle any directories from other machines.
+        // The binary alignments are written next to the XML.
+        context.setOutPathNoExt(filePathNoExt);
 
-        // If 'useMC3' is true in the config, produce an MC³-based XML; otherwise, standard MCMC.
-        String xml;
-        if (lPhyBeastConfig.isUseMC3()) {
-            // Generates a specialized MC³ setup with multiple chains and swapping
-            xml = context.toBEASTXML_MC3(logFileStem);
-        } else {
-            // Standard single-chain MCMC approach
-            xml = context.toBEASTXML(logFileStem);
-        }
-        // rm it generated by beast2
-        // rm it generated by beast2
-        xml = xml.replaceAll("<\\?xml [^>]*\\?>", "");
-
-        // insert operatorschedule before </run> if requested
-        String operatorSchedule = lPhyBeastConfig.getOperatorSchedule();
-        if ("targeted".equalsIgnoreCase(operatorSchedule)) {
-            String insert = "    <operatorschedule id=\"TargetedOperatorSchedule_\" " +
-                    "spec=\"targetedbeast.operatorschedule.TargetedOperatorSchedule\"/>\n";
-            xml = xml.replace("</run>", insert + "</run>");
-        }
-
-        // replace starting tree newick if provided
-        String startingNewick = lPhyBeastConfig.getStartingTreeNewick();
-        if (startingNewick != null) {
-            String safeNewick = Matcher.quoteReplacement(startingNewick);
-            xml = xml.replaceAll("newick=\"[^\"]*\"", "newick=\"" + safeNewick + "\"");
-            LoggerUtils.log.info("Replaced starting tree newick from file: " +
-                    lPhyBeastConfig.getStartingTreeFile());
+        try {
+            // If 'useMC3' is true in the config, produce an MC³-based XML; otherwise, standard MCMC.
+            if (lPhyBeastConfig.isUseMC3()) {
+                // Generates a specialized MC³ setup with multiple chains and swapping
+                return context.toBEASTXML_MC3(logFileStem);
+            } else {
+                // Standard single-chain MCMC approach
+                return context.toBEASTXML(logFileStem);
+            }
+        } finally {
+            // the parser dictionary is reused by the next replicate when the script is parsed once
+            context.restoreIDs();
         }
-
-        xmlBuilder.append("\n").append(xml).append("\n");
-        return xmlBuilder.toString();
     }
 
     /**
@@ -418,26 +563,4 @@ public class LPhyBeast implements Runnable {
         return dictToBEASTXML(parserDict, fileNameStem);
     }
 
-
-
-    private BufferedReader lphyReader() throws FileNotFoundException {
-        // need to call reader each loop
-        FileReader fileReader = new FileReader(Objects.requireNonNull(lPhyBeastConfig.inPath).toFile());
-        return new BufferedReader(fileReader);
-    }
-
-    // 1st is id, 2nd is value in string, otherwise null.
-    // line looks like : n = 50;
-    private String[] parse(String line) {
-        // trim all spaces, TODO not working for string
-        String[] idVal = line.trim().split("=");
-        if (idVal.length != 2)
-            return null;
-        idVal[0] = idVal[0].trim();
-        idVal[1] = idVal[1].replace(";", "").trim();
-        return idVal;
-    }
-
-
 }
-
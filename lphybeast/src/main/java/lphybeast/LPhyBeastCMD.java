@@ -2,13 +2,15 @@ package lphybeast;
 
 import lphy.core.io.UserDir;
 import lphy.core.logger.LoggerUtils;
-import lphy.core.simulator.RandomUtils;
 import picocli.CommandLine;
 import picocli.CommandLine.*;
 
 import java.io.FileNotFoundException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @Command(name = "lphybeast", footer = "Copyright(c) 2023",
         description = "LPhyBEAST takes an LPhy script, which contains a model specification and some data, " +
@@ -21,18 +23,23 @@ public class LPhyBeastCMD implements Callable<Integer> {
 
     public static final String VERSION = "1.3.0";
 
-    @Parameters(paramLabel = "LPhy_scripts", description = "File of the LPhy model specification. " +
+    @Parameters(paramLabel = "LPhy_scripts", arity = "0..1", description = "File of the LPhy model specification. " +
             "If it is a relative path, then concatenate 'user.dir' to the front of the path. " +
-            "If `-wd` is NOT given, the 'user.dir' will set to the path where the LPhy script is.")
+            "If `-wd` is NOT given, the 'user.dir' will set to the path where the LPhy script is. " +
+            "It is not required by --serve or --manifest.")
     Path infile;
 
+    @Spec
+    Model.CommandSpec spec;
+
     @Option(names = {"-V", "--version"}, versionHelp = true, description = "display version info")
     boolean versionInfoRequested;
     @Option(names = {"-h", "--help"}, usageHelp = true, description = "display this help message")
     boolean usageHelpRequested;
 
     @Option(names = {"-o", "--out"},     description = "BEAST 2 XML. " +
-            "If it contains relative path, then concatenate 'user.dir' to the front of the path.")
+            "If it contains relative path, then concatenate 'user.dir' to the front of the path. " +
+            "If it is '-', then write XML to the standard output.")
     Path outfile;
     // 'user.dir' is default to the current directory
     @Option(names = {"-wd", "--workdir"}, description = "Set 'user.dir' " +
@@ -60,6 +67,70 @@ public class LPhyBeastCMD implements Callable<Integer> {
     @Option(names = {"-r", "--replicates"}, defaultValue = "1", description = "the number of replicates (XML) given one LPhy script, " +
             "usually to create simulations for well-calibrated study.") int repTot;
 
+    @Option(names = {"--threads"}, defaultValue = "1",
+            description = "The number of threads to create replicates concurrently (only valid if -r > 1). " +
+                    "The seed of each replicate is derived from -seed and the replicate index, " +
+                    "so that the replicates are reproducible regardless of the number of threads.")
+    int threads;
+
+    @Option(names = {"--cores"}, defaultValue = "0",
+            description = "The number of cores for BEAST to calculate the likelihoods, which are shared " +
+                    "between partitions and the threads inside each tree likelihood given its pattern count. " +
+                    "The allocation is written into the XML as a comment, and BEAST should run with the same -threads. " +
+                    "If 0, as default, use the default threading of BEAST.")
+    int cores;
+
+    @Option(names = {"--tuneOperators"}, arity = "0..1", defaultValue = "0", fallbackValue = "10000",
+            description = "Run a pilot chain in-process with the given length (10000 if no value is given), " +
+                    "which measures the acceptance rate and the time per proposal of each operator, " +
+                    "and then scale the operator weights by their accepted moves per second in the XML. " +
+                    "If 0, as default, keep the default weights.")
+    long tuneOperators;
+
+    @Option(names = {"--essTarget"}, defaultValue = "0",
+            description = "Stop MCMC once the ESS of the posterior and the parameters given by --essParams " +
+                    "reach this target, where -l is then the maximum chain length. The log interval is adapted, " +
+                    "so that the logs have about 2000 samples. The XML then requires the lphybeast package " +
+                    "installed in BEAST 2. It is not available for MC3. If 0, as default, run the full chain length.")
+    double essTarget;
+
+    @Option(names = {"--essParams"}, split = ";",
+            description = "The parameters whose ESS must also reach --essTarget, " +
+                    "multiple id must be quoted and split by ';', e.g. --essParams \"mu;kappa\".")
+    String[] essParams = null;
+
+    // resident process
+    @Option(names = {"--serve"}, defaultValue = "false",
+            description = "Keep running and read jobs as JSON lines from the standard input (or --socket), " +
+                    "where each job is {\"id\", \"script\", \"constants\", \"seed\", \"replicates\", \"out\", \"options\"} " +
+                    "and only \"script\" is required, or {\"command\":\"shutdown\"} to stop. " +
+                    "The result of each job is written as a JSON line, containing the output path and timings.")
+    boolean serve;
+
+    @Option(names = {"--socket"},
+            description = "The path of the Unix domain socket to accept jobs from (only valid if --serve is given).")
+    Path socket;
+
+    @Option(names = {"--workers"}, defaultValue = "0",
+            description = "The number of jobs to run concurrently (only valid if --serve or --manifest is given). " +
+                    "If 0, as default, use the number of available processors.")
+    int workers;
+
+    // batch
+    @Option(names = {"--manifest"},
+            description = "Run a batch of jobs in this process, given by a CSV (with the header) or JSONL file " +
+                    "of the columns \"script\", \"constants\", \"seed\", \"replicates\", \"out\", \"options\" and \"id\", " +
+                    "where only \"script\" is required, e.g. a row 'hky.lphy,n=10;L=100,777,1,hky_n10'. " +
+                    "The other options given in the command line are applied to every job. " +
+                    "The status, wall time, XML size and peak heap of each job are written to *_summary.tsv next to the manifest.")
+    Path manifest;
+
+    @Option(names = {"-po", "--parseOnce"}, defaultValue = "false",
+            description = "Parse the LPhy script and the constants given by -D once, " +
+                    "and then only re-sample the random values for each replicate (only valid if -r > 1). " +
+                    "The true values are logged into *_true.log and *_true_*.trees.")
+    boolean parseOnce;
+
     @Option(names = {"-D", "--data"}, split = ";",
             description = "Replace the constant value in the lphy script, multiple constants can be split by ';', " +
                     "but no ';' at the last: e.g. -D \"n=12;L=100\" or -D n=20")
@@ -72,15 +143,74 @@ public class LPhyBeastCMD implements Callable<Integer> {
     String[] varNotLog = null;
 
     @Option(names = {"-cca", "--compressConstantAlignments"},
-            description = "Compress the alignment only having constants sites into " +
-                    "a FilterAlignment with weights on each constant pattern.\n" +
+            description = "Compress the observed alignment into only variable sites with the weights of " +
+                    "constant sites per state, using FilteredAlignment.\n" +
                           "If 0, as default, ignore this function;\n" +
                           "If 1, then compress constants sites, where every state is compared;\n" +
-                          "If 2, then compress constants sites, but ignoring the unknown state or gap.\n")
+                          "If 2, then compress constants sites, but ignoring the unknown state or gap, " +
+                          "which approximates the likelihood.\n")
     int compressConstantAlignment;
 
-    @Option(names = {"-seed"}, description = "the seed to run the LPhy script.")
-    int seed;
+    @Option(names = {"-csp", "--compressSitePatterns"}, defaultValue = "false",
+            description = "Compress the sites of the observed alignments into unique site patterns with weights, " +
+                    "which have the same likelihood, but a much smaller XML and less time for BEAST to parse it.")
+    boolean compressSitePatterns;
+
+    @Option(names = {"-ss", "--streamSequences"}, defaultValue = "false",
+            description = "Stream the sequences of the observed alignments from LPhy into the XML file, " +
+                    "which reduces the memory to write large alignments. " +
+                    "It is ignored when the alignment is compressed by -cca or -csp.")
+    boolean streamSequences;
+
+    @Option(names = {"-ba", "--binaryAlignments"}, defaultValue = "false",
+            description = "Write the site patterns of the observed alignments into binary files next to the XML, " +
+                    "instead of the sequences in the XML, which BEAST memory-maps when it loads the XML " +
+                    "without parsing sequences. The XML then requires the lphybeast package " +
+                    "installed in BEAST 2, and must be run from the directory of the binary files.")
+    boolean binaryAlignments;
+
+    @Option(names = {"--deferValidation"}, defaultValue = "false",
+            description = "Leave the validation of tree likelihoods to BEAST, which allocates their partials " +
+                    "only when the XML is loaded. Only the inputs are checked before the XML is created.")
+    boolean deferValidation;
+
+    @Option(names = {"-mp", "--mergePartitions"}, defaultValue = "false",
+            description = "Merge the observed alignments, whose tree likelihoods have the identical model, " +
+                    "into one alignment, so that the site patterns shared by these partitions are calculated once. " +
+                    "Their likelihood is then logged as one, unless they are given by --logPartitions.")
+    boolean mergePartitions;
+
+    @Option(names = {"--logPartitions"}, split = ";",
+            description = "The alignments not to be merged by -mp, so that their likelihoods are logged separately, " +
+                    "multiple id must be quoted and split by ';', e.g. --logPartitions \"D1;D2\".")
+    String[] logPartitions = null;
+
+    @Option(names = {"--perfLog"}, defaultValue = "false",
+            description = "Log the wall time per logged interval, the calls and time of each operator, " +
+                    "the evaluations of the likelihood and prior, and the JVM heap and GC into *.perf.log. " +
+                    "The XML then requires the lphybeast package installed in BEAST 2. " +
+                    "The operator time and evaluations are not logged for MC3.")
+    boolean perfLog;
+
+    @Option(names = {"--run"}, defaultValue = "false",
+            description = "After the XML is written, also run the MCMC (or MC3) created for it in-process, " +
+                    "so that BEAST does not parse and initialise the XML again. The logs are written next to the XML, " +
+                    "using the seed given by -seed and the threads given by --cores. " +
+                    "The XML is still written for provenance. It cannot be used with the standard output.")
+    boolean runInProcess;
+
+    @Option(names = {"--binaryLog"}, arity = "0..1", fallbackValue = "log", split = ";",
+            description = "Write the trace logs in a compressed columnar binary format *.bin, " +
+                    "where each log is given by its file name after the file stem, split by ';', " +
+                    "e.g. --binaryLog \"log;mascot.log\", and the parameter log (log) if no value is given. " +
+                    "The binary logs are converted to the standard logs for Tracer by " +
+                    "lphybeast.inference.BinaryTraceConverter. The XML then requires the lphybeast package " +
+                    "installed in BEAST 2. Tree logs are not supported.")
+    String[] binaryLogs = null;
+
+    @Option(names = {"-seed"}, description = "the seed to run the LPhy script, which can be any long integer. " +
+            "If it is not given, the seed is random.")
+    Long seed = null;
 
     @Option(names = {"-u", "--logunicode"}, defaultValue = "false",
             description = "whether to log IDs in unicode. " +
@@ -174,7 +304,8 @@ public class LPhyBeastCMD implements Callable<Integer> {
 
     @Option(names = {"--operatorSchedule"},
             description = "Specify the operator schedule to use. Options: 'targeted'. " +
-                    "If 'targeted', inserts a TargetedOperatorSchedule into the BEAST XML.")
+                    "If 'targeted', inserts a TargetedOperatorSchedule into the BEAST XML. " +
+                    "Other values are ignored with a warning.")
     String operatorSchedule = null;
 
     @Option(names = {"-t", "--startingTree"},
@@ -223,6 +354,22 @@ public class LPhyBeastCMD implements Callable<Integer> {
     }
 
     private static LPhyBEASTLoader loader;
+
+    /**
+     * Init the loader once, which is shared by all runs in this JVM.
+     * @param versionFiles  BEAST2 version files, only used in the 1st call.
+     * @return  the loader
+     */
+    static synchronized LPhyBEASTLoader getLoader(String[] versionFiles) {
+        if (loader == null) {
+            // before LPhyBEASTLoader.getInstance()
+            LPhyBEASTLoader.addBEAST2Services(versionFiles);
+
+            loader = LPhyBEASTLoader.getInstance();
+        }
+        return loader;
+    }
+
     /**
      * 1. If the input/output is a relative path, then concatenate 'user.dir'
      * to the front of the path.
@@ -232,42 +379,38 @@ public class LPhyBeastCMD implements Callable<Integer> {
     @Override
     public Integer call() throws PicocliException {
         // init loader
-        if (loader == null) {
-            // before LPhyBEASTLoader.getInstance()
-            LPhyBEASTLoader.addBEAST2Services(versionFiles);
+        getLoader(versionFiles);
+
+        if (serve) {
+            try (JobRunner runner = new JobRunner(workers, versionFiles)) {
+                JobServer server = new JobServer(runner);
+                if (socket != null)
+                    server.serve(socket);
+                else
+                    server.serveStandardIO();
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new PicocliException(e.toString());
+            }
+            return 0;
+        }
 
-            loader = LPhyBEASTLoader.getInstance();
+        if (manifest != null) {
+            if (infile != null)
+                throw new PicocliException("The LPhy script cannot be given with --manifest !");
+            try {
+                return runManifest() ? 0 : 1;
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new PicocliException(e.toString());
+            }
         }
 
+        if (infile == null)
+            throw new PicocliException("The LPhy script is required, unless --serve or --manifest is given !");
 
         try {
-            // define config for the run
-            LPhyBeastConfig lPhyBeastConfig = new LPhyBeastConfig(infile, outfile, wd,
-                    lphyConst, varNotLog, logunicode, randomStart);
-            lPhyBeastConfig.setMCMCConfig(chainLength, preBurnin, logEvery, sampleFromPrior);
-            // replace lphy constants
-            lPhyBeastConfig.setCompressConstantAlignment(compressConstantAlignment);
-            // model misspecification test
-            lPhyBeastConfig.setModelMisspec(model2File, log_orignal_xmls);
-            // ns
-//            lPhyBeastConfig.setNS(ns, particleCount, subChainLength, nsThreads);
-
-            lPhyBeastConfig.setMC3Config(
-                    useMC3,
-                    chains,
-                    deltaTemperature,
-                    resampleEvery,
-                    target
-            );
-
-            //set whether sample alignment
-            lPhyBeastConfig.setObservedParamID(observedParam);
-
-            lPhyBeastConfig.setOperatorSchedule(operatorSchedule);
-            lPhyBeastConfig.setStartingTreeFile(startingTreeFile);
-
-            if (seed > 0)
-                RandomUtils.setSeed(seed);
+            LPhyBeastConfig lPhyBeastConfig = createConfig();
 
             LPhyBeast lphyBeast = new LPhyBeast(loader, lPhyBeastConfig, repTot);
             lphyBeast.run();
@@ -287,6 +430,98 @@ public class LPhyBeastCMD implements Callable<Integer> {
         return 0;
     }
 
+    /**
+     * Run the jobs in the manifest using the pool of workers, and write the summary.
+     * @return  true if all jobs are successful.
+     */
+    private boolean runManifest() throws Exception {
+        List<LPhyBeastJob> jobs = JobManifest.read(manifest, getSharedOptions());
+        List<CompletableFuture<JobResult>> futures = new ArrayList<>();
+        try (JobRunner runner = new JobRunner(workers, versionFiles)) {
+            LoggerUtils.log.info("Run " + jobs.size() + " jobs from " + manifest + " using " +
+                    runner.getWorkers() + " workers");
+            for (LPhyBeastJob job : jobs)
+                futures.add(runner.submit(job));
+        }
+
+        List<JobResult> results = futures.stream().map(CompletableFuture::join).toList();
+        Path summary = JobManifest.getSummaryFile(manifest);
+        JobManifest.writeSummary(summary, jobs, results);
+
+        long failed = results.stream().filter(r -> !r.success()).count();
+        LoggerUtils.log.info((jobs.size() - failed) + " of " + jobs.size() +
+                " jobs are successful, the summary is written to " + summary);
+        return failed == 0;
+    }
+
+    /**
+     * @return  the original arguments excluding the options of the batch,
+     *          which are applied to every job in the manifest.
+     */
+    private List<String> getSharedOptions() {
+        List<String> args = spec.commandLine().getParseResult().originalArgs();
+        List<String> options = new ArrayList<>();
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if (arg.equals("--manifest") || arg.equals("--workers"))
+                // skip its value
+                i++;
+            else if (!arg.startsWith("--manifest=") && !arg.startsWith("--workers="))
+                options.add(arg);
+        }
+        return options;
+    }
+
+    /**
+     * Define the config for the run from the options.
+     * This sets 'user.dir', so it has to be synchronized when several runs share the JVM.
+     * @return  the config
+     * @throws FileNotFoundException if the LPhy script is not found.
+     */
+    LPhyBeastConfig createConfig() throws FileNotFoundException {
+        // define config for the run
+        LPhyBeastConfig lPhyBeastConfig = new LPhyBeastConfig(infile, outfile, wd,
+                lphyConst, varNotLog, logunicode, randomStart);
+        lPhyBeastConfig.setMCMCConfig(chainLength, preBurnin, logEvery, sampleFromPrior);
+        // replace lphy constants
+        lPhyBeastConfig.setCompressConstantAlignment(compressConstantAlignment);
+        lPhyBeastConfig.setCompressSitePatterns(compressSitePatterns);
+        lPhyBeastConfig.setStreamSequences(streamSequences);
+        lPhyBeastConfig.setBinaryAlignments(binaryAlignments);
+        lPhyBeastConfig.setDeferValidation(deferValidation);
+        lPhyBeastConfig.setMergePartitions(mergePartitions, logPartitions);
+        lPhyBeastConfig.setPerfLog(perfLog);
+        lPhyBeastConfig.setRunInProcess(runInProcess);
+        lPhyBeastConfig.setBinaryLogs(binaryLogs);
+        // model misspecification test
+        lPhyBeastConfig.setModelMisspec(model2File, log_orignal_xmls);
+        // ns
+//            lPhyBeastConfig.setNS(ns, particleCount, subChainLength, nsThreads);
+
+        lPhyBeastConfig.setMC3Config(
+                useMC3,
+                chains,
+                deltaTemperature,
+                resampleEvery,
+                target
+        );
+
+        //set whether sample alignment
+        lPhyBeastConfig.setObservedParamID(observedParam);
+
+        lPhyBeastConfig.setOperatorSchedule(operatorSchedule);
+        lPhyBeastConfig.setStartingTreeFile(startingTreeFile);
+
+        if (seed != null)
+            lPhyBeastConfig.setSeed(seed);
+        lPhyBeastConfig.setThreads(threads);
+        lPhyBeastConfig.setCores(cores);
+        lPhyBeastConfig.setTuneOperators(tuneOperators);
+        lPhyBeastConfig.setESSTarget(essTarget, essParams);
+        lPhyBeastConfig.setParseOnce(parseOnce);
+        return lPhyBeastConfig;
+    }
+
 
     /**TODO not working, use BEASTClassLoader ?
      * This function is modified from picocli demo {@code VersionProviderDemo2}.
@@ -19,10 +19,17 @@ import java.util.Objects;
 public class LPhyBeastConfig {
 
     public static final int NUM_OF_SAMPLES = 2000;
+    // the output file name to write XML to the standard output
+    public static final String STDOUT = "-";
 
     public final Path inPath;
     public final Path outPath;
+    // if true, outPath is only used to create the file stems of logs
+    private boolean stdout = false;
 //    public final Path wd;//TODO currently using UserDir.set/getUserDir
+    // user.dir set by this config, which is restored before parsing the script,
+    // in case several configs are running in one JVM
+    private String userDir = null;
 
     /**
      * Compress the alignment only having constants sites into
@@ -32,6 +39,44 @@ public class LPhyBeastConfig {
      * If 2, then compress constants sites, but ignoring the unknown state or gap.
      */
     public int compressConstantAlignment = 0;
+    /**
+     * If true, the observed alignments are converted into unique site patterns with weights,
+     * which have the same likelihood but a smaller XML.
+     */
+    public boolean compressSitePatterns = false;
+    /**
+     * If true, the sequences of observed alignments are written into the XML
+     * from the states of LPhy alignments, instead of the strings in the XML created by BEAST.
+     */
+    public boolean streamSequences = false;
+    /**
+     * If true, the observed alignments are written into binary files next to the XML,
+     * which are loaded by {@link lphybeast.evolution.alignment.MappedAlignment}.
+     */
+    public boolean binaryAlignments = false;
+    /**
+     * If true, the validation of heavy BEAST objects, e.g. tree likelihoods, is left to BEAST,
+     * and only their inputs are checked before the XML is created.
+     */
+    public boolean deferValidation = false;
+    /**
+     * If true, the partitions whose tree likelihoods have the identical model are merged into one alignment.
+     * The alignments in {@link #logPartitions} are not merged, so that their likelihoods are logged.
+     */
+    public boolean mergePartitions = false;
+    /**
+     * If true, the MCMC logs its wall time, operator time, posterior evaluations and JVM memory into *.perf.log,
+     * which requires the lphybeast package installed in BEAST 2.
+     */
+    public boolean perfLog = false;
+    /**
+     * If true, after the XML is written, the MCMC created for it is also run in-process,
+     * so that BEAST does not parse the XML again.
+     */
+    public boolean runInProcess = false;
+    // the file names of trace logs after the file stem, e.g. "log", which are written in binary by --binaryLog
+    private String[] binaryLogs;
+    private String[] logPartitions;
 
     public String[] observedParamID;
 
@@ -56,6 +101,13 @@ public class LPhyBeastConfig {
     private long logEvery = 0;
     private boolean sampleFromPrior;
     private int repId = -1; // >=0 for multi-outputs
+    private int threads = 1; // the number of replicates generated concurrently
+    private int cores = 0; // the cores for BEAST to calculate likelihoods, 0 to use BEAST default
+    private long tuneOperators = 0; // the chain length of the pilot run to tune operator weights, 0 to not tune
+    private double essTarget = 0; // the ESS to stop MCMC, where chainLength is the maximum, 0 to run the full length
+    private String[] essParams; // the IDs of parameters whose ESS must reach essTarget, besides the posterior
+    private Long seed = null; // null to not set the seed of LPhy
+    private boolean parseOnce = false; // parse the script once, then re-sample for each replicate
 
     private boolean logunicode;
     // Replace the constant value in the lphy script
@@ -94,6 +146,7 @@ public class LPhyBeastConfig {
      * @param outfile  XML file path. If null,
      *                 then use the input file name stem plus .xml,
      *                 and output to the user.dir.
+     *                 If it is {@link #STDOUT}, then write XML to the standard output.
      * @param wd       Use to set user.dir. If null,
      *                 then set user.dir to the parent folder of lphy script.
      * @param lphyConst    constants inputted by user using macro
@@ -130,13 +183,17 @@ public class LPhyBeastConfig {
 
         LoggerUtils.log.info("Read LPhy script from " + this.inPath.toAbsolutePath() + "\n");
 
-        if (outfile != null) {
+        if (outfile != null && STDOUT.equals(outfile.toString()))
+            this.stdout = true;
+
+        if (outfile != null && !stdout) {
             this.outPath = UserDir.getUserPath(outfile);
         } else {
             String infileNoExt = getFileStem(this.inPath);
             // add wd before file stem
             this.outPath = Paths.get(UserDir.getUserDir().toString(), infileNoExt + ".xml");
         }
+        this.userDir = UserDir.getUserDir().toString();
 
     }
 
@@ -163,16 +220,28 @@ public class LPhyBeastConfig {
      * @return   path/???.xml
      */
     public Path getXMLFilePathWithRepId() {
+        return getXMLFilePathWithRepId(repId);
+    }
+
+    /**
+     * @param repId  the index of replicates, >= 0.
+     * @return   path/???-repId.xml
+     */
+    public Path getXMLFilePathWithRepId(int repId) {
         if (repId < 0)
             throw new IllegalArgumentException("Invalid replicate index ! " + repId);
         final String outPathNoExt = getOutPathNoExtension(outPath);
         // update outPath to add i
-        return Paths.get(getXMLFilePath(outPathNoExt));
+        return Paths.get(getXMLFilePath(outPathNoExt, repId));
     }
 
     public String getXMLFilePath(String outPathNoExt) {
+        return getXMLFilePath(outPathNoExt, repId);
+    }
+
+    public String getXMLFilePath(String outPathNoExt, int repId) {
         if (repId >= 0)
-            return outPathNoExt + "-" + getRepId() + ".xml";
+            return outPathNoExt + "-" + repId + ".xml";
         else
             return outPathNoExt + ".xml";
     }
@@ -269,6 +338,124 @@ public class LPhyBeastConfig {
         if (repId >= 0) this.repId = repId;
     }
 
+    /**
+     * @return  user.dir set by this config, or null if no LPhy script file is given.
+     */
+    public String getUserDir() {
+        return userDir;
+    }
+
+    /**
+     * @return  true if XML is written to the standard output.
+     */
+    public boolean isStdout() {
+        return stdout;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads  the number of replicates to generate concurrently, >= 1.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("The number of threads must be >= 1 ! " + threads);
+        this.threads = threads;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    /**
+     * @param cores  the number of cores for BEAST to calculate the likelihoods, >= 0,
+     *               where 0 keeps the default threading of BEAST.
+     */
+    public void setCores(int cores) {
+        if (cores < 0)
+            throw new IllegalArgumentException("The number of cores must be >= 0 ! " + cores);
+        this.cores = cores;
+    }
+
+    public long getTuneOperators() {
+        return tuneOperators;
+    }
+
+    /**
+     * @param tuneOperators  the chain length of the pilot run in-process to tune the operator weights, >= 0,
+     *                       where 0 keeps the default weights.
+     */
+    public void setTuneOperators(long tuneOperators) {
+        if (tuneOperators < 0)
+            throw new IllegalArgumentException("The chain length of the pilot run must be >= 0 ! " + tuneOperators);
+        this.tuneOperators = tuneOperators;
+    }
+
+    public double getESSTarget() {
+        return essTarget;
+    }
+
+    /**
+     * @return  the IDs of parameters whose ESS must reach {@link #getESSTarget()}, or an empty array.
+     */
+    public String[] getESSParams() {
+        return essParams == null ? new String[0] : essParams;
+    }
+
+    /**
+     * @param essTarget  the ESS of the posterior and the given parameters to stop MCMC, >= 0,
+     *                   where the chain length is the maximum, and 0 runs the full chain length.
+     * @param essParams  the IDs of parameters whose ESS must also reach the target, or null.
+     */
+    public void setESSTarget(double essTarget, String[] essParams) {
+        if (essTarget < 0)
+            throw new IllegalArgumentException("The ESS target must be >= 0 ! " + essTarget);
+        this.essTarget = essTarget;
+        this.essParams = essParams;
+    }
+
+    /**
+     * @return  the seed to run the LPhy script, or null if it is not given.
+     */
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public boolean isParseOnce() {
+        return parseOnce;
+    }
+
+    /**
+     * @param parseOnce  if true, parse the LPhy script and constants once,
+     *                   and then only re-sample the random values for each replicate.
+     */
+    public void setParseOnce(boolean parseOnce) {
+        this.parseOnce = parseOnce;
+    }
+
+    /**
+     * Derive the seed of a replicate from the given seed and the replicate index,
+     * so that every replicate is reproducible regardless of the number of threads
+     * and the order in which the replicates are scheduled.
+     * @param seed     the seed given by -seed
+     * @param repId    the index of replicates, >= 0.
+     * @param attempt  0 for the 1st attempt, which increases when the replicate has to be simulated again.
+     * @return   the seed of this replicate
+     */
+    public static long getReplicateSeed(long seed, int repId, int attempt) {
+        // SplitMix64 finalizer, which spreads the adjacent indices over the 64-bit seeds
+        long z = seed + 0x9E3779B97F4A7C15L * (repId + 1L) + 0xC2B2AE3D27D4EB4FL * attempt;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
     public boolean isLogUnicode() {
         return logunicode;
     }
@@ -277,6 +464,77 @@ public class LPhyBeastConfig {
         this.compressConstantAlignment = compressConstantAlignment;
     }
 
+    public void setCompressSitePatterns(boolean compressSitePatterns) {
+        this.compressSitePatterns = compressSitePatterns;
+    }
+
+    public void setStreamSequences(boolean streamSequences) {
+        this.streamSequences = streamSequences;
+    }
+
+    public void setBinaryAlignments(boolean binaryAlignments) {
+        this.binaryAlignments = binaryAlignments;
+    }
+
+    public void setDeferValidation(boolean deferValidation) {
+        this.deferValidation = deferValidation;
+    }
+
+    public void setPerfLog(boolean perfLog) {
+        this.perfLog = perfLog;
+    }
+
+    public void setRunInProcess(boolean runInProcess) {
+        this.runInProcess = runInProcess;
+    }
+
+    /**
+     * @param binaryLogs  the file names of trace logs after the file stem and the dot,
+     *                    e.g. "log" for the parameter log, which are written in binary, or null.
+     */
+    public void setBinaryLogs(String[] binaryLogs) {
+        this.binaryLogs = binaryLogs;
+    }
+
+    /**
+     * @param logFileName  the file name of a trace log
+     * @param logFileStem  the file stem of logs
+     * @return  if this trace log is requested to be written in binary.
+     */
+    public boolean isBinaryLog(String logFileName, String logFileStem) {
+        if (binaryLogs == null || logFileName == null || logFileStem == null)
+            return false;
+        for (String binaryLog : binaryLogs) {
+            if (logFileName.equals(logFileStem + "." + binaryLog.trim()))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param mergePartitions  if true, merge the partitions having the identical model.
+     * @param logPartitions    the IDs of alignments not to merge, so that their likelihoods are logged, or null.
+     */
+    public void setMergePartitions(boolean mergePartitions, String[] logPartitions) {
+        this.mergePartitions = mergePartitions;
+        this.logPartitions = logPartitions;
+    }
+
+    /**
+     * @param alignmentID  the ID of BEAST alignment
+     * @return  if the likelihood of this alignment is requested to be logged by itself.
+     */
+    public boolean isPartitionLogged(String alignmentID) {
+        if (logPartitions == null || alignmentID == null)
+            return false;
+        for (String id : logPartitions) {
+            id = id.trim();
+            if (id.equals(alignmentID) || Symbols.getCanonical(id).equals(alignmentID))
+                return true;
+        }
+        return false;
+    }
+
     public String[] getLphyConst() {
         return lphyConst;
 //        if (lphyConst == null) return null;
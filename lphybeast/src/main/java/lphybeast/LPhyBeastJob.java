@@ -0,0 +1,86 @@
+package lphybeast;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One run of LPhyBEAST in a resident process, which is equivalent to the command line
+ * {@code lphybeast [options] -D constants -seed seed -r replicates -o out script}.
+ * @param id          the job ID to identify its result, which can be null
+ * @param script      the LPhy script
+ * @param constants   the constants to replace in the script, e.g. "n=12;L=100", which can be null
+ * @param seed        the seed, which can be null
+ * @param replicates  the number of replicates, which can be null
+ * @param out         the XML file path, which can be null
+ * @param options     other command line options of LPhyBEAST
+ */
+public record LPhyBeastJob(String id, Path script, String constants, Long seed, Integer replicates,
+                           Path out, List<String> options) {
+
+    /**
+     * @param json  the job in JSON, where only "script" is required,
+     *              and "constants" can be either a string split by ';' or an array.
+     * @param defaultID  the ID if it is not given in JSON
+     * @return  the job
+     * @throws JSONException  if the JSON is invalid.
+     */
+    public static LPhyBeastJob fromJSON(JSONObject json, String defaultID) throws JSONException {
+        String constants = null;
+        if (json.has("constants")) {
+            Object c = json.get("constants");
+            if (c instanceof JSONArray array) {
+                List<String> list = new ArrayList<>();
+                for (int i = 0; i < array.length(); i++)
+                    list.add(array.getString(i));
+                constants = String.join(";", list);
+            } else
+                constants = c.toString();
+        }
+        List<String> options = new ArrayList<>();
+        if (json.has("options")) {
+            JSONArray array = json.getJSONArray("options");
+            for (int i = 0; i < array.length(); i++)
+                options.add(array.getString(i));
+        }
+        return new LPhyBeastJob(json.has("id") ? json.get("id").toString() : defaultID,
+                Path.of(json.getString("script")),
+                constants,
+                json.has("seed") ? json.getLong("seed") : null,
+                json.has("replicates") ? json.getInt("replicates") : null,
+                json.has("out") ? Path.of(json.getString("out")) : null,
+                options);
+    }
+
+    /**
+     * @param baseDir  the directory to resolve the relative path of the script
+     * @return  the command line arguments of LPhyBEAST.
+     */
+    public String[] toArgs(Path baseDir) {
+        List<String> args = new ArrayList<>(options);
+        if (constants != null && !constants.isBlank()) {
+            args.add("-D");
+            args.add(constants);
+        }
+        if (seed != null) {
+            args.add("-seed");
+            args.add(seed.toString());
+        }
+        if (replicates != null) {
+            args.add("-r");
+            args.add(replicates.toString());
+        }
+        if (out != null) {
+            args.add("-o");
+            args.add(out.toString());
+        }
+        // user.dir is changed by other jobs
+        args.add(baseDir.resolve(script).toString());
+        return args.toArray(String[]::new);
+    }
+
+}
@@ -0,0 +1,86 @@
+package lphybeast;
+
+import beast.base.core.BEASTInterface;
+import lphy.core.model.Generator;
+
+import java.util.List;
+
+/**
+ * The {@link GeneratorToBEAST} registered from {@link RegistryIndex} by its class name,
+ * which is only instantiated when it is first used to convert a generator,
+ * so that the BEAST classes it depends on are not loaded if the script does not use it.
+ */
+public class LazyGeneratorToBEAST<T extends Generator, S extends BEASTInterface> implements GeneratorToBEAST<T, S> {
+
+    private final String converterClassName;
+    private final Class<T> generatorClass;
+    private final ClassLoader classLoader;
+
+    private volatile GeneratorToBEAST<T, S> converter;
+
+    /**
+     * @param converterClassName  the class name of GeneratorToBEAST
+     * @param generatorClass      the class returned by {@link GeneratorToBEAST#getGeneratorClass()}
+     * @param classLoader         the class loader of the extension
+     */
+    public LazyGeneratorToBEAST(String converterClassName, Class<T> generatorClass, ClassLoader classLoader) {
+        this.converterClassName = converterClassName;
+        this.generatorClass = generatorClass;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * @return the converter, which is instantiated in the first call.
+     */
+    public GeneratorToBEAST<T, S> getConverter() {
+        GeneratorToBEAST<T, S> toBEAST = converter;
+        if (toBEAST == null) {
+            synchronized (this) {
+                if (converter == null) {
+                    try {
+                        converter = (GeneratorToBEAST<T, S>) Class.forName(converterClassName, true, classLoader)
+                                .getDeclaredConstructor().newInstance();
+                    } catch (ReflectiveOperationException e) {
+                        throw new RuntimeException("Cannot instantiate " + converterClassName, e);
+                    }
+                }
+                toBEAST = converter;
+            }
+        }
+        return toBEAST;
+    }
+
+    public boolean isInstantiated() {
+        return converter != null;
+    }
+
+    @Override
+    public S generatorToBEAST(T generator, BEASTInterface value, BEASTContext context) {
+        return getConverter().generatorToBEAST(generator, value, context);
+    }
+
+    @Override
+    public S generatorToBEAST(T generator, List<BEASTInterface> value, BEASTContext context) {
+        return getConverter().generatorToBEAST(generator, value, context);
+    }
+
+    @Override
+    public void modifyBEASTValues(T generator, BEASTInterface value, BEASTContext context) {
+        getConverter().modifyBEASTValues(generator, value, context);
+    }
+
+    @Override
+    public Class<T> getGeneratorClass() {
+        return generatorClass;
+    }
+
+    @Override
+    public Class<S> getBEASTClass() {
+        return getConverter().getBEASTClass();
+    }
+
+    @Override
+    public String toString() {
+        return converterClassName;
+    }
+}
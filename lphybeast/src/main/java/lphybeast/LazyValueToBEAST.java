@@ -0,0 +1,105 @@
+package lphybeast;
+
+import beast.base.core.BEASTInterface;
+import lphy.core.model.Value;
+
+/**
+ * The {@link ValueToBEAST} registered from {@link RegistryIndex} by its class name,
+ * which is only instantiated when it is first matched,
+ * so that the BEAST classes it depends on are not loaded if the script does not use it.
+ * The default {@link #match(Value)} only loads the value class,
+ * but the converter is instantiated if it overrides the match methods.
+ */
+public class LazyValueToBEAST<T, S extends BEASTInterface> implements ValueToBEAST<T, S> {
+
+    private final String converterClassName;
+    private final String valueClassName;
+    private final boolean overridesMatch;
+    private final ClassLoader classLoader;
+
+    private volatile Class<?> valueClass;
+    private volatile ValueToBEAST<T, S> converter;
+
+    /**
+     * @param converterClassName  the class name of ValueToBEAST
+     * @param valueClassName      the class name returned by {@link ValueToBEAST#getValueClass()}
+     * @param overridesMatch      if the converter overrides either match method
+     * @param classLoader         the class loader of the extension
+     */
+    public LazyValueToBEAST(String converterClassName, String valueClassName, boolean overridesMatch,
+                            ClassLoader classLoader) {
+        this.converterClassName = converterClassName;
+        this.valueClassName = valueClassName;
+        this.overridesMatch = overridesMatch;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * @return the converter, which is instantiated in the first call.
+     */
+    public ValueToBEAST<T, S> getConverter() {
+        ValueToBEAST<T, S> toBEAST = converter;
+        if (toBEAST == null) {
+            synchronized (this) {
+                if (converter == null) {
+                    try {
+                        converter = (ValueToBEAST<T, S>) Class.forName(converterClassName, true, classLoader)
+                                .getDeclaredConstructor().newInstance();
+                    } catch (ReflectiveOperationException e) {
+                        throw new RuntimeException("Cannot instantiate " + converterClassName, e);
+                    }
+                }
+                toBEAST = converter;
+            }
+        }
+        return toBEAST;
+    }
+
+    public boolean isInstantiated() {
+        return converter != null;
+    }
+
+    @Override
+    public S valueToBEAST(Value<T> value, BEASTContext context) {
+        return getConverter().valueToBEAST(value, context);
+    }
+
+    @Override
+    public Class getValueClass() {
+        Class<?> cls = valueClass;
+        if (cls == null) {
+            try {
+                cls = Class.forName(valueClassName, false, classLoader);
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("Cannot load the value class " + valueClassName +
+                        " of " + converterClassName, e);
+            }
+            valueClass = cls;
+        }
+        return cls;
+    }
+
+    @Override
+    public boolean match(Value value) {
+        if (overridesMatch)
+            return getConverter().match(value);
+        return ValueToBEAST.super.match(value);
+    }
+
+    @Override
+    public boolean match(Object rawValue) {
+        if (overridesMatch)
+            return getConverter().match(rawValue);
+        return ValueToBEAST.super.match(rawValue);
+    }
+
+    @Override
+    public Class<S> getBEASTClass() {
+        return getConverter().getBEASTClass();
+    }
+
+    @Override
+    public String toString() {
+        return converterClassName;
+    }
+}
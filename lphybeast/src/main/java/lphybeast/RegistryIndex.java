@@ -0,0 +1,263 @@
+package lphybeast;
+
+import beast.pkgmgmt.PackageManager;
+import lphy.core.logger.LoggerUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * The index of the converters registered by each LPhyBEAST extension, which is persisted in
+ * {@link #INDEX_FILE} under the user home, so that {@link LPhyBEASTLoader} can skip
+ * the discovery and instantiation of the extensions in later runs.
+ * The index is keyed by the hash of the extensions, and the version.xml files, jars and class folders of
+ * the class path and BEAST packages, and is rebuilt when any of them are changed.
+ */
+public class RegistryIndex {
+
+    public static final String INDEX_DIR = ".lphybeast";
+    public static final String INDEX_FILE = "registry-index.json";
+    // increase it when the format is changed
+    static final int FORMAT_VERSION = 2;
+
+    /**
+     * The converters and exclusions of one extension, in the order of registration.
+     * @param extClassName          the class name of LPhyBEASTExt
+     * @param valueToBEASTs         the ValueToBEAST classes mapped to the classes of the values they convert
+     * @param generatorToBEASTs     the GeneratorToBEAST classes mapped to the classes of the generators they convert
+     * @param excludedGenerators    the class names of excluded generators
+     * @param excludedValueTypes    the class names of excluded value types
+     * @param requiresInstance      if the extension has to be instantiated for its data types or tree operator strategy
+     */
+    public record Extension(String extClassName, List<Converter> valueToBEASTs, List<Converter> generatorToBEASTs,
+                            List<String> excludedGenerators, List<String> excludedValueTypes,
+                            boolean requiresInstance) { }
+
+    /**
+     * @param converterClassName  the class name of ValueToBEAST or GeneratorToBEAST
+     * @param lphyClassName       the class name of the value or generator it converts
+     * @param overridesMatch      if the ValueToBEAST overrides the match methods,
+     *                            so that it has to be instantiated to match values
+     */
+    public record Converter(String converterClassName, String lphyClassName, boolean overridesMatch) { }
+
+    private final String key;
+    private final List<Extension> extensions;
+
+    public RegistryIndex(String key, List<Extension> extensions) {
+        this.key = key;
+        this.extensions = extensions;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public List<Extension> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * @return the index file in the user home.
+     */
+    public static Path getIndexFile() {
+        return Paths.get(System.getProperty("user.home"), INDEX_DIR, INDEX_FILE);
+    }
+
+    /**
+     * The hash only uses the path, size and modified time of the files,
+     * so that it takes much less time than loading the extensions.
+     * @param extClassNames  the class names of the LPhyBEAST extensions in the BEAST services
+     * @return the SHA-256 hash of the extensions, and the version.xml files and jars in use.
+     */
+    public static String computeKey(Collection<String> extClassNames) {
+        return computeKey(extClassNames, System.getProperty("java.class.path", ""));
+    }
+
+    /**
+     * The class folders, e.g. in development, are hashed file by file,
+     * because recompiling a class in a nested package does not change the modified time of the folder.
+     * @param classPath  the class path
+     * @see #computeKey(Collection)
+     */
+    static String computeKey(Collection<String> extClassNames, String classPath) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(FORMAT_VERSION).append('\n');
+        new TreeSet<>(extClassNames).forEach(ext -> sb.append(ext).append('\n'));
+
+        // the jars and folders in the class path, and the version.xml files next to them
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (entry.isEmpty()) continue;
+            File file = new File(entry);
+            if (file.isDirectory())
+                appendFolder(sb, file.toPath());
+            else
+                appendFile(sb, file);
+            File parent = file.getParentFile();
+            if (parent != null) {
+                appendFile(sb, new File(parent, "version.xml"));
+                if (parent.getParentFile() != null)
+                    appendFile(sb, new File(parent.getParentFile(), "version.xml"));
+            }
+        }
+
+        // BEAST packages
+        for (String dir : PackageManager.getBeastDirectories()) {
+            File[] pkgDirs = new File(dir).listFiles(File::isDirectory);
+            if (pkgDirs == null) continue;
+            Arrays.sort(pkgDirs);
+            for (File pkgDir : pkgDirs) {
+                appendFile(sb, new File(pkgDir, "version.xml"));
+                File[] jars = new File(pkgDir, "lib").listFiles((d, name) -> name.endsWith(".jar"));
+                if (jars == null) continue;
+                Arrays.sort(jars);
+                for (File jar : jars)
+                    appendFile(sb, jar);
+            }
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void appendFile(StringBuilder sb, File file) {
+        if (file.exists())
+            sb.append(file.getAbsolutePath()).append('|').append(file.length())
+                    .append('|').append(file.lastModified()).append('\n');
+    }
+
+    // all files in the folder and its sub-folders, in the order of their paths
+    private static void appendFolder(StringBuilder sb, Path dir) {
+        sb.append(dir.toAbsolutePath()).append('\n');
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.filter(Files::isRegularFile).sorted().forEach(path -> appendFile(sb, path.toFile()));
+        } catch (IOException | UncheckedIOException e) {
+            // a folder which cannot be read is hashed by its path only
+            LoggerUtils.log.warning("Cannot list the files in " + dir + " : " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param indexFile  the index file
+     * @param key        the key of the extensions and packages in use
+     * @return the index, or null if the file does not exist, cannot be parsed, or has a different key.
+     */
+    public static RegistryIndex read(Path indexFile, String key) {
+        if (!Files.isRegularFile(indexFile))
+            return null;
+        try {
+            JSONObject json = new JSONObject(Files.readString(indexFile, StandardCharsets.UTF_8));
+            if (json.getInt("version") != FORMAT_VERSION || !key.equals(json.getString("key")))
+                return null;
+
+            List<Extension> extensions = new ArrayList<>();
+            JSONArray extArray = json.getJSONArray("extensions");
+            for (int i = 0; i < extArray.length(); i++) {
+                JSONObject ext = extArray.getJSONObject(i);
+                extensions.add(new Extension(ext.getString("class"),
+                        readConverters(ext.getJSONArray("valueToBEAST")),
+                        readConverters(ext.getJSONArray("generatorToBEAST")),
+                        readStrings(ext.getJSONArray("excludedGenerator")),
+                        readStrings(ext.getJSONArray("excludedValueType")),
+                        ext.getBoolean("requiresInstance")));
+            }
+            return new RegistryIndex(key, extensions);
+        } catch (IOException | JSONException e) {
+            LoggerUtils.log.warning("Cannot read the registry index " + indexFile + " : " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the index to a temporary file, and then move it to the index file,
+     * so that another process does not read a partial index.
+     * @param indexFile  the index file
+     * @throws IOException if the index cannot be written.
+     */
+    public void write(Path indexFile) throws IOException {
+        String content;
+        try {
+            content = toJSON().toString(2);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+
+        Path dir = indexFile.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, INDEX_FILE, ".tmp");
+        try {
+            Files.writeString(tmp, content, StandardCharsets.UTF_8);
+            try {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private JSONObject toJSON() throws JSONException {
+        JSONArray extArray = new JSONArray();
+        for (Extension ext : extensions) {
+            JSONObject json = new JSONObject();
+            json.put("class", ext.extClassName());
+            json.put("valueToBEAST", writeConverters(ext.valueToBEASTs()));
+            json.put("generatorToBEAST", writeConverters(ext.generatorToBEASTs()));
+            json.put("excludedGenerator", new JSONArray(ext.excludedGenerators()));
+            json.put("excludedValueType", new JSONArray(ext.excludedValueTypes()));
+            json.put("requiresInstance", ext.requiresInstance());
+            extArray.put(json);
+        }
+        JSONObject json = new JSONObject();
+        json.put("version", FORMAT_VERSION);
+        json.put("key", key);
+        json.put("extensions", extArray);
+        return json;
+    }
+
+    private static List<Converter> readConverters(JSONArray array) throws JSONException {
+        List<Converter> converters = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject json = array.getJSONObject(i);
+            converters.add(new Converter(json.getString("converter"), json.getString("lphy"),
+                    json.getBoolean("overridesMatch")));
+        }
+        return converters;
+    }
+
+    private static JSONArray writeConverters(List<Converter> converters) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Converter converter : converters) {
+            JSONObject json = new JSONObject();
+            json.put("converter", converter.converterClassName());
+            json.put("lphy", converter.lphyClassName());
+            json.put("overridesMatch", converter.overridesMatch());
+            array.put(json);
+        }
+        return array;
+    }
+
+    private static List<String> readStrings(JSONArray array) throws JSONException {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++)
+            strings.add(array.getString(i));
+        return strings;
+    }
+
+}
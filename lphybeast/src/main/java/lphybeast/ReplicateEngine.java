@@ -0,0 +1,140 @@
+package lphybeast;
+
+import lphy.core.codebuilder.CanonicalCodeBuilder;
+import lphy.core.logger.LoggerUtils;
+import lphy.core.logger.ValueFileLoggerListener;
+import lphy.core.model.RandomVariable;
+import lphy.core.model.Value;
+import lphy.core.parser.LPhyParserDictionary;
+import lphy.core.simulator.NamedRandomValueSimulator;
+import lphy.core.simulator.Sampler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Parse the LPhy script and the constants given by -D once,
+ * and then only re-sample the random values for each replicate.
+ * The {@link LPhyParserDictionary} is updated in place by every sample,
+ * so one engine must not be shared between threads.
+ */
+public class ReplicateEngine {
+
+    private final LPhyParserDictionary parserDictionary;
+    private final Sampler sampler;
+    // the code is the same for all replicates, as only the random values are changed
+    private final String codeBlock;
+    private final Set<String> varNotLog;
+
+    // nanoseconds
+    private final long compileTime;
+    private long sampleTime = 0;
+    private int sampleCount = 0;
+
+    /**
+     * Parse the LPhy script, which also simulates it once.
+     * @param lphyFile   LPhy script file
+     * @param lphyConst  constants inputted by user using macro
+     * @param varNotLog  the lphy random variables not logged in the true values
+     * @throws IOException
+     */
+    public ReplicateEngine(File lphyFile, String[] lphyConst, String[] varNotLog) throws IOException {
+        final long start = System.nanoTime();
+
+        NamedRandomValueSimulator simulator = new NamedRandomValueSimulator();
+        // should not create any log files here
+        simulator.simulate(lphyFile, 1, lphyConst, varNotLog, null);
+        this.parserDictionary = simulator.getParserDictionary();
+        this.sampler = new Sampler(parserDictionary);
+        this.codeBlock = new CanonicalCodeBuilder().getCode(parserDictionary);
+        this.varNotLog = varNotLog == null ? Set.of() : Set.of(varNotLog);
+
+        this.compileTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Re-sample all random values in the parsed model, and log the true values.
+     * @param seed          the seed of this replicate, null to not set the seed.
+     * @param trueFileStem  the file stem to log the true values and true trees.
+     * @return  the parser dictionary containing the new values.
+     */
+    public LPhyParserDictionary sample(Long seed, String trueFileStem) {
+        final long start = System.nanoTime();
+
+        sampler.sample(seed);
+
+        sampleTime += System.nanoTime() - start;
+        sampleCount++;
+
+        logTrueValues(trueFileStem);
+        return parserDictionary;
+    }
+
+    /**
+     * @return the LPhy code in canonical form, which is created once from the parsed script.
+     */
+    public String getCodeBlock() {
+        return codeBlock;
+    }
+
+    /**
+     * @return  the time in milliseconds to parse the script and simulate it once.
+     */
+    public double getCompileTimeMillis() {
+        return compileTime / 1e6;
+    }
+
+    /**
+     * @return  the mean time in milliseconds to re-sample one replicate.
+     */
+    public double getMeanSampleTimeMillis() {
+        return sampleCount > 0 ? sampleTime / 1e6 / sampleCount : 0;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Log the time saved per replicate, compared to parsing the script for every replicate.
+     * @param engines  one engine per thread
+     */
+    public static void logTimeSaved(Collection<ReplicateEngine> engines) {
+        int nEngines = 0;
+        int nSamples = 0;
+        double compile = 0;
+        double sample = 0;
+        for (ReplicateEngine engine : engines) {
+            nEngines++;
+            nSamples += engine.getSampleCount();
+            compile += engine.getCompileTimeMillis();
+            sample += engine.getMeanSampleTimeMillis() * engine.getSampleCount();
+        }
+        if (nEngines < 1 || nSamples < 1) return;
+
+        final double meanCompile = compile / nEngines;
+        final double meanSample = sample / nSamples;
+        // each replicate used to parse and simulate the script
+        final double saved = meanCompile - meanSample;
+        LoggerUtils.log.info(String.format("Parse the LPhy script %d time(s) for %d replicates : " +
+                        "%.1f ms to parse, %.1f ms to re-sample each replicate, " +
+                        "saving about %.1f ms per replicate (%.1f s in total).",
+                nEngines, nSamples, meanCompile, meanSample, saved, saved * (nSamples - nEngines) / 1000));
+    }
+
+    // log the named random variables, except the ones not logged, by the same logger
+    // as NamedRandomValueSimulator#simulateAndLog simulating one replicate
+    private void logTrueValues(String trueFileStem) {
+        List<Value> values = new ArrayList<>();
+        for (Value<?> value : parserDictionary.getModelValues()) {
+            if (value instanceof RandomVariable && !value.isAnonymous() && !varNotLog.contains(value.getId()))
+                values.add(value);
+        }
+        ValueFileLoggerListener logger = new ValueFileLoggerListener();
+        logger.start(List.of(1, trueFileStem));
+        logger.replicate(0, values);
+        logger.complete();
+    }
+
+}
@@ -26,6 +26,8 @@ public interface ValueToBEAST<T, S extends BEASTInterface> {
     Class getValueClass();
 
     /**
+     * The result is cached by {@link ConverterCache}, so an overriding method should only depend on
+     * the classes of the value, the object it wraps, and its generator.
      * @param value a value to be tested for consumption by this ValueToBEAST
      * @return true if this value can be converted by this ValueToBEAST class, false otherwise.
      */
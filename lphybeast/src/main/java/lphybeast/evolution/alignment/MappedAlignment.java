@@ -0,0 +1,239 @@
+package lphybeast.evolution.alignment;
+
+import beast.base.core.Description;
+import beast.base.core.Input;
+import beast.base.core.Input.Validate;
+import beast.base.core.Log;
+import beast.base.evolution.alignment.Alignment;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The alignment memory-mapped from a binary file next to the XML, instead of the sequences in XML.
+ * The file keeps the site patterns encoded by the BEAST data type, their weights,
+ * and the pattern index of every site. When BEAST starts, the taxa, weights and pattern indices are read,
+ * but the states of site patterns are only read from the mapped file when they are required,
+ * e.g. when the tree likelihood copies them into its own states, so they are not kept in the heap.
+ * The file is created by {@link #write(Path, Alignment)} from any initialised alignment.
+ * A relative file name is resolved in the same way as the log files, against the directory given by
+ * -working or -prefix of BEAST, otherwise the working directory.
+ * <p>
+ * The format is big-endian: the magic number "LPBA", version, number of taxa, sites,
+ * patterns and states, and bytes per state (1 or 2), then the taxa names in UTF-8
+ * preceded by their lengths, the states of patterns (pattern by pattern),
+ * the pattern weights, and the pattern index of sites.
+ */
+@Description("Alignment loaded from a binary file of site patterns written by LPhyBEAST")
+public class MappedAlignment extends Alignment {
+
+    final public Input<String> fileNameInput = new Input<>("fileName",
+            "name of the binary file containing the site patterns of the alignment, " +
+                    "which is relative to the directory of log files", Validate.REQUIRED);
+
+    // "LPBA"
+    private static final int MAGIC = 0x4C504241;
+    private static final int VERSION = 1;
+
+    // the states of site patterns in the mapped file, pattern by pattern
+    private ByteBuffer patternStates;
+    private int stateBytes;
+    private int patternCount;
+
+    public MappedAlignment() {
+        // sequences are in the file
+        sequenceInput.setRule(Validate.FORBIDDEN);
+    }
+
+    @Override
+    public void initAndValidate() {
+        if (userDataTypeInput.get() != null)
+            m_dataType = userDataTypeInput.get();
+        else
+            initDataType();
+
+        Path path = getFilePath(fileNameInput.get());
+        // the mapping is kept after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read the alignment from " + path + " : " + e.getMessage(), e);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The alignment file " + path + " is truncated !", e);
+        }
+
+        setupAscertainment();
+        Log.info.println(toString(false));
+    }
+
+    /**
+     * The same as BEAST {@link beast.base.inference.Logger} resolves the log files.
+     * @param fileName  the file name in XML
+     * @return  the path prefixed by the system property "file.name.prefix" if it is relative.
+     */
+    public static Path getFilePath(String fileName) {
+        Path path = Path.of(fileName);
+        String prefix = System.getProperty("file.name.prefix");
+        if (path.isAbsolute() || prefix == null)
+            return path;
+        return Path.of(prefix + fileName);
+    }
+
+    private void read(ByteBuffer buffer, Path path) {
+        if (buffer.getInt() != MAGIC)
+            throw new IllegalArgumentException("The file " + path + " is not an alignment written by LPhyBEAST !");
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported version " + version + " of the alignment file " + path);
+        final int taxonCount = buffer.getInt();
+        final int siteCount = buffer.getInt();
+        patternCount = buffer.getInt();
+        final int stateCount = buffer.getInt();
+        stateBytes = buffer.getInt();
+        if (stateCount != m_dataType.getStateCount())
+            throw new IllegalArgumentException("The alignment file " + path + " has " + stateCount +
+                    " states, but the data type " + m_dataType.getTypeDescription() + " has " + m_dataType.getStateCount());
+
+        taxaNames.clear();
+        stateCounts.clear();
+        tipLikelihoods.clear();
+        for (int t = 0; t < taxonCount; t++) {
+            byte[] name = new byte[buffer.getInt()];
+            buffer.get(name);
+            taxaNames.add(new String(name, StandardCharsets.UTF_8));
+            stateCounts.add(stateCount);
+            // no tip likelihoods
+            tipLikelihoods.add(null);
+        }
+        maxStateCount = stateCount;
+
+        // the states are not decoded here
+        final int statesLength = Math.multiplyExact(Math.multiplyExact(patternCount, taxonCount), stateBytes);
+        if (buffer.remaining() < statesLength)
+            throw new IllegalArgumentException("The alignment file " + path + " is truncated !");
+        patternStates = buffer.slice(buffer.position(), statesLength);
+        buffer.position(buffer.position() + statesLength);
+        sitePatterns = null;
+
+        patternWeight = new int[patternCount];
+        for (int i = 0; i < patternCount; i++)
+            patternWeight[i] = buffer.getInt();
+        patternIndex = new int[siteCount];
+        for (int i = 0; i < siteCount; i++)
+            patternIndex[i] = buffer.getInt();
+        // counts are created from the patterns only if required
+        counts = null;
+    }
+
+    @Override
+    public int getPatternCount() {
+        return patternCount;
+    }
+
+    /**
+     * @param patternIndex_  the index of site pattern
+     * @return  the states of the site pattern read from the mapped file, which is a new array.
+     */
+    @Override
+    public int[] getPattern(int patternIndex_) {
+        int[] pattern = new int[getTaxonCount()];
+        for (int t = 0; t < pattern.length; t++)
+            pattern[t] = getPattern(t, patternIndex_);
+        return pattern;
+    }
+
+    @Override
+    public int getPattern(int taxonIndex, int patternIndex_) {
+        if (patternIndex_ < 0 || patternIndex_ >= patternCount)
+            throw new ArrayIndexOutOfBoundsException(patternIndex_);
+        // absolute reads, which do not change the position of the shared buffer
+        final int index = patternIndex_ * getTaxonCount() + taxonIndex;
+        return stateBytes == 1 ? Byte.toUnsignedInt(patternStates.get(index)) :
+                Short.toUnsignedInt(patternStates.getShort(index * 2));
+    }
+
+    @Override
+    public String getSequenceAsString(String taxon) {
+        final int taxonIndex = getTaxonIndex(taxon);
+        int[] states = new int[getSiteCount()];
+        for (int i = 0; i < states.length; i++)
+            states[i] = getPattern(taxonIndex, getPatternIndex(i));
+        return m_dataType.encodingToString(states);
+    }
+
+    /**
+     * The same as {@link beast.base.evolution.alignment.FilteredAlignment#getCounts()},
+     * which is required when this alignment is filtered, e.g. by ThreadedTreeLikelihood.
+     */
+    @Override
+    public List<List<Integer>> getCounts() {
+        if (counts == null) {
+            counts = new ArrayList<>();
+            for (int t = 0; t < getTaxonCount(); t++)
+                counts.add(new ArrayList<>(getSiteCount()));
+            for (int i = 0; i < getSiteCount(); i++) {
+                int[] sites = getPattern(getPatternIndex(i));
+                for (int t = 0; t < getTaxonCount(); t++)
+                    counts.get(t).add(sites[t]);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Write the site patterns of the alignment into a binary file,
+     * which can be loaded by {@link MappedAlignment}.
+     * @param path       the binary file
+     * @param alignment  the initialised alignment without tip likelihoods
+     * @throws IOException
+     */
+    public static void write(Path path, Alignment alignment) throws IOException {
+        final int taxonCount = alignment.getTaxonCount();
+        final int patternCount = alignment.getPatternCount();
+        int maxState = 0;
+        for (int i = 0; i < patternCount; i++)
+            for (int state : alignment.getPattern(i))
+                maxState = Math.max(maxState, state);
+        if (maxState > 0xFFFF)
+            throw new IllegalArgumentException("The state " + maxState + " cannot be written into 2 bytes !");
+        final int stateBytes = maxState > 0xFF ? 2 : 1;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(taxonCount);
+            out.writeInt(alignment.getSiteCount());
+            out.writeInt(patternCount);
+            out.writeInt(alignment.getDataType().getStateCount());
+            out.writeInt(stateBytes);
+            for (String taxon : alignment.getTaxaNames()) {
+                byte[] name = taxon.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+            }
+            for (int i = 0; i < patternCount; i++) {
+                for (int state : alignment.getPattern(i)) {
+                    if (stateBytes == 1)
+                        out.writeByte(state);
+                    else
+                        out.writeShort(state);
+                }
+            }
+            for (int weight : alignment.getWeights())
+                out.writeInt(weight);
+            for (int i = 0; i < alignment.getSiteCount(); i++)
+                out.writeInt(alignment.getPatternIndex(i));
+        }
+    }
+
+}
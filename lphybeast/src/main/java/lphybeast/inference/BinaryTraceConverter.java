@@ -0,0 +1,88 @@
+package lphybeast.inference;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Convert the binary trace log written by {@link BinaryTraceLogger} into the standard
+ * tab-delimited trace log, which can be read by Tracer. The samples are streamed block by block,
+ * and formatted in the same way as BEAST {@link beast.base.inference.Logger}.
+ * Usage: <code>BinaryTraceConverter in.log.bin [out.log]</code>,
+ * where the output is the input without the extension ".bin" as default.
+ */
+public class BinaryTraceConverter {
+
+    /**
+     * @param binaryLog  the binary trace log
+     * @param log        the trace log to write
+     * @throws IOException if the binary log cannot be read, or the log cannot be written.
+     */
+    public static void convert(Path binaryLog, Path log) throws IOException {
+        try (BinaryTraceReader reader = new BinaryTraceReader(binaryLog);
+             Writer writer = Files.newBufferedWriter(log)) {
+            convert(reader, writer);
+        }
+    }
+
+    /**
+     * @param reader  the reader of the binary trace log
+     * @param writer  the writer of the trace log, which is not closed
+     * @return  the number of samples written.
+     * @throws IOException if the binary log cannot be read, or the log cannot be written.
+     */
+    public static long convert(BinaryTraceReader reader, Writer writer) throws IOException {
+        BufferedWriter out = writer instanceof BufferedWriter bufferedWriter ?
+                bufferedWriter : new BufferedWriter(writer);
+        final int columns = reader.getNames().size();
+        out.write("Sample");
+        for (String name : reader.getNames())
+            out.write("\t" + name);
+        out.newLine();
+
+        long samples = 0;
+        StringBuilder line = new StringBuilder();
+        while (reader.nextBlock()) {
+            for (int r = 0; r < reader.getRowCount(); r++) {
+                line.setLength(0);
+                line.append(reader.getSample(r));
+                for (int c = 0; c < columns; c++) {
+                    line.append('\t');
+                    if (reader.getType(c) == BinaryTraceWriter.INT)
+                        line.append((int) reader.getValue(c, r));
+                    else
+                        line.append(reader.getValue(c, r));
+                }
+                out.write(line.toString());
+                out.newLine();
+                samples++;
+            }
+        }
+        out.flush();
+        return samples;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: BinaryTraceConverter in.log" + BinaryTraceLogger.EXTENSION + " [out.log]");
+            System.exit(1);
+        }
+        Path binaryLog = Path.of(args[0]);
+        Path log;
+        if (args.length > 1) {
+            log = Path.of(args[1]);
+        } else {
+            String fileName = binaryLog.getFileName().toString();
+            if (!fileName.endsWith(BinaryTraceLogger.EXTENSION))
+                throw new IllegalArgumentException("Please give the output log, " +
+                        "if the input does not end with " + BinaryTraceLogger.EXTENSION + " !");
+            log = binaryLog.resolveSibling(fileName.substring(0, fileName.length() -
+                    BinaryTraceLogger.EXTENSION.length()));
+        }
+        convert(binaryLog, log);
+        System.out.println("Convert " + binaryLog + " to " + log);
+    }
+
+}
@@ -0,0 +1,200 @@
+package lphybeast.inference;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.core.Function;
+import beast.base.core.Log;
+import beast.base.core.Loggable;
+import beast.base.inference.Distribution;
+import beast.base.inference.Logger;
+import beast.base.inference.parameter.BooleanParameter;
+import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.Parameter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The trace logger writing the columnar binary format of {@link BinaryTraceWriter},
+ * which is converted into the standard trace log by {@link BinaryTraceConverter}.
+ * The parameters and distributions are logged by their values directly,
+ * where the integer and boolean parameters are logged as int.
+ * The other loggables are logged into text as usual, and then parsed into doubles,
+ * where a value which is not a number is logged as NaN.
+ * Tree logs and resuming a chain are not supported.
+ */
+@Description("Trace logger writing the samples into a columnar binary file, which is converted to a log by BinaryTraceConverter")
+public class BinaryTraceLogger extends Logger {
+
+    // the extension added to the file name of the trace log
+    public static final String EXTENSION = ".bin";
+
+    private BinaryTraceWriter writer = null;
+    private List<Loggable> loggables;
+    // the number of columns of each loggable, or -1 if it is logged by its values directly
+    private int[] textColumns;
+    private double[] row;
+
+    @Override
+    public void initAndValidate() {
+        super.initAndValidate();
+        if (isLoggingToStdout())
+            throw new IllegalArgumentException("The binary trace logger requires a file name !");
+        if (mode != LOGMODE.compound)
+            throw new IllegalArgumentException("The binary trace logger cannot log trees ! " + getID());
+        loggables = new ArrayList<>();
+        for (BEASTObject beastObject : loggersInput.get())
+            loggables.add((Loggable) beastObject);
+    }
+
+    @Override
+    public void init() throws IOException {
+        String fileName = fileNameInput.get();
+        if (System.getProperty("file.name.prefix") != null)
+            fileName = System.getProperty("file.name.prefix") + fileName;
+        if (FILE_MODE == LogFileMode.resume)
+            Log.warning.println("Cannot resume the binary trace log " + fileName + ", so it is overwritten.");
+        else if (Files.exists(Path.of(fileName)))
+            Log.warning.println("Warning: Overwriting file " + fileName);
+
+        List<String> names = new ArrayList<>();
+        List<Byte> types = new ArrayList<>();
+        textColumns = new int[loggables.size()];
+        for (int i = 0; i < loggables.size(); i++) {
+            Loggable loggable = loggables.get(i);
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            loggable.init(new PrintStream(header));
+            List<String> columns = splitColumns(header.toString());
+            names.addAll(columns);
+
+            if (isLoggedByValue(loggable, columns.size())) {
+                textColumns[i] = -1;
+                byte type = loggable instanceof IntegerParameter || loggable instanceof BooleanParameter ?
+                        BinaryTraceWriter.INT : BinaryTraceWriter.DOUBLE;
+                for (int c = 0; c < columns.size(); c++)
+                    types.add(type);
+            } else {
+                textColumns[i] = columns.size();
+                for (int c = 0; c < columns.size(); c++)
+                    types.add(BinaryTraceWriter.DOUBLE);
+            }
+        }
+        byte[] typeArray = new byte[types.size()];
+        for (int c = 0; c < typeArray.length; c++)
+            typeArray[c] = types.get(c);
+        row = new double[typeArray.length];
+        writer = new BinaryTraceWriter(new FileOutputStream(fileName), names, typeArray);
+        Log.info.println("Writing binary trace log " + fileName);
+    }
+
+    // the values of parameters and distributions are the same as their text log
+    private boolean isLoggedByValue(Loggable loggable, int columns) {
+        return (loggable instanceof Parameter<?> || loggable instanceof Distribution) &&
+                ((Function) loggable).getDimension() == columns;
+    }
+
+    private static List<String> splitColumns(String text) {
+        String trimmed = text.trim();
+        if (trimmed.isEmpty())
+            return new ArrayList<>();
+        return new ArrayList<>(Arrays.asList(trimmed.split("\t")));
+    }
+
+    @Override
+    public void log(long sampleNr) {
+        if ((sampleNr < 0) || (sampleNr % every > 0))
+            return;
+        if (sampleOffset >= 0) {
+            if (sampleNr == 0)
+                return;
+            sampleNr += sampleOffset;
+        }
+
+        int c = 0;
+        for (int i = 0; i < loggables.size(); i++) {
+            Loggable loggable = loggables.get(i);
+            if (textColumns[i] < 0) {
+                Function function = (Function) loggable;
+                for (int d = 0; d < function.getDimension(); d++)
+                    row[c++] = function.getArrayValue(d);
+            } else {
+                ByteArrayOutputStream text = new ByteArrayOutputStream();
+                loggable.log(sampleNr, new PrintStream(text));
+                List<String> tokens = splitColumns(text.toString());
+                for (int t = 0; t < textColumns[i]; t++)
+                    row[c++] = t < tokens.size() ? parseValue(tokens.get(t)) : Double.NaN;
+            }
+        }
+        try {
+            writer.write(sampleNr, row);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write the binary trace log " + fileNameInput.get(), e);
+        }
+    }
+
+    private static double parseValue(String token) {
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            if ("true".equals(token))
+                return 1;
+            if ("false".equals(token))
+                return 0;
+            return Double.NaN;
+        }
+    }
+
+    @Override
+    public void close() {
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        for (Loggable loggable : loggables)
+            loggable.close(nowhere);
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.warning.println("Cannot close the binary trace log " + fileNameInput.get() + " : " + e.getMessage());
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * Keep the samples at the multiples of the interval in the binary trace log.
+     * @param path      the binary trace log
+     * @param interval  the log interval
+     * @throws IOException if the file cannot be read or written.
+     */
+    public static void thinLog(Path path, long interval) throws IOException {
+        Path thinned = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BinaryTraceReader reader = new BinaryTraceReader(path)) {
+            byte[] types = new byte[reader.getNames().size()];
+            for (int c = 0; c < types.length; c++)
+                types[c] = reader.getType(c);
+            double[] values = new double[types.length];
+            try (BinaryTraceWriter thinnedWriter = new BinaryTraceWriter(Files.newOutputStream(thinned),
+                    reader.getNames(), types)) {
+                while (reader.nextBlock()) {
+                    for (int r = 0; r < reader.getRowCount(); r++) {
+                        if (reader.getSample(r) % interval != 0)
+                            continue;
+                        for (int c = 0; c < values.length; c++)
+                            values[c] = reader.getValue(c, r);
+                        thinnedWriter.write(reader.getSample(r), values);
+                    }
+                }
+            }
+        }
+        Files.move(thinned, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
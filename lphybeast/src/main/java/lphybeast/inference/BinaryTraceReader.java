@@ -0,0 +1,131 @@
+package lphybeast.inference;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Read a trace log written by {@link BinaryTraceWriter} block by block,
+ * so that only one block of samples is kept in memory.
+ * @see BinaryTraceWriter
+ */
+public class BinaryTraceReader implements Closeable {
+
+    private final DataInputStream in;
+    private final List<String> names;
+    private final byte[] types;
+
+    private final long[] samples = new long[BinaryTraceWriter.BLOCK_ROWS];
+    // column -> row
+    private final double[][] values;
+    private int rows = 0;
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * @param path  the binary trace log
+     * @throws IOException if the file cannot be read, or is not a binary trace log.
+     */
+    public BinaryTraceReader(Path path) throws IOException {
+        this(Files.newInputStream(path));
+    }
+
+    /**
+     * @param input  the input stream, which is closed by {@link #close()}
+     * @throws IOException if the stream cannot be read, or is not a binary trace log.
+     */
+    public BinaryTraceReader(InputStream input) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(input));
+        byte[] magic = new byte[BinaryTraceWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, BinaryTraceWriter.MAGIC))
+            throw new IOException("It is not a binary trace log !");
+        final int version = in.readInt();
+        if (version != BinaryTraceWriter.VERSION)
+            throw new IOException("Unsupported version " + version + " of binary trace log !");
+        final int columns = in.readInt();
+        List<String> names = new ArrayList<>(columns);
+        types = new byte[columns];
+        for (int c = 0; c < columns; c++) {
+            names.add(in.readUTF());
+            types[c] = in.readByte();
+        }
+        this.names = Collections.unmodifiableList(names);
+        values = new double[columns][BinaryTraceWriter.BLOCK_ROWS];
+    }
+
+    /**
+     * Read the next block of samples.
+     * @return  false if there is no more block, or the last block is incomplete.
+     * @throws IOException if the block cannot be read.
+     */
+    public boolean nextBlock() throws IOException {
+        rows = 0;
+        final int blockRows;
+        final byte[] compressed;
+        try {
+            blockRows = in.readInt();
+            if (blockRows <= 0 || blockRows > BinaryTraceWriter.BLOCK_ROWS)
+                throw new IOException("Invalid number of rows " + blockRows + " in the block !");
+            compressed = new byte[in.readInt()];
+            in.readFully(compressed);
+        } catch (EOFException e) {
+            // the end, or the block being written when the process was killed
+            return false;
+        }
+
+        inflater.reset();
+        DataInputStream blockIn = new DataInputStream(new BufferedInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(compressed), inflater)));
+        for (int r = 0; r < blockRows; r++)
+            samples[r] = blockIn.readLong();
+        for (int c = 0; c < types.length; c++) {
+            for (int r = 0; r < blockRows; r++)
+                values[c][r] = types[c] == BinaryTraceWriter.INT ? blockIn.readInt() : blockIn.readDouble();
+        }
+        rows = blockRows;
+        return true;
+    }
+
+    /**
+     * @return  the names of columns, excluding the sample number.
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @param column  the column index
+     * @return  either {@link BinaryTraceWriter#DOUBLE} or {@link BinaryTraceWriter#INT}.
+     */
+    public byte getType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @return  the number of rows in the current block.
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    public long getSample(int row) {
+        return samples[row];
+    }
+
+    public double getValue(int column, int row) {
+        return values[column][row];
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+}
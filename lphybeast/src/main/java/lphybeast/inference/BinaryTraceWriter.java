@@ -0,0 +1,128 @@
+package lphybeast.inference;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Write a trace log in the columnar binary format, which is read by {@link BinaryTraceReader}.
+ * The file starts with the header:
+ * <pre>
+ *     "LPBTRACE", int version, int columns, then the UTF name and the type of each column,
+ * </pre>
+ * where the type is {@link #DOUBLE} or {@link #INT}. The samples follow in blocks of
+ * at most {@link #BLOCK_ROWS} rows, each of which is:
+ * <pre>
+ *     int rows, int compressed bytes, and the deflated bytes of
+ *     the long sample numbers and then the fixed-width values of every column.
+ * </pre>
+ * A block is written and flushed once it is full, so the samples in the last block
+ * are lost if the process is killed.
+ */
+public class BinaryTraceWriter implements Closeable {
+
+    public static final byte[] MAGIC = "LPBTRACE".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+    public static final byte DOUBLE = 'D';
+    public static final byte INT = 'I';
+    // the rows in a block, which is compressed as a whole
+    public static final int BLOCK_ROWS = 1024;
+
+    private final DataOutputStream out;
+    private final byte[] types;
+    private final long[] samples = new long[BLOCK_ROWS];
+    // column -> row
+    private final double[][] values;
+    private int rows = 0;
+
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * @param out    the output stream, which is closed by {@link #close()}
+     * @param names  the names of columns, excluding the sample number
+     * @param types  the type of each column, either {@link #DOUBLE} or {@link #INT}
+     * @throws IOException if the header cannot be written.
+     */
+    public BinaryTraceWriter(OutputStream out, List<String> names, byte[] types) throws IOException {
+        if (names.size() != types.length)
+            throw new IllegalArgumentException("The number of column names " + names.size() +
+                    " does not match the number of column types " + types.length + " !");
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.types = types.clone();
+        this.values = new double[types.length][BLOCK_ROWS];
+
+        this.out.write(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeInt(names.size());
+        for (int c = 0; c < names.size(); c++) {
+            if (types[c] != DOUBLE && types[c] != INT)
+                throw new IllegalArgumentException("Unknown type " + (char) types[c] + " of column " + names.get(c));
+            this.out.writeUTF(names.get(c));
+            this.out.writeByte(types[c]);
+        }
+        this.out.flush();
+    }
+
+    /**
+     * @param sample  the sample number
+     * @param row     the value of every column, where the values of {@link #INT} columns are cast to int.
+     * @throws IOException if the block cannot be written.
+     */
+    public void write(long sample, double[] row) throws IOException {
+        if (row.length != types.length)
+            throw new IllegalArgumentException("The row has " + row.length + " values, but there are " +
+                    types.length + " columns !");
+        samples[rows] = sample;
+        for (int c = 0; c < row.length; c++)
+            values[c][rows] = row[c];
+        rows++;
+        if (rows == BLOCK_ROWS)
+            writeBlock();
+    }
+
+    private void writeBlock() throws IOException {
+        if (rows == 0)
+            return;
+        block.reset();
+        deflater.reset();
+        DeflaterOutputStream deflated = new DeflaterOutputStream(block, deflater);
+        DataOutputStream blockOut = new DataOutputStream(new BufferedOutputStream(deflated));
+        for (int r = 0; r < rows; r++)
+            blockOut.writeLong(samples[r]);
+        for (int c = 0; c < types.length; c++) {
+            for (int r = 0; r < rows; r++) {
+                if (types[c] == INT)
+                    blockOut.writeInt((int) values[c][r]);
+                else
+                    blockOut.writeDouble(values[c][r]);
+            }
+        }
+        // finish the deflater, but not close the block
+        blockOut.flush();
+        deflated.finish();
+
+        out.writeInt(rows);
+        out.writeInt(block.size());
+        block.writeTo(out);
+        out.flush();
+        rows = 0;
+    }
+
+    /**
+     * Write the last block and close the output stream.
+     * @throws IOException if the block cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBlock();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,224 @@
+package lphybeast.inference;
+
+import beast.base.core.BEASTInterface;
+import beast.base.core.Description;
+import beast.base.core.Function;
+import beast.base.core.Input;
+import beast.base.core.Input.Validate;
+import beast.base.core.Log;
+import beast.base.inference.Logger;
+import beast.base.inference.MCMC;
+import beast.base.inference.util.ESS;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The MCMC stopping once the ESS of the posterior and the given functions reach the target,
+ * or the chain length is reached, which is then the maximum length.
+ * The traces are kept in memory at the current log interval, starting from the smallest
+ * interval of file loggers. Whenever a trace has twice the requested samples,
+ * every other sample is dropped and the log interval is doubled, so the loggers only log
+ * at the multiples of the current interval. After the run, the log files are thinned
+ * to the final interval, so that they have between the requested samples and twice as many.
+ * The ESS is calculated after discarding the first 10% of the traces as burn-in,
+ * and only checked once the traces have the requested samples.
+ */
+@Description("MCMC stopping when the ESS of the posterior and the given functions reach the target")
+public class ESSTargetMCMC extends MCMC {
+
+    final public Input<Double> essTargetInput = new Input<>("essTarget",
+            "the minimum ESS of the posterior and every function to stop the chain", Validate.REQUIRED);
+    final public Input<List<Function>> functionsInput = new Input<>("function",
+            "the functions whose ESS of every dimension must reach the target, besides the posterior",
+            new ArrayList<>());
+    final public Input<Integer> samplesInput = new Input<>("samples",
+            "the number of samples roughly in the final logs", 2000);
+
+    // the ESS is checked after every this number of new samples in the traces
+    private static final int CHECK_EVERY_SAMPLES = 50;
+    private static final double BURN_IN = 0.1;
+    private static final String TREE_PREFIX = "tree STATE_";
+
+    private long logEvery;
+    private List<String> traceNames;
+    private double[][] traces;
+    private int sampleCount;
+    private int samplesSinceCheck;
+    private double[] lastESS;
+
+    @Override
+    public void initAndValidate() {
+        super.initAndValidate();
+        if (essTargetInput.get() <= 0)
+            throw new IllegalArgumentException("The ESS target must be > 0 ! " + essTargetInput.get());
+        if (samplesInput.get() < 2)
+            throw new IllegalArgumentException("The number of samples must be >= 2 ! " + samplesInput.get());
+
+        traceNames = new ArrayList<>();
+        traceNames.add("posterior");
+        for (Function function : functionsInput.get()) {
+            String id = function instanceof BEASTInterface b && b.getID() != null ?
+                    b.getID() : function.getClass().getSimpleName();
+            for (int i = 0; i < function.getDimension(); i++)
+                traceNames.add(function.getDimension() > 1 ? id + "." + (i + 1) : id);
+        }
+    }
+
+    @Override
+    protected void doLoop() throws IOException {
+        logEvery = Long.MAX_VALUE;
+        for (Logger logger : loggersInput.get()) {
+            if (!logger.isLoggingToStdout())
+                logEvery = Math.min(logEvery, logger.everyInput.get());
+        }
+        if (logEvery == Long.MAX_VALUE)
+            logEvery = Math.max(1, chainLength / samplesInput.get());
+        traces = new double[traceNames.size()][2 * samplesInput.get()];
+        sampleCount = 0;
+        samplesSinceCheck = 0;
+        lastESS = new double[traceNames.size()];
+
+        super.doLoop();
+
+        Log.info.println("Stop at sample " + chainLength + " with the log interval " + logEvery +
+                ", ESS " + getESSString());
+    }
+
+    @Override
+    public void log(final long sampleNr) {
+        if (sampleNr < 0 || sampleNr % logEvery != 0)
+            return;
+        super.log(sampleNr);
+
+        // the posterior of the current state
+        traces[0][sampleCount] = oldLogLikelihood;
+        int t = 1;
+        for (Function function : functionsInput.get()) {
+            for (int i = 0; i < function.getDimension(); i++)
+                traces[t++][sampleCount] = function.getArrayValue(i);
+        }
+        sampleCount++;
+        samplesSinceCheck++;
+
+        // not stop before the logs have the requested samples
+        if (sampleCount >= samplesInput.get() && samplesSinceCheck >= CHECK_EVERY_SAMPLES && isTargetReached()) {
+            // doLoop stops after this sample
+            chainLength = sampleNr;
+            return;
+        }
+        if (sampleCount == traces[0].length)
+            doubleLogEvery();
+    }
+
+    // keep every other sample
+    private void doubleLogEvery() {
+        for (double[] trace : traces) {
+            for (int i = 0; i < sampleCount / 2; i++)
+                trace[i] = trace[2 * i];
+        }
+        // samples at 0, 2, 4, ...
+        sampleCount = (sampleCount + 1) / 2;
+        logEvery *= 2;
+    }
+
+    private boolean isTargetReached() {
+        samplesSinceCheck = 0;
+        final int burnIn = (int) (sampleCount * BURN_IN);
+        final int n = sampleCount - burnIn;
+        boolean reached = n >= 2;
+        for (int t = 0; t < traces.length; t++) {
+            Double[] trace = new Double[n];
+            for (int i = 0; i < n; i++)
+                trace[i] = traces[t][burnIn + i];
+            lastESS[t] = n < 2 ? 0 : ESS.calcESS(trace, 1);
+            if (!(lastESS[t] >= essTargetInput.get()))
+                reached = false;
+        }
+        return reached;
+    }
+
+    private String getESSString() {
+        StringBuilder sb = new StringBuilder();
+        for (int t = 0; t < traceNames.size(); t++)
+            sb.append(t > 0 ? ", " : "").append(traceNames.get(t)).append(" = ")
+                    .append(String.format("%.1f", lastESS[t]));
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Logger logger : loggersInput.get()) {
+            if (logger.isLoggingToStdout())
+                continue;
+            String fileName = logger.fileNameInput.get();
+            if (System.getProperty("file.name.prefix") != null)
+                fileName = System.getProperty("file.name.prefix") + fileName;
+            try {
+                if (logger instanceof BinaryTraceLogger)
+                    BinaryTraceLogger.thinLog(Path.of(fileName), logEvery);
+                else
+                    thinLog(Path.of(fileName), logEvery);
+            } catch (IOException e) {
+                Log.warning.println("Cannot thin the log " + fileName + " : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Keep the samples at the multiples of the interval in the log,
+     * which is a trace log whose lines start with the sample number,
+     * or a tree log whose trees are named by STATE_ and the sample number.
+     * @param path      the log file
+     * @param interval  the log interval
+     * @throws IOException if the file cannot be read or written.
+     */
+    public static void thinLog(Path path, long interval) throws IOException {
+        List<String> lines = Files.readAllLines(path);
+        List<String> thinned = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            long sample = getSample(line);
+            if (sample < 0 || sample % interval == 0)
+                thinned.add(line);
+        }
+        if (thinned.size() < lines.size())
+            Files.write(path, thinned);
+    }
+
+    // the sample number of a line in the log, or -1 if it is not a sample, e.g. the header or taxa of trees
+    private static long getSample(String line) {
+        String token = line;
+        // the sample in a trace log is followed by a tab
+        char separator = '\t';
+        if (line.startsWith(TREE_PREFIX)) {
+            token = line.substring(TREE_PREFIX.length());
+            separator = ' ';
+        }
+        int end = 0;
+        while (end < token.length() && Character.isDigit(token.charAt(end)))
+            end++;
+        if (end == 0 || end == token.length() || token.charAt(end) != separator)
+            return -1;
+        return Long.parseLong(token.substring(0, end));
+    }
+
+    /**
+     * @return  the names of traces, which are the posterior and the dimensions of the functions.
+     */
+    public List<String> getTraceNames() {
+        return traceNames;
+    }
+
+    /**
+     * @return  the last ESS of the traces, which are in the order of {@link #getTraceNames()}.
+     */
+    public double[] getESS() {
+        return Arrays.copyOf(lastESS, lastESS.length);
+    }
+
+}
@@ -0,0 +1,101 @@
+package lphybeast.inference;
+
+import beast.base.core.ProgramStatus;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.Distribution;
+import beast.base.inference.Logger;
+import beast.base.inference.MCMC;
+import beast.base.util.Randomizer;
+import coupledMCMC.CoupledMCMC;
+import lphy.core.logger.LoggerUtils;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Run the MCMC created for the XML in-process, given by --run,
+ * in the same way as BEAST runs the MCMC after parsing the XML.
+ */
+public final class InProcessRunner {
+
+    private InProcessRunner() {
+    }
+
+    /**
+     * As BEAST runs from the directory of the XML, the logs and state file are written next to the XML,
+     * and the existing logs are overwritten as the XML.
+     * @param mcmc     the validated MCMC or MC3
+     * @param xmlPath  the XML file path, which gives the directory and the name of the state file.
+     * @param seed     the seed of BEAST, which is not set if null.
+     * @throws IOException if the logs or state file cannot be written.
+     */
+    public static void run(MCMC mcmc, Path xmlPath, Long seed) throws IOException {
+        if (seed != null)
+            Randomizer.setSeed(seed);
+        excludeLikelihood(mcmc);
+
+        final String prefix = System.getProperty("file.name.prefix");
+        final Logger.LogFileMode fileMode = Logger.FILE_MODE;
+        Path dir = xmlPath.toAbsolutePath().getParent();
+        System.setProperty("file.name.prefix", dir + File.separator);
+        Logger.FILE_MODE = Logger.LogFileMode.overwrite;
+        try {
+            mcmc.setStateFile(xmlPath.getFileName() + ".state", false);
+            LoggerUtils.log.info("Run " + mcmc.getClass().getSimpleName() + " in-process, " +
+                    "where the logs are written to " + dir + (seed == null ? "" : ", seed = " + seed));
+            mcmc.run();
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("Fail to run MCMC in-process : " + e.getMessage(), e);
+        } finally {
+            if (prefix == null)
+                System.clearProperty("file.name.prefix");
+            else
+                System.setProperty("file.name.prefix", prefix);
+            Logger.FILE_MODE = fileMode;
+        }
+    }
+
+    /**
+     * MCMC removes the likelihood from the posterior in initAndValidate when sampling from the prior,
+     * but sampleFromPrior is set after the MCMC is validated, so that the likelihood is still in the XML.
+     * So remove it here, as BEAST does after parsing the XML. MC3 is skipped,
+     * because it creates its chains from the XML of itself when it runs, and they remove the likelihood.
+     * @param mcmc  the validated MCMC
+     * @return  true if the likelihood is removed from the posterior.
+     */
+    static boolean excludeLikelihood(MCMC mcmc) {
+        if (!mcmc.sampleFromPriorInput.get() || mcmc instanceof CoupledMCMC)
+            return false;
+        if (mcmc.posteriorInput.get() instanceof CompoundDistribution posterior) {
+            for (Distribution distribution : posterior.pDistributions.get()) {
+                if (ProfilingMCMC.LIKELIHOOD_ID.equals(distribution.getID())) {
+                    posterior.pDistributions.get().remove(distribution);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Set the threads of BEAST, given by --cores, which must be before the tree likelihoods are validated,
+     * because they take their threads then. The threads are process-wide in BEAST,
+     * and shared by the jobs running in parallel, so they are only increased, never reduced.
+     * @param threads  the number of threads, as -threads of BEAST.
+     */
+    public static synchronized void setThreads(int threads) {
+        if (threads <= ProgramStatus.m_nThreads)
+            return;
+        ExecutorService previous = ProgramStatus.g_exec;
+        ProgramStatus.m_nThreads = threads;
+        ProgramStatus.g_exec = Executors.newFixedThreadPool(threads);
+        // the running tasks are not interrupted
+        previous.shutdown();
+    }
+
+}
@@ -0,0 +1,98 @@
+package lphybeast.inference;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.core.Input;
+import beast.base.core.Loggable;
+import beast.base.inference.Operator;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Log the performance of the MCMC: the wall time of each logged interval,
+ * the cumulative calls of each operator, the used and committed heap of JVM,
+ * and the cumulative count and time of garbage collections.
+ * If the MCMC is {@link ProfilingMCMC}, then also log the cumulative time of each operator,
+ * and the evaluations of the posterior, likelihood and prior.
+ */
+@Description("Log the wall time, operator calls and time, posterior evaluations, and JVM heap and GC of the MCMC")
+public class PerformanceLogger extends BEASTObject implements Loggable {
+
+    final public Input<List<Operator>> operatorsInput = new Input<>("operator",
+            "operators whose calls are logged", new ArrayList<>());
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private ProfilingMCMC profile = null;
+    private long lastNanos;
+
+    @Override
+    public void initAndValidate() {
+    }
+
+    /**
+     * @param profile  the MCMC measuring the time of operators and the evaluations of the posterior
+     */
+    void setProfile(ProfilingMCMC profile) {
+        this.profile = profile;
+    }
+
+    @Override
+    public void init(PrintStream out) {
+        lastNanos = System.nanoTime();
+        out.print("wallSeconds\t");
+        for (Operator operator : operatorsInput.get()) {
+            String id = getID(operator);
+            out.print(id + ".calls\t");
+            if (profile != null)
+                out.print(id + ".seconds\t");
+        }
+        if (profile != null)
+            out.print("posterior.evaluations\tlikelihood.evaluations\tprior.evaluations\tposterior.seconds\t");
+        out.print("heapUsedMB\theapCommittedMB\tgcCount\tgcSeconds\t");
+    }
+
+    @Override
+    public void log(long sample, PrintStream out) {
+        final long now = System.nanoTime();
+        out.print((now - lastNanos) / NANOS_PER_SECOND + "\t");
+        lastNanos = now;
+        for (Operator operator : operatorsInput.get()) {
+            if (profile != null) {
+                out.print(profile.getCalls(operator) + "\t");
+                out.print(profile.getNanos(operator) / NANOS_PER_SECOND + "\t");
+            } else
+                out.print((operator.get_m_nNrAccepted() + operator.get_m_nNrRejected()) + "\t");
+        }
+        if (profile != null) {
+            out.print(profile.getPosteriorEvaluations() + "\t" + profile.getLikelihoodEvaluations() + "\t" +
+                    profile.getPriorEvaluations() + "\t" + profile.getPosteriorNanos() / NANOS_PER_SECOND + "\t");
+        }
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            // -1 if undefined
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcMillis += Math.max(0, gc.getCollectionTime());
+        }
+        out.print(heap.getUsed() / BYTES_PER_MB + "\t" + heap.getCommitted() / BYTES_PER_MB + "\t" +
+                gcCount + "\t" + gcMillis / 1000.0 + "\t");
+    }
+
+    @Override
+    public void close(PrintStream out) {
+    }
+
+    private String getID(Operator operator) {
+        return operator.getID() == null ? operator.getClass().getSimpleName() : operator.getID();
+    }
+
+}
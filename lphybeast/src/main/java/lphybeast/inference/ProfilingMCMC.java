@@ -0,0 +1,187 @@
+package lphybeast.inference;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Description;
+import beast.base.inference.*;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The MCMC measuring the calls and time of each operator, including the recalculation
+ * of the posterior it triggers but not the loggers, and counting the evaluations of the posterior,
+ * likelihood and prior, which are logged by {@link PerformanceLogger}.
+ * The likelihood and prior are the distributions in the posterior with the IDs
+ * "likelihood" and "prior", and are counted when they are recalculated.
+ */
+@Description("MCMC measuring the time of operators and the evaluations of the posterior for PerformanceLogger")
+public class ProfilingMCMC extends MCMC {
+
+    public static final String LIKELIHOOD_ID = "likelihood";
+    public static final String PRIOR_ID = "prior";
+
+    // operator -> {calls, nanoseconds}
+    private final Map<Operator, long[]> operatorStats = new IdentityHashMap<>();
+    private long posteriorEvaluations = 0;
+    private long likelihoodEvaluations = 0;
+    private long priorEvaluations = 0;
+    private long posteriorNanos = 0;
+    private long loggingNanos = 0;
+
+    @Override
+    public void initAndValidate() {
+        super.initAndValidate();
+        for (Logger logger : loggersInput.get()) {
+            for (BEASTObject loggable : logger.loggersInput.get()) {
+                if (loggable instanceof PerformanceLogger performanceLogger)
+                    performanceLogger.setProfile(this);
+            }
+        }
+    }
+
+    @Override
+    protected void doLoop() throws IOException {
+        Distribution original = posterior;
+        posterior = new TimedPosterior(original);
+        try {
+            super.doLoop();
+        } finally {
+            posterior = original;
+        }
+    }
+
+    @Override
+    protected Operator propagateState(final long sampleNr) {
+        final long start = System.nanoTime();
+        final long logged = loggingNanos;
+        Operator operator = super.propagateState(sampleNr);
+        long[] stats = operatorStats.computeIfAbsent(operator, k -> new long[2]);
+        stats[0]++;
+        // MCMC logs the sample at the end of propagateState
+        stats[1] += System.nanoTime() - start - (loggingNanos - logged);
+        return operator;
+    }
+
+    @Override
+    public void log(final long sampleNr) {
+        final long start = System.nanoTime();
+        super.log(sampleNr);
+        loggingNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * @param operator  the operator
+     * @return  the number of proposals of this operator, including pre-burnin.
+     */
+    public long getCalls(Operator operator) {
+        long[] stats = operatorStats.get(operator);
+        return stats == null ? 0 : stats[0];
+    }
+
+    /**
+     * @param operator  the operator
+     * @return  the cumulative time in nanoseconds of the proposals of this operator,
+     *          including the recalculation of the posterior.
+     */
+    public long getNanos(Operator operator) {
+        long[] stats = operatorStats.get(operator);
+        return stats == null ? 0 : stats[1];
+    }
+
+    public long getPosteriorEvaluations() {
+        return posteriorEvaluations;
+    }
+
+    public long getLikelihoodEvaluations() {
+        return likelihoodEvaluations;
+    }
+
+    public long getPriorEvaluations() {
+        return priorEvaluations;
+    }
+
+    /**
+     * @return  the cumulative time in nanoseconds of the evaluations of the posterior.
+     */
+    public long getPosteriorNanos() {
+        return posteriorNanos;
+    }
+
+    /**
+     * @return  the cumulative time in nanoseconds of the loggers, which is not in the time of operators.
+     */
+    public long getLoggingNanos() {
+        return loggingNanos;
+    }
+
+    // counts the dirty likelihood and prior before they are recalculated, and times the posterior
+    private class TimedPosterior extends Distribution {
+
+        private final Distribution posterior;
+        private Distribution likelihood = null;
+        private Distribution prior = null;
+
+        TimedPosterior(Distribution posterior) {
+            this.posterior = posterior;
+            if (posterior instanceof CompoundDistribution compound) {
+                for (Distribution distribution : compound.pDistributions.get()) {
+                    if (LIKELIHOOD_ID.equals(distribution.getID()))
+                        likelihood = distribution;
+                    else if (PRIOR_ID.equals(distribution.getID()))
+                        prior = distribution;
+                }
+            }
+        }
+
+        @Override
+        public void initAndValidate() {
+        }
+
+        @Override
+        public double calculateLogP() {
+            if (likelihood != null && likelihood.isDirtyCalculation())
+                likelihoodEvaluations++;
+            if (prior != null && prior.isDirtyCalculation())
+                priorEvaluations++;
+            final long start = System.nanoTime();
+            logP = posterior.calculateLogP();
+            posteriorNanos += System.nanoTime() - start;
+            posteriorEvaluations++;
+            return logP;
+        }
+
+        @Override
+        public double getCurrentLogP() {
+            return posterior.getCurrentLogP();
+        }
+
+        @Override
+        public boolean isStochastic() {
+            return posterior.isStochastic();
+        }
+
+        @Override
+        public double getNonStochasticLogP() {
+            return posterior.getNonStochasticLogP();
+        }
+
+        @Override
+        public List<String> getArguments() {
+            return posterior.getArguments();
+        }
+
+        @Override
+        public List<String> getConditions() {
+            return posterior.getConditions();
+        }
+
+        @Override
+        public void sample(State state, Random random) {
+            posterior.sample(state, random);
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package lphybeast.tobeast;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.datatype.DataType;
+
+/**
+ * The ambiguities of a BEAST alignment counted over its site patterns and weights,
+ * which decides whether the tree likelihood needs to use ambiguities.
+ * The unknown state and gap map to all states, so they have the same likelihood
+ * without using ambiguities. Only the partially ambiguous states, e.g. 'R' for nucleotide,
+ * require the partials of tips.
+ */
+public class AlignmentProfile {
+
+    private final long stateCount;
+    private final long ambiguousStates;
+    private final long unknownStates;
+    private final long unknownSites;
+    private final int missingTaxa;
+
+    private AlignmentProfile(long stateCount, long ambiguousStates, long unknownStates,
+                             long unknownSites, int missingTaxa) {
+        this.stateCount = stateCount;
+        this.ambiguousStates = ambiguousStates;
+        this.unknownStates = unknownStates;
+        this.unknownSites = unknownSites;
+        this.missingTaxa = missingTaxa;
+    }
+
+    /**
+     * @param alignment  the initialised alignment
+     * @return  the profile of the states in the alignment.
+     */
+    public static AlignmentProfile profile(Alignment alignment) {
+        final DataType dataType = alignment.getDataType();
+        final int taxonCount = alignment.getTaxonCount();
+        long stateCount = 0;
+        long ambiguousStates = 0;
+        long unknownStates = 0;
+        long unknownSites = 0;
+        // if the taxon has any known state
+        boolean[] observed = new boolean[taxonCount];
+        for (int i = 0; i < alignment.getPatternCount(); i++) {
+            int weight = alignment.getPatternWeight(i);
+            if (weight < 1)
+                continue;
+            int[] pattern = alignment.getPattern(i);
+            int unknown = 0;
+            for (int t = 0; t < taxonCount; t++) {
+                int code = pattern[t];
+                if (isUnknown(dataType, code))
+                    unknown++;
+                else {
+                    observed[t] = true;
+                    if (dataType.isAmbiguousCode(code))
+                        ambiguousStates += weight;
+                }
+            }
+            stateCount += (long) weight * taxonCount;
+            unknownStates += (long) weight * unknown;
+            if (unknown == taxonCount)
+                unknownSites += weight;
+        }
+        int missingTaxa = 0;
+        for (boolean o : observed)
+            if (!o) missingTaxa++;
+        return new AlignmentProfile(stateCount, ambiguousStates, unknownStates, unknownSites, missingTaxa);
+    }
+
+    // the code mapping to all states, e.g. '?', '-' or 'N' for nucleotide
+    private static boolean isUnknown(DataType dataType, int code) {
+        return dataType.isAmbiguousCode(code) &&
+                dataType.getStatesForCode(code).length == dataType.getStateCount();
+    }
+
+    /**
+     * @return  if any state is ambiguous, but neither the unknown state nor gap,
+     *          then the tree likelihood should use ambiguities.
+     */
+    public boolean hasPartialAmbiguity() {
+        return ambiguousStates > 0;
+    }
+
+    /**
+     * @return  the number of partially ambiguous states over all sites.
+     */
+    public long getAmbiguousStates() {
+        return ambiguousStates;
+    }
+
+    /**
+     * @return  the number of unknown states or gaps over all sites.
+     */
+    public long getUnknownStates() {
+        return unknownStates;
+    }
+
+    /**
+     * @return  the number of sites only having unknown states or gaps.
+     */
+    public long getUnknownSites() {
+        return unknownSites;
+    }
+
+    /**
+     * @return  the number of taxa only having unknown states or gaps.
+     */
+    public int getMissingTaxa() {
+        return missingTaxa;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d ambiguous states (%.4f%%), %d unknown states or gaps (%.4f%%), " +
+                        "%d sites and %d taxa of only unknown states or gaps",
+                ambiguousStates, getFraction(ambiguousStates), unknownStates, getFraction(unknownStates),
+                unknownSites, missingTaxa);
+    }
+
+    private double getFraction(long count) {
+        return stateCount > 0 ? 100.0 * count / stateCount : 0;
+    }
+
+}
@@ -0,0 +1,152 @@
+package lphybeast.tobeast;
+
+import beast.base.evolution.datatype.DataType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Split an alignment into the variable sites and the counts of constant sites per state,
+ * which are the inputs "data" and "constantSiteWeights" of
+ * {@link beast.base.evolution.alignment.FilteredAlignment}.
+ * Only the constant sites of a canonical state are counted, so that the likelihood
+ * is the same as the original alignment, unless the unknown state and gap are ignored.
+ * The sites are compared by the BEAST codes of the characters, where each state is one character.
+ */
+public class ConstantSites {
+
+    private final String[] variableSequences;
+    private final int[] weights;
+    private final int siteCount;
+    private final boolean partialAmbiguity;
+
+    private ConstantSites(String[] variableSequences, int[] weights, int siteCount, boolean partialAmbiguity) {
+        this.variableSequences = variableSequences;
+        this.weights = weights;
+        this.siteCount = siteCount;
+        this.partialAmbiguity = partialAmbiguity;
+    }
+
+    /**
+     * @param sequences      the sequences of all taxa, which must have the same length
+     * @param dataType       BEAST data type to decode the characters
+     * @param ignoreUnknown  if true, a site is also constant when the other characters are
+     *                       the unknown state or gap, which is an approximation of the likelihood.
+     * @return  the variable sites and the weights of constant sites.
+     */
+    public static ConstantSites compress(String[] sequences, DataType dataType, boolean ignoreUnknown) {
+        if (sequences.length < 1)
+            throw new IllegalArgumentException("The alignment must have at least one sequence !");
+        final int siteCount = sequences[0].length();
+        for (String seq : sequences)
+            if (seq.length() != siteCount)
+                throw new IllegalArgumentException("The sequences must have the same length to compress constant sites : " +
+                        seq.length() + " != " + siteCount);
+
+        final int stateCount = dataType.getStateCount();
+        Map<Character, Integer> codes = new HashMap<>();
+        int[] weights = new int[stateCount];
+        List<Integer> variableSites = new ArrayList<>();
+        boolean partialAmbiguity = false;
+        for (int site = 0; site < siteCount; site++) {
+            // -1 if only unknown states are found so far
+            int state = -1;
+            boolean constant = true;
+            for (String seq : sequences) {
+                int code = decode(codes, dataType, seq.charAt(site));
+                if (ignoreUnknown && isUnknown(dataType, code))
+                    continue;
+                if (code < 0 || code >= stateCount || (state >= 0 && code != state)) {
+                    constant = false;
+                    break;
+                }
+                state = code;
+            }
+            // the site only having unknown states or gaps is kept
+            if (constant && state >= 0)
+                weights[state]++;
+            else {
+                variableSites.add(site);
+                for (int t = 0; t < sequences.length && !partialAmbiguity; t++) {
+                    int code = decode(codes, dataType, sequences[t].charAt(site));
+                    partialAmbiguity = code >= stateCount && !isUnknown(dataType, code);
+                }
+            }
+        }
+
+        String[] variableSequences = new String[sequences.length];
+        for (int t = 0; t < sequences.length; t++) {
+            StringBuilder sb = new StringBuilder(variableSites.size());
+            for (int site : variableSites)
+                sb.append(sequences[t].charAt(site));
+            variableSequences[t] = sb.toString();
+        }
+        return new ConstantSites(variableSequences, weights, siteCount, partialAmbiguity);
+    }
+
+    // cache the code of each character
+    private static int decode(Map<Character, Integer> codes, DataType dataType, char ch) {
+        return codes.computeIfAbsent(ch, c -> dataType.stringToEncoding(String.valueOf(c)).get(0));
+    }
+
+    // the code mapping to all states, e.g. '?', '-' or 'N' for nucleotide
+    private static boolean isUnknown(DataType dataType, int code) {
+        return dataType.isAmbiguousCode(code) &&
+                dataType.getStatesForCode(code).length == dataType.getStateCount();
+    }
+
+    /**
+     * @return  the sequences of variable sites, in the same order of taxa.
+     */
+    public String[] getVariableSequences() {
+        return variableSequences;
+    }
+
+    /**
+     * @return  the number of constant sites of each state, in the order of the data type.
+     */
+    public int[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return  the weights split by ' ', which is the format of IntegerParameter.
+     */
+    public String getWeightsString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < weights.length; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(weights[i]);
+        }
+        return sb.toString();
+    }
+
+    public int getConstantSiteCount() {
+        int sum = 0;
+        for (int w : weights)
+            sum += w;
+        return sum;
+    }
+
+    public int getVariableSiteCount() {
+        return siteCount - getConstantSiteCount();
+    }
+
+    /**
+     * @return  if the variable sites have any ambiguous state which is neither the unknown state nor gap,
+     *          e.g. 'R' for nucleotide, whose likelihood depends on the tree likelihood using ambiguities.
+     */
+    public boolean hasPartialAmbiguity() {
+        return partialAmbiguity;
+    }
+
+    /**
+     * @return  the number of sites in the original alignment.
+     */
+    public int getSiteCount() {
+        return siteCount;
+    }
+
+}
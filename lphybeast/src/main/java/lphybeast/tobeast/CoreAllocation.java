@@ -0,0 +1,113 @@
+package lphybeast.tobeast;
+
+import java.util.Arrays;
+
+/**
+ * Allocate a budget of cores to the likelihoods of partitions,
+ * which are run in parallel by the likelihood CompoundDistribution,
+ * and then to the threads inside each ThreadedTreeLikelihood given its pattern count,
+ * so that the total number of threads does not exceed the budget.
+ * Every partition has at least 1 thread, and the spare cores are given one by one
+ * to the partition having the most patterns per thread.
+ */
+public class CoreAllocation {
+
+    /**
+     * A thread of ThreadedTreeLikelihood is not worth creating for fewer patterns than this.
+     */
+    public static final int MIN_PATTERNS_PER_THREAD = 500;
+
+    private final int cores;
+    private final int partitionThreads;
+    private final int[] threads;
+    private final int[] patternCounts;
+
+    private CoreAllocation(int cores, int partitionThreads, int[] threads, int[] patternCounts) {
+        this.cores = cores;
+        this.partitionThreads = partitionThreads;
+        this.threads = threads;
+        this.patternCounts = patternCounts;
+    }
+
+    /**
+     * @param cores          the number of cores, >= 1
+     * @param patternCounts  the number of patterns of each partition
+     * @param threadable     if the likelihood of each partition can use multiple threads
+     * @return  the threads of partitions and the threads inside each partition.
+     */
+    public static CoreAllocation allocate(int cores, int[] patternCounts, boolean[] threadable) {
+        if (cores < 1)
+            throw new IllegalArgumentException("The number of cores must be >= 1 ! " + cores);
+        if (patternCounts.length != threadable.length)
+            throw new IllegalArgumentException("The pattern counts and threadable flags must have the same length !");
+        final int n = patternCounts.length;
+
+        int[] threads = new int[n];
+        Arrays.fill(threads, 1);
+        // more partitions than cores, then only run partitions in parallel
+        int spare = cores - n;
+        while (spare > 0) {
+            int best = -1;
+            double bestLoad = 0;
+            for (int i = 0; i < n; i++) {
+                // every thread must have enough patterns
+                if (threadable[i] && (long) (threads[i] + 1) * MIN_PATTERNS_PER_THREAD <= patternCounts[i]) {
+                    double load = (double) patternCounts[i] / threads[i];
+                    if (load > bestLoad) {
+                        best = i;
+                        bestLoad = load;
+                    }
+                }
+            }
+            if (best < 0)
+                break;
+            threads[best]++;
+            spare--;
+        }
+        return new CoreAllocation(cores, Math.min(n, cores), threads, patternCounts);
+    }
+
+    /**
+     * @return  the number of partitions whose likelihoods are calculated in parallel.
+     */
+    public int getPartitionThreads() {
+        return partitionThreads;
+    }
+
+    /**
+     * @return  the number of threads inside the likelihood of each partition.
+     */
+    public int[] getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return  the maximum number of threads running at the same time.
+     */
+    public int getTotalThreads() {
+        // the partitions having most threads may run together
+        int[] sorted = threads.clone();
+        Arrays.sort(sorted);
+        int total = 0;
+        for (int i = 0; i < partitionThreads; i++)
+            total += sorted[sorted.length - 1 - i];
+        return total;
+    }
+
+    /**
+     * @param ids  the IDs of partition likelihoods
+     * @return  the allocation in lines, which is written into XML as a comment.
+     */
+    public String toString(String[] ids) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Allocate ").append(cores).append(cores == 1 ? " core" : " cores").append(" to ")
+                .append(threads.length).append(threads.length == 1 ? " partition" : " partitions")
+                .append(", ").append(partitionThreads).append(" in parallel, ")
+                .append(getTotalThreads()).append(" threads at most :\n");
+        for (int i = 0; i < threads.length; i++)
+            sb.append("  ").append(ids[i]).append(" : ").append(patternCounts[i]).append(" patterns, ")
+                    .append(threads[i]).append(threads[i] == 1 ? " thread\n" : " threads\n");
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,108 @@
+package lphybeast.tobeast;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * The sequences of an alignment read from the integer states of its storage,
+ * which {@link lphybeast.BEASTXMLWriter} writes straight into the XML in chunks,
+ * instead of copying every sequence into the XML string created by {@link beast.base.parser.XMLProducer}.
+ * Each state is encoded as one character.
+ */
+public class EncodedSequences {
+
+    // the number of characters written at once
+    private static final int CHUNK_SIZE = 8192;
+
+    private final IntBinaryOperator states;
+    private final char[] codes;
+    private final int taxonCount;
+    private final int siteCount;
+
+    /**
+     * @param states      the state given the taxon index and site index, e.g. SimpleAlignment::getState
+     * @param codes       the character of each state, where the index is the state
+     * @param taxonCount  the number of taxa
+     * @param siteCount   the number of sites
+     */
+    public EncodedSequences(IntBinaryOperator states, char[] codes, int taxonCount, int siteCount) {
+        this.states = states;
+        this.codes = codes;
+        this.taxonCount = taxonCount;
+        this.siteCount = siteCount;
+    }
+
+    public int getTaxonCount() {
+        return taxonCount;
+    }
+
+    public int getSiteCount() {
+        return siteCount;
+    }
+
+    /**
+     * @return  the number of states, which are encoded by {@link #getCode(int)}.
+     */
+    public int getStateCount() {
+        return codes.length;
+    }
+
+    /**
+     * @param state  the state
+     * @return  the character of the state written into XML.
+     */
+    public char getCode(int state) {
+        return codes[state];
+    }
+
+    /**
+     * @param taxon  the taxon index
+     * @param site   the site index
+     * @return  the state, which has a character given by {@link #getCode(int)}.
+     */
+    public int getState(int taxon, int site) {
+        int state = states.applyAsInt(taxon, site);
+        if (state < 0 || state >= codes.length)
+            throw new IllegalArgumentException("No character for the state " + state +
+                    " at taxon " + taxon + " site " + site + " !");
+        return state;
+    }
+
+    /**
+     * This creates the string of the whole sequence, which should not be kept.
+     * @param taxon  the taxon index
+     * @return  the sequence of the taxon, as it is written into XML.
+     */
+    public String getSequence(int taxon) {
+        char[] seq = new char[siteCount];
+        for (int site = 0; site < siteCount; site++)
+            seq[site] = encode(taxon, site);
+        return new String(seq);
+    }
+
+    /**
+     * Write the sequence of the taxon in chunks, without creating the string of the whole sequence.
+     * @param taxon   the taxon index
+     * @param writer  the writer of XML
+     * @throws IOException  if the writer fails.
+     */
+    public void writeSequence(int taxon, Writer writer) throws IOException {
+        char[] buffer = new char[Math.min(CHUNK_SIZE, Math.max(1, siteCount))];
+        int n = 0;
+        for (int site = 0; site < siteCount; site++) {
+            buffer[n++] = encode(taxon, site);
+            if (n == buffer.length) {
+                writer.write(buffer, 0, n);
+                n = 0;
+            }
+        }
+        if (n > 0)
+            writer.write(buffer, 0, n);
+    }
+
+    private char encode(int taxon, int site) {
+        return codes[getState(taxon, site)];
+    }
+
+}
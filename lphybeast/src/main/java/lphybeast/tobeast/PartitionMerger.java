@@ -0,0 +1,176 @@
+package lphybeast.tobeast;
+
+import beast.base.core.BEASTInterface;
+import beast.base.core.Input;
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.alignment.Sequence;
+import beast.base.evolution.datatype.DataType;
+import beast.base.evolution.likelihood.GenericTreeLikelihood;
+import beast.base.evolution.likelihood.ThreadedTreeLikelihood;
+import beast.base.inference.Distribution;
+import beast.base.inference.StateNode;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Merge the partitions whose tree likelihoods have the identical model,
+ * i.e. the same tree, and equivalent site and branch rate models,
+ * into one alignment concatenating their sites, so that BEAST compresses
+ * the site patterns shared by these partitions, and calculates one likelihood.
+ * The merged likelihood equals the sum of the partition likelihoods.
+ * Only the plain {@link Alignment} without site weights, ascertainment or user data type is merged.
+ */
+public class PartitionMerger {
+
+    private final Predicate<StateNode> estimated;
+
+    /**
+     * @param estimated  if the state node is estimated, which has to be the same object in the models.
+     *                   Otherwise, the fixed parameters are compared by their values.
+     */
+    public PartitionMerger(Predicate<StateNode> estimated) {
+        this.estimated = estimated;
+    }
+
+    /**
+     * @param likelihoods  the likelihoods of partitions
+     * @return  the groups of tree likelihoods having the identical model, where each group has at least 2 likelihoods.
+     */
+    public List<List<GenericTreeLikelihood>> group(List<Distribution> likelihoods) {
+        List<List<GenericTreeLikelihood>> groups = new ArrayList<>();
+        for (Distribution dist : likelihoods) {
+            if (!(dist instanceof GenericTreeLikelihood treeLikelihood) || !isMergeable(treeLikelihood))
+                continue;
+            List<GenericTreeLikelihood> group = null;
+            for (List<GenericTreeLikelihood> g : groups) {
+                if (hasSameModel(g.get(0), treeLikelihood)) {
+                    group = g;
+                    break;
+                }
+            }
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(treeLikelihood);
+        }
+        groups.removeIf(g -> g.size() < 2);
+        return groups;
+    }
+
+    /**
+     * @param group  the tree likelihoods having the identical model
+     * @return  the tree likelihood of the merged alignment, whose inputs are set but not validated.
+     */
+    public static ThreadedTreeLikelihood merge(List<GenericTreeLikelihood> group) {
+        List<Alignment> alignments = group.stream().map(l -> l.dataInput.get()).toList();
+        Alignment mergedAlignment = mergeAlignments(alignments);
+
+        GenericTreeLikelihood first = group.get(0);
+        ThreadedTreeLikelihood merged = new ThreadedTreeLikelihood();
+        merged.setInputValue("data", mergedAlignment);
+        merged.setInputValue("tree", first.treeInput.get());
+        merged.setInputValue("siteModel", first.siteModelInput.get());
+        merged.setInputValue("branchRateModel", first.branchRateModelInput.get());
+        merged.setInputValue("useAmbiguities", first.getInput("useAmbiguities").get());
+        merged.setID(mergedAlignment.getID() + ".treeLikelihood");
+        return merged;
+    }
+
+    /**
+     * @param alignments  the alignments having the same taxa and data type
+     * @return  the alignment concatenating the sites of the alignments,
+     *          where the taxa are in the order of the first alignment.
+     */
+    public static Alignment mergeAlignments(List<Alignment> alignments) {
+        Alignment first = alignments.get(0);
+        DataType dataType = first.getDataType();
+        int siteCount = 0;
+        for (Alignment alignment : alignments)
+            siteCount += alignment.getSiteCount();
+
+        List<Sequence> sequences = new ArrayList<>();
+        int[] codes = new int[siteCount];
+        for (String taxon : first.getTaxaNames()) {
+            int s = 0;
+            // the sites are given by the patterns, which are valid whatever the values of sequences are
+            for (Alignment alignment : alignments) {
+                int t = alignment.getTaxonIndex(taxon);
+                for (int site = 0; site < alignment.getSiteCount(); site++)
+                    codes[s++] = alignment.getPattern(t, alignment.getPatternIndex(site));
+            }
+            sequences.add(new Sequence(taxon, dataType.encodingToString(codes)));
+        }
+
+        Alignment merged = new Alignment();
+        merged.setInputValue("sequence", sequences);
+        merged.setInputValue("dataType", first.dataTypeInput.get());
+        merged.initAndValidate();
+        merged.setID(String.join("_", alignments.stream().map(Alignment::getID).toList()));
+        return merged;
+    }
+
+    private boolean isMergeable(GenericTreeLikelihood treeLikelihood) {
+        Alignment alignment = treeLikelihood.dataInput.get();
+        // MappedAlignment, FilteredAlignment, ... have their own sites
+        return treeLikelihood.getClass() == ThreadedTreeLikelihood.class &&
+                alignment.getClass() == Alignment.class &&
+                alignment.siteWeightsInput.get() == null &&
+                alignment.userDataTypeInput.get() == null &&
+                !alignment.isAscertained &&
+                treeLikelihood.getInput("rootFrequencies").get() == null;
+    }
+
+    private boolean hasSameModel(GenericTreeLikelihood l1, GenericTreeLikelihood l2) {
+        Alignment a1 = l1.dataInput.get();
+        Alignment a2 = l2.dataInput.get();
+        return l1.treeInput.get() == l2.treeInput.get() &&
+                Objects.equals(a1.dataTypeInput.get(), a2.dataTypeInput.get()) &&
+                new HashSet<>(a1.getTaxaNames()).equals(new HashSet<>(a2.getTaxaNames())) &&
+                Objects.equals(l1.getInput("useAmbiguities").get(), l2.getInput("useAmbiguities").get()) &&
+                isEquivalent(l1.siteModelInput.get(), l2.siteModelInput.get()) &&
+                isEquivalent(l1.branchRateModelInput.get(), l2.branchRateModelInput.get());
+    }
+
+    /**
+     * The objects created separately for each likelihood, e.g. the site model or strict clock,
+     * are equivalent if they have the same class and equivalent inputs.
+     * The estimated state nodes have to be the same object.
+     */
+    boolean isEquivalent(Object o1, Object o2) {
+        if (o1 == o2)
+            return true;
+        if (o1 == null || o2 == null || o1.getClass() != o2.getClass())
+            return false;
+        if (o1 instanceof StateNode s1) {
+            StateNode s2 = (StateNode) o2;
+            if (estimated.test(s1) || estimated.test(s2) || s1.getDimension() != s2.getDimension())
+                return false;
+            // the fixed values, e.g. the parameter created for each clock model
+            for (int i = 0; i < s1.getDimension(); i++)
+                if (s1.getArrayValue(i) != s2.getArrayValue(i))
+                    return false;
+            return true;
+        }
+        if (o1 instanceof BEASTInterface b1) {
+            BEASTInterface b2 = (BEASTInterface) o2;
+            for (Map.Entry<String, Input<?>> entry : b1.getInputs().entrySet()) {
+                if (!isEquivalent(entry.getValue().get(), b2.getInput(entry.getKey()).get()))
+                    return false;
+            }
+            return true;
+        }
+        if (o1 instanceof List<?> list1) {
+            List<?> list2 = (List<?>) o2;
+            if (list1.size() != list2.size())
+                return false;
+            for (int i = 0; i < list1.size(); i++)
+                if (!isEquivalent(list1.get(i), list2.get(i)))
+                    return false;
+            return true;
+        }
+        return o1.equals(o2);
+    }
+
+}
@@ -0,0 +1,105 @@
+package lphybeast.tobeast;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The unique site patterns of an alignment and their weights, where each state is one character.
+ * It is used to create a pattern-compressed BEAST alignment, which has the same likelihood as
+ * the original alignment, but a much smaller XML, given the input "weights" of
+ * {@link beast.base.evolution.alignment.Alignment}.
+ * The patterns are kept in the order of their first sites, so that the XML is reproducible.
+ */
+public class SitePatterns {
+
+    private final String[] sequences;
+    private final int[] weights;
+    private final int siteCount;
+
+    private SitePatterns(String[] sequences, int[] weights, int siteCount) {
+        this.sequences = sequences;
+        this.weights = weights;
+        this.siteCount = siteCount;
+    }
+
+    /**
+     * @param sequences  the sequences of all taxa, which must have the same length
+     * @return  the unique site patterns and their weights.
+     */
+    public static SitePatterns compress(String[] sequences) {
+        if (sequences.length < 1)
+            throw new IllegalArgumentException("The alignment must have at least one sequence !");
+        final int siteCount = sequences[0].length();
+        for (String seq : sequences)
+            if (seq.length() != siteCount)
+                throw new IllegalArgumentException("The sequences must have the same length to compress site patterns : " +
+                        seq.length() + " != " + siteCount);
+
+        // pattern => index of unique patterns
+        Map<String, Integer> patternIndex = new HashMap<>();
+        // the first site of each unique pattern
+        List<Integer> firstSites = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        char[] column = new char[sequences.length];
+        for (int site = 0; site < siteCount; site++) {
+            for (int t = 0; t < sequences.length; t++)
+                column[t] = sequences[t].charAt(site);
+            Integer index = patternIndex.putIfAbsent(new String(column), firstSites.size());
+            if (index == null) {
+                firstSites.add(site);
+                counts.add(1);
+            } else
+                counts.set(index, counts.get(index) + 1);
+        }
+
+        String[] patterns = new String[sequences.length];
+        for (int t = 0; t < sequences.length; t++) {
+            StringBuilder sb = new StringBuilder(firstSites.size());
+            for (int site : firstSites)
+                sb.append(sequences[t].charAt(site));
+            patterns[t] = sb.toString();
+        }
+        int[] weights = counts.stream().mapToInt(Integer::intValue).toArray();
+        return new SitePatterns(patterns, weights, siteCount);
+    }
+
+    /**
+     * @return  the sequences of unique site patterns, in the same order of taxa.
+     */
+    public String[] getSequences() {
+        return sequences;
+    }
+
+    /**
+     * @return  the number of sites having each pattern.
+     */
+    public int[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return  the weights split by ',', which is the format of the input "weights" of BEAST alignment.
+     */
+    public String getWeightsString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < weights.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(weights[i]);
+        }
+        return sb.toString();
+    }
+
+    public int getPatternCount() {
+        return weights.length;
+    }
+
+    /**
+     * @return  the number of sites in the original alignment.
+     */
+    public int getSiteCount() {
+        return siteCount;
+    }
+
+}
@@ -2,6 +2,7 @@ package lphybeast.tobeast.generators;
 
 import beast.base.core.BEASTInterface;
 import beast.base.core.Function;
+import beast.base.evolution.alignment.FilteredAlignment;
 import beast.base.evolution.alignment.TaxonSet;
 import beast.base.evolution.branchratemodel.BranchRateModel;
 import beast.base.evolution.branchratemodel.StrictClockModel;
@@ -10,6 +11,7 @@ import beast.base.evolution.datatype.DataType;
 import beast.base.evolution.datatype.UserDataType;
 import beast.base.evolution.likelihood.GenericTreeLikelihood;
 import beast.base.evolution.likelihood.ThreadedTreeLikelihood;
+import beast.base.evolution.likelihood.TreeLikelihood;
 import beast.base.evolution.operator.AdaptableOperatorSampler;
 import beast.base.evolution.operator.Exchange;
 import beast.base.evolution.operator.kernel.BactrianScaleOperator;
@@ -41,6 +43,7 @@ import lphy.core.model.Value;
 import lphy.core.vectorization.IID;
 import lphybeast.BEASTContext;
 import lphybeast.GeneratorToBEAST;
+import lphybeast.tobeast.AlignmentProfile;
 import lphybeast.tobeast.loggers.TraitTreeLogger;
 import lphybeast.tobeast.operators.DefaultOperatorStrategy;
 import mutablealignment.MATreeLikelihood;
@@ -152,10 +155,23 @@ public class PhyloCTMCToBEAST implements GeneratorToBEAST<PhyloCTMC, GenericTree
             treeLikelihood = new MATreeLikelihood();
             treeLikelihood.setInputValue("useAmbiguities", false);
 
+        } else if (alignment.siteWeightsInput.get() != null) {
+            // the site patterns are compressed by AlignmentToBEAST,
+            // but ThreadedTreeLikelihood splits sites into FilteredAlignment, which forbids the site weights
+            treeLikelihood = new TreeLikelihood();
+            treeLikelihood.setInputValue("useAmbiguities", useAmbiguities(alignment));
+
+        } else if (alignment instanceof FilteredAlignment filteredAlignment &&
+                filteredAlignment.constantSiteWeightsInput.get() != null) {
+            // the constant sites are compressed by AlignmentToBEAST, where the variable sites have no partial ambiguity,
+            // and FilteredAlignment cannot give the tip likelihoods of constant sites if using ambiguities
+            treeLikelihood = new ThreadedTreeLikelihood();
+            treeLikelihood.setInputValue("useAmbiguities", false);
+
         } else {
             // normal Alignment
             treeLikelihood = new ThreadedTreeLikelihood();
-            treeLikelihood.setInputValue("useAmbiguities", true);
+            treeLikelihood.setInputValue("useAmbiguities", useAmbiguities(alignment));
         }
 
 
@@ -167,7 +183,8 @@ public class PhyloCTMCToBEAST implements GeneratorToBEAST<PhyloCTMC, GenericTree
 
         SiteModel siteModel = constructSiteModel(phyloCTMC, context);
         treeLikelihood.setInputValue("siteModel", siteModel);
-        treeLikelihood.initAndValidate();
+        // the partials are only allocated by BEAST, if the validation is deferred
+        context.initAndValidate(treeLikelihood);
         treeLikelihood.setID(alignment.getID() + ".treeLikelihood");
         // logging
         context.addExtraLoggable(treeLikelihood);
@@ -176,6 +193,16 @@ public class PhyloCTMCToBEAST implements GeneratorToBEAST<PhyloCTMC, GenericTree
     }
 
 
+    // the tip states are faster than the partials, and have the same likelihood
+    // if no state is partially ambiguous, e.g. no 'R' but only 'N' or '-' for nucleotide
+    private boolean useAmbiguities(beast.base.evolution.alignment.Alignment alignment) {
+        AlignmentProfile profile = AlignmentProfile.profile(alignment);
+        boolean useAmbiguities = profile.hasPartialAmbiguity();
+        LoggerUtils.log.info("Alignment " + alignment.getID() + " has " + profile + ", so the tree likelihood " +
+                (useAmbiguities ? "uses ambiguities in the partials of tips." : "uses the states of tips."));
+        return useAmbiguities;
+    }
+
     /**
      * Create tree and clock rate inside this tree likelihood.
      * @param phyloCTMC
@@ -8,6 +8,7 @@ import beast.base.evolution.tree.TreeInterface;
 import beast.base.evolution.tree.TreeStatLogger;
 import beast.base.inference.CompoundDistribution;
 import beast.base.inference.Logger;
+import beast.base.inference.Operator;
 import beast.base.inference.StateNode;
 import com.google.common.collect.Multimap;
 import lphy.base.evolution.coalescent.SkylineCoalescent;
@@ -16,6 +17,8 @@ import lphy.core.model.Generator;
 import lphy.core.model.GraphicalModelNode;
 import lphy.core.model.Value;
 import lphybeast.BEASTContext;
+import lphybeast.inference.BinaryTraceLogger;
+import lphybeast.inference.PerformanceLogger;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -87,9 +90,56 @@ public class LoggerFactory implements LoggerHelper {
             loggers.add(logger);
         }
 
+        // --binaryLog, replace the selected trace loggers
+        for (int i = 0; i < loggers.size(); i++) {
+            Logger logger = loggers.get(i);
+            if (logger.mode == Logger.LOGMODE.compound && context.getLPhyBeastConfig()
+                    .isBinaryLog(logger.fileNameInput.get(), logFileStem))
+                loggers.set(i, createBinaryLogger(logger));
+        }
+
         return loggers;
     }
 
+    /**
+     * @param logger  the trace logger
+     * @return  the {@link BinaryTraceLogger} logging the same loggables into the binary file *.bin,
+     *          which replaces the given logger in the context.
+     */
+    public Logger createBinaryLogger(Logger logger) {
+        BinaryTraceLogger binaryLogger = new BinaryTraceLogger();
+        binaryLogger.setInputValue("logEvery", logger.everyInput.get());
+        binaryLogger.setInputValue("log", new ArrayList<>(logger.loggersInput.get()));
+        binaryLogger.setInputValue("fileName", logger.fileNameInput.get() + BinaryTraceLogger.EXTENSION);
+        binaryLogger.initAndValidate();
+        binaryLogger.setID(logger.getID());
+        context.removeBEASTObject(logger);
+        context.getElements().put(binaryLogger, null);
+        return binaryLogger;
+    }
+
+    /**
+     * @param logEvery     Number of the samples logged
+     * @param logFileStem  the file stem of the performance log
+     * @param operators    the operators whose calls are logged
+     * @return  the logger of {@link PerformanceLogger} into *.perf.log, given by --perfLog.
+     */
+    public Logger createPerformanceLogger(long logEvery, String logFileStem, List<Operator> operators) {
+        PerformanceLogger performanceLogger = new PerformanceLogger();
+        performanceLogger.setInputValue("operator", operators);
+        performanceLogger.initAndValidate();
+        performanceLogger.setID("PerformanceLogger");
+
+        Logger logger = new Logger();
+        logger.setInputValue("logEvery", toIntExact(logEvery));
+        logger.setInputValue("log", performanceLogger);
+        logger.setInputValue("fileName", Objects.requireNonNull(logFileStem) + ".perf.log");
+        logger.initAndValidate();
+        logger.setID("PerformanceLog");
+        context.getElements().put(logger, null);
+        return logger;
+    }
+
     //*** default parameter/screen loggers ***//
 
     // screen logger if fileName is null
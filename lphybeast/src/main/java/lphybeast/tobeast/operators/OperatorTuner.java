@@ -0,0 +1,251 @@
+package lphybeast.tobeast.operators;
+
+import beast.base.core.BEASTInterface;
+import beast.base.inference.*;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tune the operator weights by a short pilot chain in-process,
+ * which measures the acceptance rate of each operator and its time per proposal,
+ * including the recalculation of the posterior it triggers.
+ * The weights are then scaled by the accepted moves per second of each operator
+ * relative to the whole chain, so that expensive operators rarely accepted,
+ * e.g. some tree moves on large trees, take less of the runtime.
+ * The scale is bounded in [1/{@link #MAX_FACTOR}, {@link #MAX_FACTOR}] to keep every operator,
+ * and the total weight is unchanged.
+ * The pilot shares the posterior, state and operators with the MCMC, so the state,
+ * the operator tuning and counters, the operator schedule of every operator,
+ * and the outputs of the shared objects are restored after the pilot,
+ * then the XML and the in-process run start from the same MCMC.
+ */
+public class OperatorTuner {
+
+    /**
+     * The maximum scale of an operator weight.
+     */
+    public static final double MAX_FACTOR = 4;
+    /**
+     * The operator proposed fewer times than this in the pilot keeps its weight.
+     */
+    public static final int MIN_PROPOSALS = 20;
+
+    private final long pilotLength;
+
+    private final List<Operator> operators = new ArrayList<>();
+    private long[] proposals;
+    private long[] accepted;
+    private long[] nanos;
+    private double[] oldWeights;
+    private double[] newWeights;
+
+    /**
+     * @param pilotLength  the chain length of the pilot run
+     */
+    public OperatorTuner(long pilotLength) {
+        if (pilotLength < 1)
+            throw new IllegalArgumentException("The pilot chain length must be > 0 ! " + pilotLength);
+        this.pilotLength = pilotLength;
+    }
+
+    /**
+     * Run the pilot chain of the posterior, state, operators and initialisers in this MCMC,
+     * and set the tuned weights into its operators.
+     * @param mcmc  the initialised MCMC or MC3, which is not run.
+     */
+    public void tune(MCMC mcmc) {
+        operators.clear();
+        operators.addAll(mcmc.operatorsInput.get());
+        final int n = operators.size();
+        State state = mcmc.startStateInput.get();
+        List<StateNode> stateNodes = state.stateNodeInput.get();
+        List<StateNode> copies = new ArrayList<>();
+        for (StateNode stateNode : stateNodes)
+            copies.add(stateNode.copy());
+        // the tuning and counters of operators, as they are stored into the state file
+        String[] operatorStates = new String[n];
+        for (int i = 0; i < n; i++)
+            operatorStates[i] = storeOperator(operators.get(i));
+
+        Distribution distribution = getDistribution(mcmc);
+        PilotMCMC pilot = new PilotMCMC();
+        pilot.setInputValue("distribution", distribution);
+        pilot.setInputValue("state", state);
+        pilot.setInputValue("operator", operators);
+        pilot.setInputValue("init", mcmc.initialisersInput.get());
+        pilot.setInputValue("chainLength", pilotLength);
+        File stateFile = null;
+        try {
+            // the pilot stores its state at the end
+            stateFile = Files.createTempFile("pilot", ".state").toFile();
+            pilot.setStateFile(stateFile.getAbsolutePath(), false);
+            pilot.initAndValidate();
+            pilot.run();
+        } catch (Exception e) {
+            throw new RuntimeException("The pilot run to tune operators failed : " + e.getMessage(), e);
+        } finally {
+            if (stateFile != null) {
+                stateFile.delete();
+                new File(stateFile.getAbsolutePath() + ".new").delete();
+            }
+            for (int i = 0; i < stateNodes.size(); i++)
+                stateNodes.get(i).assignFromWithoutID(copies.get(i));
+        }
+
+        proposals = new long[n];
+        accepted = new long[n];
+        nanos = new long[n];
+        oldWeights = new double[n];
+        OperatorSchedule schedule = mcmc.operatorScheduleInput.get();
+        for (int i = 0; i < n; i++) {
+            Operator operator = operators.get(i);
+            long[] stats = pilot.stats.getOrDefault(operator, new long[2]);
+            proposals[i] = stats[0];
+            nanos[i] = stats[1];
+            accepted[i] = operator.get_m_nNrAccepted();
+            oldWeights[i] = operator.getWeight();
+
+            restoreOperator(operator, operatorStates[i]);
+            accepted[i] -= operator.get_m_nNrAccepted();
+            // the pilot schedule was set by addOperator
+            operator.setOperatorSchedule(schedule);
+        }
+        detach(pilot);
+        if (distribution != mcmc.posteriorInput.get())
+            detach(distribution);
+
+        newWeights = reweight(oldWeights, proposals, accepted, nanos);
+        for (int i = 0; i < n; i++)
+            operators.get(i).setInputValue("weight", newWeights[i]);
+    }
+
+    private static String storeOperator(Operator operator) {
+        final String id = operator.getID();
+        StringWriter writer = new StringWriter();
+        operator.storeToFile(new PrintWriter(writer));
+        // the ID "unknown" is set if it is null
+        operator.setID(id);
+        return writer.toString();
+    }
+
+    private static void restoreOperator(Operator operator, String operatorState) {
+        try {
+            operator.restoreFromFile(new JSONObject(operatorState));
+        } catch (JSONException e) {
+            throw new RuntimeException("Cannot restore the operator " + operator.getID() + " after the pilot run !", e);
+        }
+    }
+
+    // the pilot objects are added into the outputs of the shared objects, when their inputs are set
+    private static void detach(BEASTInterface pilotObject) {
+        for (BEASTInterface input : pilotObject.listActiveBEASTObjects())
+            input.getOutputs().remove(pilotObject);
+    }
+
+    // sampling from the prior ignores the likelihood, which cannot be removed from the shared posterior,
+    // so the pilot uses a new compound distribution of the other distributions
+    private Distribution getDistribution(MCMC mcmc) {
+        Distribution posterior = mcmc.posteriorInput.get();
+        if (!mcmc.sampleFromPriorInput.get() || !(posterior instanceof CompoundDistribution compound))
+            return posterior;
+        List<Distribution> distributions = new ArrayList<>();
+        for (Distribution distribution : compound.pDistributions.get())
+            if (!"likelihood".equals(distribution.getID()))
+                distributions.add(distribution);
+        CompoundDistribution prior = new CompoundDistribution();
+        prior.initByName("distribution", distributions);
+        return prior;
+    }
+
+    /**
+     * @param weights    the weights of operators
+     * @param proposals  the number of proposals of each operator
+     * @param accepted   the number of accepted proposals of each operator
+     * @param nanos      the time of proposals of each operator in nanoseconds
+     * @return  the weights scaled by the accepted moves per second relative to the whole chain,
+     *          whose total is the same as the given weights.
+     */
+    public static double[] reweight(double[] weights, long[] proposals, long[] accepted, long[] nanos) {
+        final int n = weights.length;
+        long totalAccepted = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < n; i++) {
+            totalAccepted += accepted[i];
+            totalNanos += nanos[i];
+        }
+        double[] tuned = weights.clone();
+        if (totalAccepted < 1 || totalNanos < 1)
+            return tuned;
+        final double chainRate = (double) totalAccepted / totalNanos;
+
+        double oldTotal = 0;
+        double newTotal = 0;
+        for (int i = 0; i < n; i++) {
+            if (proposals[i] >= MIN_PROPOSALS && nanos[i] > 0) {
+                double rate = (double) accepted[i] / nanos[i];
+                double factor = Math.min(MAX_FACTOR, Math.max(1 / MAX_FACTOR, rate / chainRate));
+                tuned[i] = weights[i] * factor;
+            }
+            oldTotal += weights[i];
+            newTotal += tuned[i];
+        }
+        for (int i = 0; i < n; i++)
+            tuned[i] *= oldTotal / newTotal;
+        return tuned;
+    }
+
+    /**
+     * @return  the pilot statistics and weights of operators in lines, which are written into XML as a comment.
+     */
+    @Override
+    public String toString() {
+        if (newWeights == null)
+            return "The operators are not tuned.";
+        StringBuilder sb = new StringBuilder();
+        sb.append("Tune operator weights by a pilot chain of ").append(pilotLength).append(" samples :\n");
+        for (int i = 0; i < operators.size(); i++) {
+            double acceptance = proposals[i] > 0 ? (double) accepted[i] / proposals[i] : 0;
+            double micros = proposals[i] > 0 ? nanos[i] / 1000.0 / proposals[i] : 0;
+            sb.append(String.format("  %s : %d proposals, acceptance %.3f, %.1f us per proposal, weight %.4g -> %.4g\n",
+                    operators.get(i).getID(), proposals[i], acceptance, micros, oldWeights[i], newWeights[i]));
+        }
+        return sb.toString();
+    }
+
+    // times the proposal of each operator, and the recalculation of the posterior, but not the loggers
+    private static class PilotMCMC extends MCMC {
+
+        // operator -> {proposals, nanoseconds}
+        private final Map<Operator, long[]> stats = new IdentityHashMap<>();
+        private long loggingNanos = 0;
+
+        @Override
+        protected Operator propagateState(final long sampleNr) {
+            final long start = System.nanoTime();
+            final long logged = loggingNanos;
+            Operator operator = super.propagateState(sampleNr);
+            long[] s = stats.computeIfAbsent(operator, k -> new long[2]);
+            s[0]++;
+            // MCMC logs the sample at the end of propagateState
+            s[1] += System.nanoTime() - start - (loggingNanos - logged);
+            return operator;
+        }
+
+        @Override
+        public void log(final long sampleNr) {
+            final long start = System.nanoTime();
+            super.log(sampleNr);
+            loggingNanos += System.nanoTime() - start;
+        }
+    }
+
+}
@@ -1,26 +1,35 @@
 package lphybeast.tobeast.values;
 
+import beast.base.evolution.alignment.FilteredAlignment;
 import beast.base.evolution.alignment.Sequence;
 import beast.base.evolution.alignment.Taxon;
 import beast.base.evolution.alignment.TaxonSet;
 import beast.base.evolution.datatype.DataType;
 import beast.base.evolution.datatype.UserDataType;
 import beast.base.evolution.tree.TraitSet;
+import beast.base.inference.parameter.IntegerParameter;
 import beastclassic.evolution.alignment.AlignmentFromTrait;
 import jebl.evolution.sequences.SequenceType;
-import lphy.base.evolution.alignment.AlignmentUtils;
 import lphy.base.evolution.alignment.SimpleAlignment;
 import lphy.base.evolution.datatype.Standard;
 import lphy.core.logger.LoggerUtils;
 import lphy.core.model.Value;
 import lphybeast.BEASTContext;
+import lphybeast.BEASTXMLWriter;
+import lphybeast.LPhyBeastConfig;
 import lphybeast.ValueToBEAST;
+import lphybeast.evolution.alignment.MappedAlignment;
+import lphybeast.tobeast.ConstantSites;
 import lphybeast.tobeast.DataTypeUtils;
+import lphybeast.tobeast.EncodedSequences;
+import lphybeast.tobeast.SitePatterns;
 import mutablealignment.MutableAlignment;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class AlignmentToBEAST implements ValueToBEAST<SimpleAlignment, beast.base.evolution.alignment.Alignment> {
 
@@ -64,87 +73,174 @@ public class AlignmentToBEAST implements ValueToBEAST<SimpleAlignment, beast.bas
             DataType beastDataType = DataTypeUtils.getBEASTDataType(lphyDataType, context.getDataTypeMap());
             System.out.println("LPhy data type " + lphyDataType + " convert to BEAST data type " + beastDataType);
             // 2. nucleotide, protein, ...
-            // sequences
-            List<Sequence> sequences = new ArrayList<>();
-
-            int cca = context.getLPhyBeastConfig().compressConstantAlignment;
-            // 2.1 trigger get mark[], and check if compress constant sites
-            if (cca > 0) {
-
-                Map<Integer, Integer> counter = AlignmentUtils.
-                        getConstantSiteWeights(alignment, cca == 2);
-
-                // index is site, value is state, -1 is variable site
-//                int[] mark = alignment.getConstantSitesMark();
-//                if (alignment.hasConstantSite()) {
-//                    long consSiteNum =  Arrays.stream(mark).filter(m -> m != SimpleAlignment.VAR_SITE_STATE).count();
-//                    LoggerUtils.log.info("Discover " + consSiteNum + " constant sites.");
-//                    if (consSiteNum == alignment.nchar())
-//                        throw new RuntimeException("The alignment sites cannot be all constant ! " +
-//                                "constant sites " + consSiteNum + " == alignment sites " + alignment.nchar());
-//                }
-            }
+            // 2.0 given by -ss, the states are streamed from LPhy into BEAST alignment and XML,
+            // without creating the string of every sequence.
+            EncodedSequences encodedSequences = createStreamedSequences(alignmentValue, lphyDataType, beastDataType, context);
+            if (encodedSequences != null)
+                beastAlignment = createStreamedAlignment(alignmentValue, encodedSequences, beastDataType, context);
+            else
+                beastAlignment = createAlignment(alignmentValue, beastDataType, context);
+        }
 
-            for (int i = 0; i < taxaNames.length; i++) {
-                context.addTaxon(taxaNames[i]);
-                // 2.2 if not hasConstantSite(), this returns original sequence
-                // otherwise, constant sites are removed
-                String s = alignment.getSequenceVarSite(i);
-                if (s.length() < 1)
-                    throw new RuntimeException("The sequence length cannot < 1 ! Stop at taxon " + taxaNames[i]);
-                if ( alignment.hasConstantSite() && i==0 )
-                    LoggerUtils.log.info("Keep " + s.length() + " variable sites from the original " + alignment.nchar() + " sites.");
-                sequences.add(createBEASTSequence(taxaNames[i], s));
-            }
+        // using LPhy var as ID allows multiple alignments
+        if (!alignmentValue.isAnonymous()) beastAlignment.setID(alignmentValue.getCanonicalId());
 
-            // TODO check if this is this enough
-            if (!context.isObserved(alignmentValue)) {
-                // MutableAlignment
-                beastAlignment = new MutableAlignment();
-            } else // normal Alignment
-                beastAlignment = new beast.base.evolution.alignment.Alignment();
+        return beastAlignment;
+    }
 
-            beastAlignment.setInputValue("sequence", sequences);
+    private beast.base.evolution.alignment.Alignment createAlignment(Value<SimpleAlignment> alignmentValue,
+                                                                     DataType beastDataType, BEASTContext context) {
+        SimpleAlignment alignment = alignmentValue.value();
+        String[] taxaNames = alignment.getTaxaNames();
+        beast.base.evolution.alignment.Alignment beastAlignment;
+        // sequences
+        List<Sequence> sequences = new ArrayList<>();
+
+        String[] seqStrs = new String[taxaNames.length];
+        for (int i = 0; i < taxaNames.length; i++) {
+            context.addTaxon(taxaNames[i]);
+            // 2.1 the constant sites are not marked in LPhy, so this returns original sequence
+            String s = alignment.getSequenceVarSite(i);
+            if (s.length() < 1)
+                throw new RuntimeException("The sequence length cannot < 1 ! Stop at taxon " + taxaNames[i]);
+            seqStrs[i] = s;
+        }
 
-            // 3. morphological data, needs extra <userDataType section
-            if (beastDataType instanceof UserDataType) {
-                // StandardData.getTypeDescription()
-                beastAlignment.setInputValue("dataType", "standard");
-                //TODO add FilteredAlignment for standard data ?
-                beastAlignment.setInputValue("userDataType", beastDataType);
+        // 2.2 only keep variable sites, and count constant sites per state, which are added back by FilteredAlignment.
+        // https://www.beast2.org/2019/07/18/ascertainment-correction.html
+        int cca = context.getLPhyBeastConfig().compressConstantAlignment;
+        ConstantSites constantSites = null;
+        if (cca > 0) {
+            if (!context.isObserved(alignmentValue) || beastDataType instanceof UserDataType) {
+                LoggerUtils.log.warning("Cannot compress constant sites for the alignment " + alignmentValue.getId() +
+                        ", which is either sampled during MCMC or using a user data type !");
+            } else {
+                constantSites = ConstantSites.compress(seqStrs, beastDataType, cca == 2);
+                if (constantSites.hasPartialAmbiguity()) {
+                    // the tree likelihood cannot use ambiguities given constant site weights
+                    LoggerUtils.log.warning("Skip compressing constant sites for the alignment " + alignmentValue.getId() +
+                            ", which has ambiguous states other than the unknown state or gap.");
+                    constantSites = null;
+                } else if (constantSites.getConstantSiteCount() < 1 || constantSites.getVariableSiteCount() < 1) {
+                    LoggerUtils.log.warning("Skip compressing constant sites for the alignment " + alignmentValue.getId() +
+                            ", which has " + constantSites.getConstantSiteCount() + " constant sites in " +
+                            constantSites.getSiteCount() + " sites.");
+                    constantSites = null;
+                } else {
+                    LoggerUtils.log.info("Keep " + constantSites.getVariableSiteCount() + " variable sites from the original " +
+                            constantSites.getSiteCount() + " sites, and compress " + constantSites.getConstantSiteCount() +
+                            " constant sites into weights " + Arrays.toString(constantSites.getWeights()));
+                    seqStrs = constantSites.getVariableSequences();
+                }
+            }
+        }
+
+        // 2.3 the site patterns are written into a binary file next to the XML
+        String binaryFile = null;
+        if (context.getLPhyBeastConfig().binaryAlignments) {
+            if (!context.isObserved(alignmentValue) || beastDataType instanceof UserDataType) {
+                LoggerUtils.log.warning("Cannot write the binary file of the alignment " + alignmentValue.getId() +
+                        ", which is either sampled during MCMC or using a user data type !");
+            } else if (alignmentValue.isAnonymous() || context.getOutPathNoExt() == null) {
+                LoggerUtils.log.warning("Cannot write the binary file of the alignment " + alignmentValue.getId() +
+                        ", which requires the alignment ID and the XML file path !");
+            } else
+                binaryFile = context.getOutPathNoExt() + "_" + alignmentValue.getCanonicalId() + ".bin";
+        }
 
+        // 2.4 compress the sites into unique patterns with weights,
+        // but MutableAlignment is sampled site by site, and UserDataType may use several characters per state.
+        String weights = null;
+        if (context.getLPhyBeastConfig().compressSitePatterns) {
+            if (binaryFile != null) {
+                // MappedAlignment loads the patterns and the pattern of every site
+                LoggerUtils.log.info("The site patterns of the alignment " + alignmentValue.getId() +
+                        " are compressed in the binary file " + binaryFile);
+            } else if (constantSites != null) {
+                // FilteredAlignment does not take the weights of sites
+                LoggerUtils.log.info("The site patterns of the alignment " + alignmentValue.getId() +
+                        " are compressed by FilteredAlignment after removing constant sites.");
+            } else if (!context.isObserved(alignmentValue) || beastDataType instanceof UserDataType) {
+                LoggerUtils.log.warning("Cannot compress site patterns for the alignment " + alignmentValue.getId() +
+                        ", which is either sampled during MCMC or using a user data type !");
             } else {
-                // Input<String> dataTypeInput
-                beastAlignment.setInputValue("dataType", beastDataType.getTypeDescription());
+                SitePatterns sitePatterns = SitePatterns.compress(seqStrs);
+                seqStrs = sitePatterns.getSequences();
+                weights = sitePatterns.getWeightsString();
+                LoggerUtils.log.info("Compress " + sitePatterns.getSiteCount() + " sites into " +
+                        sitePatterns.getPatternCount() + " site patterns for the alignment " + alignmentValue.getId());
             }
+        }
 
-            beastAlignment.initAndValidate();
+        for (int i = 0; i < taxaNames.length; i++)
+            sequences.add(createBEASTSequence(taxaNames[i], seqStrs[i]));
+
+        // TODO check if this is this enough
+        if (!context.isObserved(alignmentValue)) {
+            // MutableAlignment
+            beastAlignment = new MutableAlignment();
+        } else // normal Alignment
+            beastAlignment = new beast.base.evolution.alignment.Alignment();
+
+        beastAlignment.setInputValue("sequence", sequences);
+        // comma separated list of weights, one for each site in the sequences
+        if (weights != null)
+            beastAlignment.setInputValue("weights", weights);
+
+        // 3. morphological data, needs extra <userDataType section
+        if (beastDataType instanceof UserDataType) {
+            // StandardData.getTypeDescription()
+            beastAlignment.setInputValue("dataType", "standard");
+            //TODO add FilteredAlignment for standard data ?
+            beastAlignment.setInputValue("userDataType", beastDataType);
+
+        } else {
+            // Input<String> dataTypeInput
+            beastAlignment.setInputValue("dataType", beastDataType.getTypeDescription());
+        }
 
-            // 4 if isCompressConstantSites, then return FilteredAlignment
-//            if (context.getLPhyBeastConfig().compressConstantSites && alignment.hasConstantSite()) {
-//TODO                // https://www.beast2.org/2019/07/18/ascertainment-correction.html
-//                FilteredAlignment filteredAlignment = new FilteredAlignment();
-//
-//                filteredAlignment.setInputValue("data", beastAlignment);
-//                filteredAlignment.setInputValue("filter", "-");
-//                // A, C, G, T
-//                String weights = createConstantSiteWeights(alignment);
-//                filteredAlignment.setInputValue("constantSiteWeights", weights);
-//                filteredAlignment.initAndValidate();
-//
-//                // using LPhy var as ID allows multiple alignments
-//                if (!alignmentValue.isAnonymous()) {
-//                    beastAlignment.setID("original-" + alignmentValue.getCanonicalId());
-//                    filteredAlignment.setID(alignmentValue.getCanonicalId());
-//                }
-//                // can only use single thread per ascertained alignment
-//                return filteredAlignment;
-//            }
+        beastAlignment.initAndValidate();
 
+        // 3.2 replace the sequences in XML by the binary file, where BEAST alignment has been validated.
+        if (binaryFile != null) {
+            Path binaryPath = Path.of(binaryFile);
+            try {
+                MappedAlignment.write(binaryPath, beastAlignment);
+            } catch (IOException e) {
+                throw new RuntimeException("Cannot write the alignment " + alignmentValue.getId() +
+                        " into " + binaryPath.toAbsolutePath() + " : " + e.getMessage(), e);
+            }
+            MappedAlignment mappedAlignment = new MappedAlignment();
+            // not prefixed by the log directory of a running MCMC
+            mappedAlignment.setInputValue("fileName", binaryPath.toAbsolutePath().toString());
+            mappedAlignment.setInputValue("dataType", beastDataType.getTypeDescription());
+            mappedAlignment.initAndValidate();
+            // relative to the directory of the log files, which is the XML directory given by -working of BEAST
+            mappedAlignment.setInputValue("fileName", binaryPath.getFileName().toString());
+            LoggerUtils.log.info("Write " + mappedAlignment.getPatternCount() + " site patterns of the alignment " +
+                    alignmentValue.getId() + " into " + binaryPath.toAbsolutePath());
+            beastAlignment = mappedAlignment;
         }
 
-        // using LPhy var as ID allows multiple alignments
-        if (!alignmentValue.isAnonymous()) beastAlignment.setID(alignmentValue.getCanonicalId());
+        // 4. if compress constant sites, then return FilteredAlignment
+        if (constantSites != null) {
+            FilteredAlignment filteredAlignment = new FilteredAlignment();
+            filteredAlignment.setInputValue("data", beastAlignment);
+            filteredAlignment.setInputValue("filter", "-");
+            // in the order of states, e.g. A, C, G, T
+            filteredAlignment.setInputValue("constantSiteWeights",
+                    new IntegerParameter(constantSites.getWeightsString()));
+            filteredAlignment.initAndValidate();
+            LoggerUtils.log.info("Reduce " + constantSites.getSiteCount() + " sites to " +
+                    filteredAlignment.getSiteCount() + " variable sites (" + filteredAlignment.getPatternCount() +
+                    " patterns including constant sites) for the alignment " + alignmentValue.getId());
+
+            // using LPhy var as ID allows multiple alignments
+            if (!alignmentValue.isAnonymous())
+                beastAlignment.setID("original-" + alignmentValue.getCanonicalId());
+            // ThreadedTreeLikelihood adds constantSiteWeights to the first thread
+            beastAlignment = filteredAlignment;
+        }
 
         return beastAlignment;
     }
@@ -161,6 +257,86 @@ public class AlignmentToBEAST implements ValueToBEAST<SimpleAlignment, beast.bas
         return builder.toString();
     }
 
+    // null if the sequences are not streamed, where the other compressions given by -cca, -ba and -csp take precedence
+    private EncodedSequences createStreamedSequences(Value<SimpleAlignment> alignmentValue, SequenceType lphyDataType,
+                                                     DataType beastDataType, BEASTContext context) {
+        LPhyBeastConfig config = context.getLPhyBeastConfig();
+        if (!config.streamSequences || config.compressConstantAlignment > 0 || config.binaryAlignments ||
+                config.compressSitePatterns)
+            return null;
+        if (!context.isObserved(alignmentValue) || beastDataType instanceof UserDataType) {
+            LoggerUtils.log.warning("Cannot stream the sequences of the alignment " + alignmentValue.getId() +
+                    ", which is either sampled during MCMC or using a user data type !");
+            return null;
+        }
+        SimpleAlignment alignment = alignmentValue.value();
+        char[] codes = new char[lphyDataType.getStateCount()];
+        for (int i = 0; i < codes.length; i++) {
+            String code = lphyDataType.getState(i).getCode();
+            // BEAST decodes the character into the same state as LPhy
+            if (code == null || code.length() != 1 ||
+                    beastDataType.stringToEncoding(code).size() != 1) {
+                LoggerUtils.log.warning("Cannot stream the sequences of the alignment " + alignmentValue.getId() +
+                        ", whose state " + lphyDataType.getState(i) + " is not encoded by one character !");
+                return null;
+            }
+            codes[i] = code.charAt(0);
+        }
+        return new EncodedSequences(alignment::getState, codes, alignment.ntaxa(), alignment.nchar());
+    }
+
+    // the sequences in XML are the tokens replaced by the XML writer,
+    // but BEAST alignment is initialised from the states of every taxon.
+    private beast.base.evolution.alignment.Alignment createStreamedAlignment(Value<SimpleAlignment> alignmentValue,
+            EncodedSequences encodedSequences, DataType beastDataType, BEASTContext context) {
+        String[] taxaNames = alignmentValue.value().getTaxaNames();
+        // the BEAST state of every LPhy state, as BEAST decodes its character from XML
+        int[] beastStates = new int[encodedSequences.getStateCount()];
+        for (int state = 0; state < beastStates.length; state++)
+            beastStates[state] = beastDataType.stringToEncoding(String.valueOf(encodedSequences.getCode(state))).get(0);
+
+        List<Sequence> sequences = new ArrayList<>();
+        for (int i = 0; i < taxaNames.length; i++) {
+            context.addTaxon(taxaNames[i]);
+            sequences.add(new StateSequence(taxaNames[i], encodedSequences, i, beastStates));
+        }
+        beast.base.evolution.alignment.Alignment beastAlignment = new beast.base.evolution.alignment.Alignment();
+        beastAlignment.setInputValue("sequence", sequences);
+        beastAlignment.setInputValue("dataType", beastDataType.getTypeDescription());
+        beastAlignment.initAndValidate();
+
+        // BEAST alignment has kept the states, so replace the sequences by the tokens for XML
+        int index = context.addStreamedSequences(encodedSequences);
+        List<Sequence> tokens = beastAlignment.sequenceInput.get();
+        for (int i = 0; i < tokens.size(); i++)
+            tokens.set(i, createBEASTSequence(taxaNames[i], BEASTXMLWriter.getSequenceToken(index, i)));
+        LoggerUtils.log.info("Stream " + taxaNames.length + " sequences of " + encodedSequences.getSiteCount() +
+                " sites into XML for the alignment " + alignmentValue.getId());
+        return beastAlignment;
+    }
+
+    // only to initialise BEAST alignment from the states, which is replaced before creating XML
+    private static class StateSequence extends Sequence {
+        private final EncodedSequences encodedSequences;
+        private final int taxon;
+        private final int[] beastStates;
+
+        StateSequence(String taxon, EncodedSequences encodedSequences, int taxonIndex, int[] beastStates) {
+            taxonInput.setValue(taxon, this);
+            this.encodedSequences = encodedSequences;
+            this.taxon = taxonIndex;
+            this.beastStates = beastStates;
+        }
+
+        @Override
+        public List<Integer> getSequence(DataType dataType) {
+            List<Integer> states = new ArrayList<>(encodedSequences.getSiteCount());
+            for (int site = 0; site < encodedSequences.getSiteCount(); site++)
+                states.add(beastStates[encodedSequences.getState(taxon, site)]);
+            return states;
+        }
+    }
+
     private Sequence createBEASTSequence(String taxon, String sequence) {
         Sequence seq = new Sequence();
         seq.setInputValue("taxon", taxon);
@@ -169,33 +345,6 @@ public class AlignmentToBEAST implements ValueToBEAST<SimpleAlignment, beast.bas
         return seq;
     }
 
-//    private Map<String, Integer> getConstantSiteWeights(SimpleAlignment alignment) {
-//
-//        String s = alignment.getSequenceVarSite(i);
-//
-//
-//        // index is the state, value is the count
-//        NavigableMap<Integer, Integer> counter = AlignmentUtils.countConstantSites(alignment);
-//
-//        int maxState = counter.lastKey();
-//        if (maxState >= alignment.getCanonicalStateCount())
-//            LoggerUtils.log.warning("Ambiguous state " + maxState + " is found, count = " + counter.get(maxState));
-//
-//        List<String> weights = new ArrayList<>();
-//        // no ambiguous
-//        for (int s = 0; s < alignment.getCanonicalStateCount(); s++) {
-//            if (counter.containsKey(s))
-//                weights.add(counter.get(s).toString());
-//            else
-//                weights.add("0");
-//        }
-//        // check ordering e.g. A, C, G, T
-//        SequenceType sequenceType = alignment.getSequenceType();
-//        LoggerUtils.log.info("Creating weights mapping to the canonical states in order : " + sequenceType.getCanonicalStates());
-//
-//        return String.join(" ", weights);
-//    }
-
 
     @Override
     public Class getValueClass() {
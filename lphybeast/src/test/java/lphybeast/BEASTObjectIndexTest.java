@@ -0,0 +1,203 @@
+package lphybeast;
+
+import beast.base.core.BEASTInterface;
+import beast.base.inference.parameter.RealParameter;
+import lphy.core.model.GraphicalModelNode;
+import lphy.core.model.Value;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the ID index of the BEAST objects in context,
+ * and the bindings between graphical model nodes and BEAST objects.
+ */
+public class BEASTObjectIndexTest {
+
+    private ConversionStats stats;
+    private BEASTObjectIndex index;
+
+    @BeforeEach
+    void setUp() {
+        stats = new ConversionStats();
+        index = new BEASTObjectIndex(stats);
+    }
+
+    private RealParameter createParameter(String id) {
+        RealParameter parameter = new RealParameter("0.1");
+        parameter.setID(id);
+        return parameter;
+    }
+
+    @Test
+    public void testPutAndRemove() {
+        RealParameter mu = createParameter("mu");
+        index.put(mu, null);
+        assertSame(mu, index.getByID("mu"));
+        assertNull(index.getByID("sigma"));
+
+        index.removeAll(mu);
+        assertNull(index.getByID("mu"));
+        assertFalse(index.containsKey(mu));
+    }
+
+    @Test
+    public void testUpdateID() {
+        RealParameter mu = createParameter("mu");
+        index.put(mu, null);
+
+        mu.setID("mu2");
+        // not found by the old ID, as the ID has changed
+        assertNull(index.getByID("mu"));
+        index.updateID(mu);
+        assertSame(mu, index.getByID("mu2"));
+    }
+
+    @Test
+    public void testIDSetAfterAdding() {
+        RealParameter noID = new RealParameter("0.1");
+        index.put(noID, null);
+        noID.setID("theta");
+        // found by scanning, and then indexed
+        assertSame(noID, index.getByID("theta"));
+        assertEquals(1, stats.getIdScans());
+        assertSame(noID, index.getByID("theta"));
+        assertEquals(1, stats.getIdScans());
+        assertEquals(1, stats.getIdIndexHits());
+    }
+
+    @Test
+    public void testStaleID() {
+        RealParameter mu = createParameter("mu");
+        index.put(mu, null);
+        mu.setID("mu2");
+        // not found by the old ID, but the scan moves it to the new ID
+        assertNull(index.getByID("mu"));
+        assertEquals(1, stats.getStaleIDs());
+        assertSame(mu, index.getByID("mu2"));
+        assertEquals(1, stats.getIdIndexHits());
+        assertNull(index.getByID("mu"));
+        assertEquals(1, stats.getStaleIDs());
+    }
+
+    @Test
+    public void testRenamedID() {
+        RealParameter mu = createParameter("mu");
+        RealParameter sigma = createParameter("sigma");
+        index.put(mu, null);
+        index.put(sigma, null);
+        // renamed without updating the index
+        sigma.setID("sigma2");
+        assertSame(sigma, index.getByID("sigma2"));
+        assertEquals(1, stats.getStaleIDs());
+        assertEquals(2, stats.getObjectsScanned());
+        assertSame(mu, index.getByID("mu"));
+    }
+
+    @Test
+    public void testSameID() {
+        RealParameter first = createParameter("D");
+        RealParameter second = createParameter("D");
+        index.put(first, null);
+        index.put(second, null);
+        assertSame(first, index.getByID("D"));
+
+        // the other one is found after removing
+        index.removeAll(first);
+        assertSame(second, index.getByID("D"));
+    }
+
+    @Test
+    public void testLinearLookups() {
+        final int n = 20000;
+        BEASTInterface[] parameters = new BEASTInterface[n];
+        for (int i = 0; i < n; i++) {
+            parameters[i] = createParameter("p" + i);
+            index.put(parameters[i], null);
+        }
+        for (int i = 0; i < n; i++)
+            assertSame(parameters[i], index.getByID("p" + i));
+
+        assertEquals(n, stats.getIdLookups());
+        assertEquals(n, stats.getIdIndexHits());
+        assertEquals(0, stats.getIdScans());
+        assertEquals(0, stats.getStaleIDs());
+    }
+
+    private GraphicalModelNode<?> createNode(String id) {
+        return new Value<>(id, 0.1);
+    }
+
+    @Test
+    public void testBind() {
+        GraphicalModelNode<?> node = createNode("mu");
+        RealParameter mu = createParameter("mu");
+        index.bind(node, mu);
+        assertSame(mu, index.getBEASTObject(node));
+        assertSame(node, index.getGraphicalModelNode(mu));
+        assertTrue(index.containsEntry(mu, node));
+
+        // rebind the node, e.g. IntegerParameter is coerced to RealParameter
+        RealParameter mu2 = createParameter("mu");
+        index.removeAll(mu);
+        index.bind(node, mu2);
+        assertSame(mu2, index.getBEASTObject(node));
+        assertNull(index.getGraphicalModelNode(mu));
+        assertSame(mu2, index.getByID("mu"));
+    }
+
+    @Test
+    public void testRemoveBoundObject() {
+        RealParameter theta = createParameter("theta");
+        GraphicalModelNode<?> value = createNode("theta");
+        GraphicalModelNode<?> expression = createNode("theta_expr");
+        index.bind(expression, theta);
+        index.bind(value, theta);
+        assertSame(value, index.getGraphicalModelNode(theta));
+
+        // all nodes bound to it are removed
+        index.removeAll(theta);
+        assertNull(index.getBEASTObject(value));
+        assertNull(index.getBEASTObject(expression));
+        assertNull(index.getGraphicalModelNode(theta));
+        assertTrue(index.getNodeToObjectMap().isEmpty());
+    }
+
+    @Test
+    public void testRemoveAfterRebind() {
+        GraphicalModelNode<?> node = createNode("x");
+        RealParameter first = createParameter("x1");
+        RealParameter second = createParameter("x2");
+        index.bind(node, first);
+        index.bind(node, second);
+
+        // removing the object the node was bound to before keeps the new binding
+        index.removeAll(first);
+        assertSame(second, index.getBEASTObject(node));
+        index.remove(second, node);
+        assertNull(index.getBEASTObject(node));
+        assertFalse(index.containsKey(second));
+    }
+
+    @Test
+    public void testLinearRemoval() {
+        final int n = 20000;
+        BEASTInterface[] parameters = new BEASTInterface[n];
+        GraphicalModelNode<?>[] nodes = new GraphicalModelNode<?>[n];
+        for (int i = 0; i < n; i++) {
+            parameters[i] = createParameter("p" + i);
+            nodes[i] = createNode("p" + i);
+            index.bind(nodes[i], parameters[i]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++)
+            index.removeAll(parameters[i]);
+        System.out.printf("Remove %d bound objects in %.1f ms%n", n, (System.nanoTime() - start) / 1e6);
+
+        assertTrue(index.isEmpty());
+        assertTrue(index.getNodeToObjectMap().isEmpty());
+        assertTrue(index.getObjectToNodeMap().isEmpty());
+    }
+
+}
@@ -0,0 +1,71 @@
+package lphybeast;
+
+import lphy.base.distribution.LogNormal;
+import lphy.base.distribution.Normal;
+import lphy.core.model.Generator;
+import lphy.core.model.Value;
+import lphybeast.tobeast.generators.ExpToBEAST;
+import lphybeast.tobeast.generators.NormalToBEAST;
+import lphybeast.tobeast.values.DoubleValueToBEAST;
+import lphybeast.tobeast.values.IntegerValueToBEAST;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the converters and exclusions resolved by classes.
+ */
+public class ConverterCacheTest {
+
+    private final GeneratorToBEAST normalToBEAST = new NormalToBEAST();
+    private final GeneratorToBEAST anyToBEAST = new ExpToBEAST();
+    private ConverterCache cache;
+
+    @BeforeEach
+    void setUp() {
+        List<ValueToBEAST> valueToBEASTList = new ArrayList<>();
+        valueToBEASTList.add(new DoubleValueToBEAST());
+        valueToBEASTList.add(new IntegerValueToBEAST());
+
+        Map<Class, GeneratorToBEAST> generatorToBEASTMap = new LinkedHashMap<>();
+        generatorToBEASTMap.put(Normal.class, normalToBEAST);
+        generatorToBEASTMap.put(Generator.class, anyToBEAST);
+
+        cache = new ConverterCache(valueToBEASTList, generatorToBEASTMap, List.of(), List.of(String.class));
+    }
+
+    @Test
+    public void testGeneratorToBEAST() {
+        assertSame(normalToBEAST, cache.getGeneratorToBEAST(Normal.class));
+        // compatible converter
+        assertSame(anyToBEAST, cache.getGeneratorToBEAST(LogNormal.class));
+        assertNull(cache.getGeneratorToBEAST(String.class));
+        // cached
+        assertNull(cache.getGeneratorToBEAST(String.class));
+    }
+
+    @Test
+    public void testValueToBEAST() {
+        ValueToBEAST toBEAST = cache.getMatchingValueToBEAST(new Value<>("x", 1.0));
+        assertInstanceOf(DoubleValueToBEAST.class, toBEAST);
+        assertSame(toBEAST, cache.getMatchingValueToBEAST(new Value<>("y", 2.0)));
+
+        assertInstanceOf(IntegerValueToBEAST.class, cache.getValueToBEAST(1));
+        assertNull(cache.getValueToBEAST("a"));
+        assertNull(cache.getMatchingValueToBEAST(new Value<>("s", "a")));
+    }
+
+    @Test
+    public void testExcluded() {
+        assertTrue(cache.isExcludedValueType(String.class));
+        assertFalse(cache.isExcludedValueType(Double.class));
+        assertFalse(cache.isExcludedGeneratorClass(Normal.class));
+    }
+
+}
@@ -0,0 +1,160 @@
+package lphybeast;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.likelihood.ThreadedTreeLikelihood;
+import beast.base.evolution.substitutionmodel.Frequencies;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.inference.MCMC;
+import beast.base.inference.parameter.RealParameter;
+import beast.base.parser.XMLParser;
+import beast.base.parser.XMLProducer;
+import lphy.core.simulator.Sampler;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static lphybeast.TestUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The XML of a tree likelihood is the same whether or not it is validated during conversion,
+ * so its validation can be deferred to BEAST, given by --deferValidation.
+ * The deferred objects are still checked before the XML is created, and validated once if run in-process.
+ */
+public class DeferredValidationTest {
+
+    private static final String[] SEQUENCES = {
+            "ACGTACGTAAGGCTTA-CGN",
+            "ACGTACCTAAGGCTTA-CGA",
+            "ACGAACGTATGGCTAA-CGA",
+            "ACGAACGTATGGGTAA-CGA"};
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void loadServices() {
+        // BEAST data types
+        TestUtils.loadServices();
+    }
+
+    @Test
+    public void testSameXML() throws Exception {
+        ThreadedTreeLikelihood validated = createTreeLikelihood(new ThreadedTreeLikelihood());
+        validated.initAndValidate();
+        ThreadedTreeLikelihood deferred = createTreeLikelihood(new ThreadedTreeLikelihood());
+        // only the structural check
+        deferred.validateInputs();
+
+        String xml = new XMLProducer().toXML(deferred);
+        assertEquals(new XMLProducer().toXML(validated), xml);
+
+        // BEAST validates it when loading the XML
+        ThreadedTreeLikelihood loaded = (ThreadedTreeLikelihood) new XMLParser().parseBareFragment(xml, true);
+        assertEquals(validated.calculateLogP(), loaded.calculateLogP(), 1e-10);
+    }
+
+    @Test
+    public void testConvertDeferred() throws Exception {
+        LPhyBeastConfig config = new LPhyBeastConfig();
+        config.setDeferValidation(true);
+        BEASTContext context = new BEASTContext(Sampler.createSampler("""
+                Θ ~ LogNormal(meanlog=-3.0, sdlog=0.5);
+                ψ ~ Coalescent(theta=Θ, n=4);
+                D ~ PhyloCTMC(L=20, Q=jukesCantor(), tree=ψ);""").getParserDictionary(), null, config);
+        String xml = context.toBEASTXML("deferred");
+
+        // only checked before the XML is created, then validated by BEAST when loading it
+        assertTrue(xml.contains("id=\"D.treeLikelihood\""), "D.treeLikelihood");
+        Path xmlFile = Files.writeString(dir.resolve("deferred.xml"), xml);
+        assertInstanceOf(MCMC.class, new XMLParser().parseFile(xmlFile.toFile()));
+    }
+
+    @Test
+    public void testValidateOnce() throws IOException {
+        LPhyBeastConfig config = new LPhyBeastConfig();
+        config.setDeferValidation(true);
+        BEASTContext context = new BEASTContext(null, null, config);
+
+        CountingTreeLikelihood likelihood = createTreeLikelihood(new CountingTreeLikelihood());
+        context.initAndValidate(likelihood);
+        assertEquals(0, likelihood.validations);
+
+        // the structural check before the XML is created
+        context.checkDeferredObjects();
+        assertEquals(0, likelihood.validations);
+
+        // validated once before the in-process run, and not again
+        context.validateDeferredObjects("the test");
+        assertEquals(1, likelihood.validations);
+        context.validateDeferredObjects("the test");
+        assertEquals(1, likelihood.validations);
+        assertTrue(likelihood.calculateLogP() < 0);
+    }
+
+    @Test
+    public void testRemoveDeferred() throws IOException {
+        LPhyBeastConfig config = new LPhyBeastConfig();
+        config.setDeferValidation(true);
+        BEASTContext context = new BEASTContext(null, null, config);
+
+        // e.g. replaced by the likelihood of merged partitions
+        CountingTreeLikelihood likelihood = createTreeLikelihood(new CountingTreeLikelihood());
+        context.initAndValidate(likelihood);
+        context.removeBEASTObject(likelihood);
+
+        context.validateDeferredObjects("the test");
+        assertEquals(0, likelihood.validations);
+    }
+
+    @Test
+    public void testTaxaMismatch() throws IOException {
+        LPhyBeastConfig config = new LPhyBeastConfig();
+        config.setDeferValidation(true);
+        BEASTContext context = new BEASTContext(null, null, config);
+
+        // 3 taxa in the alignment, but 4 tips in the tree
+        Alignment alignment = createAlignment(new String[]{"A", "B", "C"}, SEQUENCES[0], SEQUENCES[1], SEQUENCES[2]);
+        CountingTreeLikelihood likelihood = createTreeLikelihood(new CountingTreeLikelihood(), alignment, createTree(null));
+        context.initAndValidate(likelihood);
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, context::checkDeferredObjects);
+        assertTrue(e.getMessage().contains("3 taxa"), e.getMessage());
+        assertEquals(0, likelihood.validations);
+    }
+
+    // count the calls of initAndValidate
+    private static class CountingTreeLikelihood extends ThreadedTreeLikelihood {
+        int validations = 0;
+
+        @Override
+        public void initAndValidate() {
+            validations++;
+            super.initAndValidate();
+        }
+    }
+
+    private <T extends ThreadedTreeLikelihood> T createTreeLikelihood(T likelihood) {
+        Alignment alignment = createAlignment(TAXA, SEQUENCES);
+        return createTreeLikelihood(likelihood, alignment, createTree(alignment));
+    }
+
+    private <T extends ThreadedTreeLikelihood> T createTreeLikelihood(T likelihood, Alignment alignment, TreeParser tree) {
+        alignment.setID("D");
+        tree.setID("psi");
+        Frequencies frequencies = new Frequencies();
+        frequencies.initByName("frequencies", new RealParameter("0.2 0.3 0.3 0.2"));
+
+        likelihood.setInputValue("data", alignment);
+        likelihood.setInputValue("tree", tree);
+        likelihood.setInputValue("siteModel", createHKYSiteModel(frequencies, 0.5));
+        likelihood.setInputValue("useAmbiguities", false);
+        likelihood.setID("D.treeLikelihood");
+        return likelihood;
+    }
+
+}
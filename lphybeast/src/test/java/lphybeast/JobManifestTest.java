@@ -0,0 +1,114 @@
+package lphybeast;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the batch of jobs read from the manifest.
+ */
+public class JobManifestTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testReadCSV() throws IOException {
+        Path manifest = dir.resolve("sweep.csv");
+        Files.writeString(manifest, """
+                script,constants,seed,replicates,out,options
+                # comment
+                hky.lphy,n=10;L=100,777,2,hky_n10,-l 5000
+                "/data/jc.lphy","n=5",,,,
+                """);
+        List<LPhyBeastJob> jobs = JobManifest.read(manifest, List.of("-sp"));
+        assertEquals(2, jobs.size());
+
+        LPhyBeastJob job = jobs.get(0);
+        assertEquals("1", job.id());
+        assertEquals(dir.resolve("hky.lphy"), job.script());
+        assertEquals("n=10;L=100", job.constants());
+        assertEquals(777L, job.seed());
+        assertEquals(2, job.replicates());
+        assertEquals(Path.of("hky_n10.xml"), job.out());
+        assertEquals(List.of("-sp", "-l", "5000"), job.options());
+
+        job = jobs.get(1);
+        assertEquals("2", job.id());
+        assertEquals(Path.of("/data/jc.lphy"), job.script());
+        assertNull(job.seed());
+        assertNull(job.out());
+        assertEquals(List.of("-sp"), job.options());
+    }
+
+    @Test
+    public void testReadJSONL() throws IOException {
+        Path manifest = dir.resolve("sweep.jsonl");
+        Files.writeString(manifest, """
+                {"id":"a","script":"hky.lphy","constants":["n=10","L=100"],"seed":1}
+
+                {"script":"jc.lphy"}
+                """);
+        List<LPhyBeastJob> jobs = JobManifest.read(manifest, List.of());
+        assertEquals(List.of("a", "2"), jobs.stream().map(LPhyBeastJob::id).toList());
+        assertEquals("n=10;L=100", jobs.get(0).constants());
+        assertEquals(dir.resolve("jc.lphy"), jobs.get(1).script());
+    }
+
+    @Test
+    public void testLargeSeed() throws IOException {
+        Path manifest = dir.resolve("seeds.csv");
+        Files.writeString(manifest, """
+                script,seed
+                hky.lphy,9876543210987
+                hky.lphy,-3
+                """);
+        List<LPhyBeastJob> jobs = JobManifest.read(manifest, List.of());
+        assertEquals(List.of(9876543210987L, -3L), jobs.stream().map(LPhyBeastJob::seed).toList());
+        for (LPhyBeastJob job : jobs) {
+            LPhyBeastCMD cmd = new LPhyBeastCMD();
+            new CommandLine(cmd).parseArgs(job.toArgs(dir));
+            assertEquals(job.seed(), cmd.seed);
+        }
+    }
+
+    @Test
+    public void testInvalidCSV() throws IOException {
+        Path manifest = dir.resolve("invalid.csv");
+        Files.writeString(manifest, "script,n\nhky.lphy,10\n");
+        assertThrows(IOException.class, () -> JobManifest.read(manifest, List.of()));
+
+        Files.writeString(manifest, "script,seed\nhky.lphy,abc\n");
+        assertThrows(IOException.class, () -> JobManifest.read(manifest, List.of()));
+    }
+
+    @Test
+    public void testSplitCSVLine() {
+        assertEquals(List.of("a", "b,c", "d\"e", ""), JobManifest.splitCSVLine("a,\"b,c\",\"d\"\"e\","));
+    }
+
+    @Test
+    public void testWriteSummary() throws IOException {
+        Path manifest = dir.resolve("sweep.csv");
+        Path summary = JobManifest.getSummaryFile(manifest);
+        assertEquals(dir.resolve("sweep_summary.tsv"), summary);
+
+        List<LPhyBeastJob> jobs = List.of(new LPhyBeastJob("1", Path.of("hky.lphy"), null, null,
+                null, null, List.of()));
+        List<JobResult> results = List.of(new JobResult("1", false, List.of(), 0, 12,
+                0, 2 * 1024 * 1024, "java.io.FileNotFoundException:\nhky.lphy"));
+        JobManifest.writeSummary(summary, jobs, results);
+
+        List<String> lines = Files.readAllLines(summary);
+        assertEquals(2, lines.size());
+        assertEquals("1\thky.lphy\terror\t12\t0\t2.0\t\tjava.io.FileNotFoundException: hky.lphy", lines.get(1));
+    }
+
+}
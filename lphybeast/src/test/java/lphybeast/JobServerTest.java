@@ -0,0 +1,91 @@
+package lphybeast;
+
+import lphy.core.io.UserDir;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the results written by the resident process for the jobs read from JSON lines.
+ */
+public class JobServerTest {
+
+    @TempDir
+    Path dir;
+
+    // each job changes user.dir to the directory of its script
+    private final String userDir = UserDir.getUserDir().toString();
+
+    @BeforeAll
+    static void loadServices() {
+        TestUtils.loadServices();
+    }
+
+    @AfterEach
+    void restoreUserDir() {
+        UserDir.setUserDir(userDir);
+    }
+
+    @Test
+    public void testServe() throws Exception {
+        Path script = Files.writeString(dir.resolve("jc.lphy"), """
+                Θ ~ LogNormal(meanlog=-3.0, sdlog=0.5);
+                ψ ~ Coalescent(theta=Θ, n=4);
+                D ~ PhyloCTMC(L=20, Q=jukesCantor(), tree=ψ);
+                """);
+        Path out = dir.resolve("jc.xml");
+        String lines = String.join("\n",
+                "{\"id\":\"jc\",\"script\":\"" + script + "\",\"seed\":1,\"out\":\"" + out + "\"}",
+                "",
+                "not a job",
+                "{\"seed\":1}",
+                "{\"command\":\"shutdown\"}",
+                // not read after the shutdown
+                "{\"id\":\"after\",\"script\":\"" + script + "\"}");
+
+        StringWriter writer = new StringWriter();
+        try (JobRunner runner = new JobRunner(1, null)) {
+            new JobServer(runner).serve(new BufferedReader(new StringReader(lines)), writer);
+        }
+
+        // the results can be in a different order, and the blank line is not a job
+        Map<String, JSONObject> results = new HashMap<>();
+        for (String line : writer.toString().split("\n")) {
+            JSONObject result = new JSONObject(line);
+            results.put(result.getString("id"), result);
+        }
+        assertEquals(3, results.size(), writer.toString());
+
+        JSONObject jc = results.get("jc");
+        assertEquals("ok", jc.getString("status"), jc.toString());
+        assertEquals(out.toString(), jc.getJSONArray("out").getString(0));
+        assertTrue(Files.exists(out));
+        assertTrue(jc.getLong("xmlBytes") > 0);
+
+        // the invalid lines are numbered by their order
+        assertInvalid(results.get("2"));
+        assertInvalid(results.get("3"));
+        assertFalse(results.containsKey("after"));
+    }
+
+    private void assertInvalid(JSONObject result) throws JSONException {
+        assertNotNull(result);
+        assertEquals("error", result.getString("status"));
+        assertTrue(result.getString("error").startsWith("Invalid job"), result.getString("error"));
+        assertEquals(0, result.getJSONArray("out").length());
+    }
+
+}
@@ -0,0 +1,60 @@
+package lphybeast;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the jobs read from JSON lines by the resident process.
+ */
+public class LPhyBeastJobTest {
+
+    @Test
+    public void testFromJSON() throws JSONException {
+        JSONObject json = new JSONObject("{\"id\":7,\"script\":\"hky.lphy\",\"constants\":[\"n=10\",\"L=100\"]," +
+                "\"seed\":123,\"replicates\":2,\"out\":\"hky_n10.xml\",\"options\":[\"-l\",\"5000\"]}");
+        LPhyBeastJob job = LPhyBeastJob.fromJSON(json, "1");
+        assertEquals("7", job.id());
+        assertEquals("n=10;L=100", job.constants());
+        assertEquals(123L, job.seed());
+
+        Path baseDir = Path.of("jobs").toAbsolutePath();
+        assertArrayEquals(new String[]{"-l", "5000", "-D", "n=10;L=100", "-seed", "123", "-r", "2",
+                        "-o", "hky_n10.xml", baseDir.resolve("hky.lphy").toString()},
+                job.toArgs(baseDir));
+    }
+
+    @Test
+    public void testDefaults() throws JSONException {
+        LPhyBeastJob job = LPhyBeastJob.fromJSON(new JSONObject("{\"script\":\"/data/jc.lphy\",\"constants\":\"n=5\"}"), "3");
+        assertEquals("3", job.id());
+        assertNull(job.seed());
+        assertArrayEquals(new String[]{"-D", "n=5", "/data/jc.lphy"}, job.toArgs(Path.of("/tmp")));
+
+        assertThrows(JSONException.class, () -> LPhyBeastJob.fromJSON(new JSONObject("{\"seed\":1}"), "4"));
+    }
+
+    @Test
+    public void testSeedRoundTrip() throws JSONException {
+        for (long seed : new long[]{1234567890123L, Long.MAX_VALUE, 0L, -7L}) {
+            LPhyBeastJob job = LPhyBeastJob.fromJSON(new JSONObject("{\"script\":\"hky.lphy\",\"seed\":" + seed + "}"), "1");
+            assertEquals(seed, job.seed());
+
+            LPhyBeastCMD cmd = new LPhyBeastCMD();
+            new CommandLine(cmd).parseArgs(job.toArgs(Path.of("/tmp")));
+            assertEquals(seed, cmd.seed, "seed " + seed);
+        }
+        // no seed
+        LPhyBeastCMD cmd = new LPhyBeastCMD();
+        new CommandLine(cmd).parseArgs(new LPhyBeastJob("1", Path.of("hky.lphy"), null, null,
+                null, null, List.of()).toArgs(Path.of("/tmp")));
+        assertNull(cmd.seed);
+    }
+
+}
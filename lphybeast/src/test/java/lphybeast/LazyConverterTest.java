@@ -0,0 +1,52 @@
+package lphybeast;
+
+import beast.base.inference.parameter.RealParameter;
+import lphy.base.distribution.Normal;
+import lphy.core.model.Value;
+import lphybeast.tobeast.generators.NormalToBEAST;
+import lphybeast.tobeast.values.DoubleValueToBEAST;
+import lphybeast.tobeast.values.VectorToBEAST;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the converters registered by class names are only instantiated when they are used.
+ */
+public class LazyConverterTest {
+
+    private final ClassLoader classLoader = getClass().getClassLoader();
+
+    @Test
+    public void testLazyValueToBEAST() {
+        LazyValueToBEAST toBEAST = new LazyValueToBEAST(DoubleValueToBEAST.class.getName(),
+                Double.class.getName(), false, classLoader);
+        assertTrue(toBEAST.match(new Value<>("x", 1.0)));
+        assertFalse(toBEAST.match("a"));
+        assertFalse(toBEAST.isInstantiated());
+
+        assertEquals(RealParameter.class, toBEAST.getBEASTClass());
+        assertTrue(toBEAST.isInstantiated());
+        assertInstanceOf(DoubleValueToBEAST.class, toBEAST.getConverter());
+    }
+
+    @Test
+    public void testOverriddenMatch() {
+        LazyValueToBEAST toBEAST = new LazyValueToBEAST(VectorToBEAST.class.getName(),
+                Object.class.getName(), true, classLoader);
+        // VectorToBEAST only matches the vectorized values
+        assertFalse(toBEAST.match(new Value<>("x", 1.0)));
+        assertTrue(toBEAST.isInstantiated());
+    }
+
+    @Test
+    public void testLazyGeneratorToBEAST() {
+        LazyGeneratorToBEAST<Normal, ?> toBEAST = new LazyGeneratorToBEAST<>(NormalToBEAST.class.getName(),
+                Normal.class, classLoader);
+        assertEquals(Normal.class, toBEAST.getGeneratorClass());
+        assertFalse(toBEAST.isInstantiated());
+        assertInstanceOf(NormalToBEAST.class, toBEAST.getConverter());
+        assertTrue(toBEAST.isInstantiated());
+    }
+
+}
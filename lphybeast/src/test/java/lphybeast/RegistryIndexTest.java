@@ -0,0 +1,76 @@
+package lphybeast;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the persisted registry index of the LPhyBEAST extensions.
+ */
+public class RegistryIndexTest {
+
+    @TempDir
+    Path tempDir;
+
+    private RegistryIndex createIndex(String key) {
+        RegistryIndex.Extension extension = new RegistryIndex.Extension("lphybeast.spi.LPhyBEASTExtImpl",
+                List.of(new RegistryIndex.Converter("lphybeast.tobeast.values.DoubleValueToBEAST", "java.lang.Double", false)),
+                List.of(new RegistryIndex.Converter("lphybeast.tobeast.generators.NormalToBEAST", "lphy.base.distribution.Normal", false)),
+                List.of("lphy.base.function.io.ReadNexus"), List.of(), true);
+        return new RegistryIndex(key, List.of(extension));
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        Path indexFile = tempDir.resolve(RegistryIndex.INDEX_DIR).resolve(RegistryIndex.INDEX_FILE);
+        RegistryIndex index = createIndex("abc");
+        index.write(indexFile);
+
+        RegistryIndex read = RegistryIndex.read(indexFile, "abc");
+        assertNotNull(read);
+        assertEquals(index.getExtensions(), read.getExtensions());
+
+        // packages are changed
+        assertNull(RegistryIndex.read(indexFile, "def"));
+    }
+
+    @Test
+    public void testInvalidIndex() throws IOException {
+        Path indexFile = tempDir.resolve(RegistryIndex.INDEX_FILE);
+        assertNull(RegistryIndex.read(indexFile, "abc"));
+        Files.writeString(indexFile, "{\"version\":");
+        assertNull(RegistryIndex.read(indexFile, "abc"));
+    }
+
+    @Test
+    public void testKey() {
+        List<String> extensions = List.of("lphybeast.spi.LPhyBEASTExtImpl", "mascot.lphybeast.spi.MascotLBImpl");
+        String key = RegistryIndex.computeKey(extensions);
+        assertEquals(key, RegistryIndex.computeKey(List.of(extensions.get(1), extensions.get(0))));
+        assertNotEquals(key, RegistryIndex.computeKey(extensions.subList(0, 1)));
+    }
+
+    @Test
+    public void testKeyOfClassFolder() throws IOException {
+        List<String> extensions = List.of("lphybeast.spi.LPhyBEASTExtImpl");
+        Path classFile = tempDir.resolve("classes/lphybeast/tobeast/values/DoubleValueToBEAST.class");
+        Files.createDirectories(classFile.getParent());
+        Files.writeString(classFile, "v1");
+        String classPath = tempDir.resolve("classes").toString();
+        String key = RegistryIndex.computeKey(extensions, classPath);
+        assertEquals(key, RegistryIndex.computeKey(extensions, classPath));
+
+        // recompiled in a nested package, which does not change the modified time of the class folder
+        long folderTime = tempDir.resolve("classes").toFile().lastModified();
+        Files.writeString(classFile, "v2.0");
+        assertEquals(folderTime, tempDir.resolve("classes").toFile().lastModified());
+        assertNotEquals(key, RegistryIndex.computeKey(extensions, classPath));
+    }
+
+}
@@ -0,0 +1,68 @@
+package lphybeast;
+
+import lphy.core.parser.LPhyParserDictionary;
+import lphy.core.simulator.NamedRandomValueSimulator;
+import lphy.core.simulator.Sampler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the true values logged by the replicate engine are the same as the simulation.
+ */
+public class ReplicateEngineTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testSameTrueValuesAsSimulation() throws IOException {
+        Path lphyFile = dir.resolve("hky.lphy");
+        Files.writeString(lphyFile, """
+                pi ~ Dirichlet(conc=[2.0, 2.0, 2.0, 2.0]);
+                ψ ~ Yule(lambda=1.0, n=4);
+                D ~ PhyloCTMC(L=10, Q=hky(kappa=2.0, freq=pi), tree=ψ);""");
+        final long seed = 777;
+
+        new NamedRandomValueSimulator().simulateAndLog(lphyFile.toFile(),
+                dir.resolve("sim_true").toString(), 1, null, null, seed);
+        ReplicateEngine engine = new ReplicateEngine(lphyFile.toFile(), null, null);
+        engine.sample(seed, dir.resolve("engine_true").toString());
+
+        List<Path> simFiles;
+        try (Stream<Path> files = Files.list(dir)) {
+            simFiles = files.filter(f -> f.getFileName().toString().startsWith("sim_true")).sorted().toList();
+        }
+        // _true.log, _true_ψ.trees, _true_D.nexus
+        assertTrue(simFiles.size() >= 3, "Simulation files : " + simFiles);
+        for (Path simFile : simFiles) {
+            Path engineFile = dir.resolve(simFile.getFileName().toString().replaceFirst("^sim_", "engine_"));
+            assertTrue(Files.exists(engineFile), "Missing " + engineFile);
+            assertEquals(Files.readString(simFile), Files.readString(engineFile), simFile.getFileName().toString());
+        }
+    }
+
+    @Test
+    public void testIDsRestoredAfterConversion() throws IOException {
+        TestUtils.loadServices();
+        LPhyParserDictionary parserDict = Sampler.createSampler("""
+                ψ ~ Yule(lambda=1.0, n=4);
+                D ~ PhyloCTMC(L=10, Q=jukesCantor(), tree=ψ);""").getParserDictionary();
+
+        BEASTContext context = new BEASTContext(parserDict, null, new LPhyBeastConfig());
+        String xml = context.toBEASTXML("jc");
+        context.restoreIDs();
+
+        // canonical in XML, but the dictionary is unchanged for the next replicate
+        assertTrue(xml.contains("id=\"psi\""), "psi in XML");
+        assertEquals("ψ", parserDict.getValue("ψ", LPhyParserDictionary.Context.model).getId());
+    }
+
+}
@@ -0,0 +1,101 @@
+package lphybeast;
+
+import beast.base.inference.StateNode;
+import beast.base.inference.parameter.RealParameter;
+import lphy.core.logger.LoggerUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Benchmark the state nodes in {@link BEASTContext} up to 100k state nodes.
+ * The times are only logged, and the state built by them is checked,
+ * so that the test does not depend on the machine.
+ */
+public class StateNodeSetBenchmarkTest {
+
+    private static final int[] SIZES = new int[]{1000, 10000, 100000};
+
+    @BeforeAll
+    static void loadServices() {
+        TestUtils.loadServices();
+    }
+
+    private List<StateNode> createStateNodes(int n) {
+        List<StateNode> stateNodes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            RealParameter parameter = new RealParameter(new Double[]{(double) i});
+            parameter.setID("p" + i);
+            stateNodes.add(parameter);
+        }
+        return stateNodes;
+    }
+
+    private BEASTContext createContext() throws IOException {
+        return new BEASTContext(null, null, new LPhyBeastConfig());
+    }
+
+    private void buildState(BEASTContext context, List<StateNode> stateNodes) {
+        for (StateNode stateNode : stateNodes) {
+            context.addStateNode(stateNode, null, true);
+            // e.g. Slice of the same vector adds its parent again
+            context.addStateNode(stateNode, null, true);
+        }
+        // e.g. coerce IntegerParameter to RealParameter
+        for (int i = 0; i < stateNodes.size(); i += 10)
+            context.removeBEASTObject(stateNodes.get(i));
+    }
+
+    @Test
+    public void testInsertionOrder() throws IOException {
+        List<StateNode> stateNodes = createStateNodes(100);
+        BEASTContext context = createContext();
+        for (StateNode stateNode : stateNodes)
+            context.addStateNode(stateNode, null, true);
+        // no duplicates
+        for (StateNode stateNode : stateNodes)
+            context.addStateNode(stateNode, null, true);
+        context.removeBEASTObject(stateNodes.get(50));
+        context.addStateNode(stateNodes.get(50), null, true);
+
+        List<StateNode> expected = new ArrayList<>(stateNodes);
+        // re-added in the end
+        expected.add(expected.remove(50));
+        assertEquals(expected, context.getState());
+    }
+
+    @Test
+    public void testLargeState() throws IOException {
+        for (int size : SIZES) {
+            List<StateNode> stateNodes = createStateNodes(size);
+            // warm up, then take the median of 5 runs
+            buildState(createContext(), stateNodes);
+            long[] times = new long[5];
+            BEASTContext context = null;
+            for (int r = 0; r < times.length; r++) {
+                context = createContext();
+                final long start = System.nanoTime();
+                buildState(context, stateNodes);
+                times[r] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+            LoggerUtils.log.info(String.format("%d state nodes : %.1f ms, %.1f ns per state node",
+                    size, times[times.length / 2] / 1e6, (double) times[times.length / 2] / size));
+
+            // no duplicates, and the rest are in the order of adding
+            List<StateNode> expected = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                if (i % 10 != 0)
+                    expected.add(stateNodes.get(i));
+            }
+            assertEquals(expected, context.getState());
+        }
+    }
+
+}
@@ -1,11 +1,24 @@
 package lphybeast;
 
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.alignment.Sequence;
+import beast.base.evolution.likelihood.GenericTreeLikelihood;
+import beast.base.evolution.likelihood.TreeLikelihood;
+import beast.base.evolution.sitemodel.SiteModel;
+import beast.base.evolution.substitutionmodel.Frequencies;
+import beast.base.evolution.substitutionmodel.HKY;
+import beast.base.evolution.tree.TreeParser;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.parameter.RealParameter;
 import lphy.core.io.UserDir;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -16,6 +29,10 @@ public class TestUtils {
 
     private static LPhyBeast lPhyBEAST;
 
+    // the taxa of the tree to calculate the likelihood of small nucleotide alignments
+    public static final String[] TAXA = {"A", "B", "C", "D"};
+    public static final String NEWICK = "((A:0.1,B:0.2):0.05,(C:0.15,D:0.1):0.1);";
+
     private TestUtils() { }
 
     /**
@@ -121,4 +138,92 @@ public class TestUtils {
                 traitLogger.contains("tree=\"@psi\"") && xml.contains("mode=\"tree\"") &&
                 xml.contains("<metadata"), "TreeWithTraitLogger metadata : " + traitLogger );
     }
+
+    /**
+     * Require BEAST data types loaded by {@link #loadServices()}.
+     * @param taxa       taxa names
+     * @param sequences  nucleotide sequences in the order of taxa
+     * @return  the nucleotide alignment.
+     */
+    public static Alignment createAlignment(String[] taxa, String... sequences) {
+        return createAlignment(taxa, sequences, null);
+    }
+
+    /**
+     * @param weights  the weights of the site patterns, or null if the sequences are not compressed.
+     * @see #createAlignment(String[], String...)
+     */
+    public static Alignment createAlignment(String[] taxa, String[] sequences, String weights) {
+        List<Sequence> sequenceList = new ArrayList<>();
+        for (int i = 0; i < taxa.length; i++)
+            sequenceList.add(new Sequence(taxa[i], sequences[i]));
+        Alignment alignment = new Alignment();
+        alignment.setInputValue("sequence", sequenceList);
+        alignment.setInputValue("dataType", "nucleotide");
+        if (weights != null)
+            alignment.setInputValue("weights", weights);
+        alignment.initAndValidate();
+        return alignment;
+    }
+
+    /**
+     * @param taxa  the taxa of the tree, or null
+     * @return  the fixed tree of {@link #NEWICK}.
+     */
+    public static TreeParser createTree(Alignment taxa) {
+        TreeParser tree = new TreeParser();
+        tree.initByName("newick", NEWICK, "taxa", taxa, "IsLabelledNewick", true, "adjustTipHeights", false);
+        return tree;
+    }
+
+    /**
+     * @param frequencies  the frequencies of HKY
+     * @param shape        the gamma shape of 4 categories
+     * @return  HKY (kappa = 2) + gamma site model.
+     */
+    public static SiteModel createHKYSiteModel(Frequencies frequencies, double shape) {
+        HKY hky = new HKY();
+        hky.initByName("kappa", new RealParameter("2.0"), "frequencies", frequencies);
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName("substModel", hky, "gammaCategoryCount", 4, "shape", new RealParameter(String.valueOf(shape)));
+        return siteModel;
+    }
+
+    /**
+     * @param alignment  the alignment of {@link #TAXA}
+     * @return  the log likelihood of HKY + gamma on the fixed tree, where the frequencies are from the alignment.
+     */
+    public static double calculateLogP(Alignment alignment) {
+        return calculateLogP(new TreeLikelihood(), alignment, null, false);
+    }
+
+    /**
+     * @param likelihood      the tree likelihood to initialise
+     * @param alignment       the alignment of {@link #TAXA}
+     * @param frequencies     the frequencies, or null to use the frequencies of the alignment.
+     * @param useAmbiguities  if use the ambiguities in the tree likelihood
+     * @return  the log likelihood of HKY + gamma on the fixed tree.
+     */
+    public static double calculateLogP(GenericTreeLikelihood likelihood, Alignment alignment,
+                                       Frequencies frequencies, boolean useAmbiguities) {
+        if (frequencies == null) {
+            frequencies = new Frequencies();
+            frequencies.initByName("data", alignment);
+        }
+        likelihood.initByName("data", alignment, "tree", createTree(alignment),
+                "siteModel", createHKYSiteModel(frequencies, 0.5), "useAmbiguities", useAmbiguities);
+        return likelihood.calculateLogP();
+    }
+
+    /**
+     * @param parameter  the parameter
+     * @return  Normal(mean = 1, sigma = 1) prior on the parameter.
+     */
+    public static Prior createPrior(RealParameter parameter) {
+        Normal normal = new Normal();
+        normal.initByName("mean", new RealParameter("1.0"), "sigma", new RealParameter("1.0"));
+        Prior prior = new Prior();
+        prior.initByName("x", parameter, "distr", normal);
+        return prior;
+    }
 }
@@ -0,0 +1,121 @@
+package lphybeast.evolution.alignment;
+
+import beast.base.core.BEASTInterface;
+import beast.base.evolution.alignment.Alignment;
+import beast.base.parser.XMLParser;
+import beast.base.parser.XMLProducer;
+import lphybeast.TestUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static lphybeast.TestUtils.TAXA;
+import static lphybeast.TestUtils.calculateLogP;
+import static lphybeast.TestUtils.createAlignment;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the alignment loaded from the binary file is the same as the original.
+ */
+public class MappedAlignmentTest {
+
+    private static final String[] SEQUENCES = {
+            "ACGTACGTAAGGCTTA-CGN",
+            "ACGTACCTAAGGCTTA-CGA",
+            "ACGAACGTATGGCTAA-CGA",
+            "ACGAACGTATGGGTAA-CGR"};
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeAll
+    static void loadServices() {
+        // BEAST data types
+        TestUtils.loadServices();
+    }
+
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        Alignment original = createAlignment(TAXA, SEQUENCES);
+        Path file = tempDir.resolve("D.bin");
+        MappedAlignment.write(file, original);
+
+        MappedAlignment mapped = new MappedAlignment();
+        mapped.initByName("fileName", file.toString(), "dataType", "nucleotide");
+
+        assertEquals(original.getTaxaNames(), mapped.getTaxaNames());
+        assertEquals(original.getSiteCount(), mapped.getSiteCount());
+        assertEquals(original.getPatternCount(), mapped.getPatternCount());
+        assertArrayEquals(original.getWeights(), mapped.getWeights());
+        for (int i = 0; i < original.getPatternCount(); i++)
+            assertArrayEquals(original.getPattern(i), mapped.getPattern(i));
+        assertEquals(original.getCounts(), mapped.getCounts());
+        for (String taxon : TAXA)
+            assertEquals(original.getSequenceAsString(taxon), mapped.getSequenceAsString(taxon));
+        assertEquals(calculateLogP(original), calculateLogP(mapped), 1e-10);
+
+        // the data type must be the same
+        MappedAlignment aminoAcid = new MappedAlignment();
+        assertThrows(RuntimeException.class,
+                () -> aminoAcid.initByName("fileName", file.toString(), "dataType", "aminoacid"));
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        Path file = tempDir.resolve("D.bin");
+        MappedAlignment.write(file, createAlignment(TAXA, SEQUENCES));
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+
+        MappedAlignment mapped = new MappedAlignment();
+        assertThrows(RuntimeException.class,
+                () -> mapped.initByName("fileName", file.toString(), "dataType", "nucleotide"));
+    }
+
+    @Test
+    public void testRelativeToPrefix() throws Exception {
+        Alignment original = createAlignment(TAXA, SEQUENCES);
+        MappedAlignment.write(tempDir.resolve("D.bin"), original);
+
+        // as the log files, given by -working or -prefix of BEAST
+        final String prefix = System.getProperty("file.name.prefix");
+        System.setProperty("file.name.prefix", tempDir.toAbsolutePath() + File.separator);
+        try {
+            MappedAlignment mapped = new MappedAlignment();
+            mapped.initByName("fileName", "D.bin", "dataType", "nucleotide");
+            assertEquals(original.getPatternCount(), mapped.getPatternCount());
+            // absolute paths are not prefixed
+            assertEquals(tempDir.resolve("D.bin").toAbsolutePath(),
+                    MappedAlignment.getFilePath(tempDir.resolve("D.bin").toAbsolutePath().toString()));
+        } finally {
+            if (prefix == null)
+                System.clearProperty("file.name.prefix");
+            else
+                System.setProperty("file.name.prefix", prefix);
+        }
+    }
+
+    @Test
+    public void testXML() throws Exception {
+        Alignment original = createAlignment(TAXA, SEQUENCES);
+        Path file = tempDir.resolve("D.bin");
+        MappedAlignment.write(file, original);
+
+        MappedAlignment mapped = new MappedAlignment();
+        mapped.initByName("fileName", file.toString(), "dataType", "nucleotide");
+        mapped.setID("D");
+        String xml = new XMLProducer().toXML(mapped);
+        assertFalse(xml.contains(SEQUENCES[0]));
+        assertFalse(xml.contains("<sequence"));
+
+        BEASTInterface parsed = new XMLParser().parseBareFragment(xml, true);
+        assertInstanceOf(MappedAlignment.class, parsed);
+        assertEquals(calculateLogP(original), calculateLogP((Alignment) parsed), 1e-10);
+    }
+
+}
@@ -0,0 +1,151 @@
+package lphybeast.inference;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Loggable;
+import beast.base.evolution.operator.kernel.BactrianScaleOperator;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.Logger;
+import beast.base.inference.State;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.operator.BitFlipOperator;
+import beast.base.inference.operator.IntRandomWalkOperator;
+import beast.base.inference.parameter.BooleanParameter;
+import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.RealParameter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the binary trace log is converted into the same trace log as BEAST logs in text.
+ */
+public class BinaryTraceLoggerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testSameAsTextLog() throws Exception {
+        RealParameter x = new RealParameter();
+        x.initByName("value", "1.0 2.0", "lower", 0.0);
+        x.setID("x");
+        IntegerParameter n = new IntegerParameter();
+        n.initByName("value", "3", "lower", 0, "upper", 10);
+        n.setID("n");
+        BooleanParameter indicators = new BooleanParameter();
+        indicators.initByName("value", "true false true");
+        indicators.setID("indicators");
+
+        Normal normal = new Normal();
+        normal.initByName("mean", new RealParameter("1.0"), "sigma", new RealParameter("1.0"));
+        Prior prior = new Prior();
+        prior.initByName("x", x, "distr", normal);
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", List.of(prior));
+        posterior.setID("posterior");
+
+        BactrianScaleOperator scale = new BactrianScaleOperator();
+        scale.initByName("parameter", x, "weight", 1.0);
+        IntRandomWalkOperator randomWalk = new IntRandomWalkOperator();
+        randomWalk.initByName("parameter", n, "windowSize", 1, "weight", 1.0);
+        BitFlipOperator bitFlip = new BitFlipOperator();
+        bitFlip.initByName("parameter", indicators, "weight", 1.0);
+
+        TextLoggable text = new TextLoggable();
+        text.setID("text");
+        List<BEASTObject> loggables = List.of(posterior, x, n, indicators, text);
+        Path textLog = tempDir.resolve("test.log");
+        Logger textLogger = new Logger();
+        textLogger.initByName("logEvery", 10, "log", loggables, "fileName", textLog.toString());
+        Path binaryLog = tempDir.resolve("test.log" + BinaryTraceLogger.EXTENSION);
+        BinaryTraceLogger binaryLogger = new BinaryTraceLogger();
+        binaryLogger.initByName("logEvery", 10, "log", loggables, "fileName", binaryLog.toString());
+
+        State state = new State();
+        state.initByName("stateNode", List.of(x, n, indicators));
+        ProfilingMCMC mcmc = new ProfilingMCMC();
+        mcmc.initByName("distribution", posterior, "state", state, "operator", List.of(scale, randomWalk, bitFlip),
+                "logger", List.of(textLogger, binaryLogger), "chainLength", 50000L);
+        mcmc.setStateFile(tempDir.resolve("test.state").toString(), false);
+        mcmc.run();
+
+        Path converted = tempDir.resolve("converted.log");
+        BinaryTraceConverter.convert(binaryLog, converted);
+        List<String> expected = Files.readAllLines(textLog).stream()
+                .filter(line -> !line.startsWith("#")).toList();
+        // more than one block
+        assertEquals(1 + 5001, expected.size());
+        List<String> lines = Files.readAllLines(converted);
+        // the text which is not a number is NaN
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(expected.get(i).replace("foo", "NaN"), lines.get(i), "line " + i);
+        assertTrue(lines.get(0).startsWith("Sample\tposterior\tx.1\tx.2\tn\tindicators.1"));
+    }
+
+    @Test
+    public void testThinAndIncompleteBlock() throws Exception {
+        Path binaryLog = tempDir.resolve("test.log" + BinaryTraceLogger.EXTENSION);
+        final int samples = BinaryTraceWriter.BLOCK_ROWS * 2 + 10;
+        try (BinaryTraceWriter writer = new BinaryTraceWriter(Files.newOutputStream(binaryLog),
+                List.of("a", "b"), new byte[]{BinaryTraceWriter.DOUBLE, BinaryTraceWriter.INT})) {
+            for (int i = 0; i < samples; i++)
+                writer.write(i * 10L, new double[]{i * 0.5, i});
+        }
+
+        BinaryTraceLogger.thinLog(binaryLog, 20);
+        try (BinaryTraceReader reader = new BinaryTraceReader(binaryLog)) {
+            assertEquals(List.of("a", "b"), reader.getNames());
+            long count = 0;
+            while (reader.nextBlock()) {
+                for (int r = 0; r < reader.getRowCount(); r++) {
+                    assertEquals(count * 20, reader.getSample(r));
+                    assertEquals(count * 2, reader.getValue(1, r));
+                    assertEquals(count, reader.getValue(0, r));
+                    count++;
+                }
+            }
+            assertEquals(samples / 2, count);
+        }
+
+        // as if the process is killed while writing the last block
+        byte[] bytes = Files.readAllBytes(binaryLog);
+        Files.write(binaryLog, Arrays.copyOf(bytes, bytes.length - 3));
+        try (BinaryTraceReader reader = new BinaryTraceReader(binaryLog)) {
+            long count = 0;
+            while (reader.nextBlock())
+                count += reader.getRowCount();
+            assertEquals(BinaryTraceWriter.BLOCK_ROWS, count);
+        }
+    }
+
+    // a loggable which is not a function, and logs a text
+    public static class TextLoggable extends BEASTObject implements Loggable {
+
+        @Override
+        public void initAndValidate() {
+        }
+
+        @Override
+        public void init(PrintStream out) {
+            out.print("text.value\ttext.label\t");
+        }
+
+        @Override
+        public void log(long sample, PrintStream out) {
+            out.print(sample * 0.25 + "\tfoo\t");
+        }
+
+        @Override
+        public void close(PrintStream out) {
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package lphybeast.inference;
+
+import beast.base.evolution.operator.kernel.BactrianScaleOperator;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.Logger;
+import beast.base.inference.State;
+import beast.base.inference.distribution.Normal;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.parameter.RealParameter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the MCMC stops once the ESS target is reached,
+ * and the log is thinned to the final interval.
+ */
+public class ESSTargetMCMCTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testStopAtESSTarget() throws Exception {
+        RealParameter x = new RealParameter();
+        x.initByName("value", "1.0", "lower", 0.0);
+        x.setID("x");
+
+        Normal normal = new Normal();
+        normal.initByName("mean", new RealParameter("1.0"), "sigma", new RealParameter("1.0"));
+        Prior prior = new Prior();
+        prior.initByName("x", x, "distr", normal);
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", List.of(prior));
+        posterior.setID("posterior");
+
+        BactrianScaleOperator scale = new BactrianScaleOperator();
+        scale.initByName("parameter", x, "weight", 1.0);
+        scale.setID("x.scale");
+
+        Path logFile = tempDir.resolve("test.log");
+        Logger logger = new Logger();
+        logger.initByName("logEvery", 1, "log", List.of(posterior, x), "fileName", logFile.toString());
+
+        State state = new State();
+        state.initByName("stateNode", List.of(x));
+        final long maxLength = 10000000L;
+        final int samples = 200;
+        ESSTargetMCMC mcmc = new ESSTargetMCMC();
+        mcmc.initByName("distribution", posterior, "state", state, "operator", List.of(scale),
+                "logger", logger, "chainLength", maxLength,
+                "essTarget", 100.0, "function", List.of(x), "samples", samples);
+        mcmc.setStateFile(tempDir.resolve("test.state").toString(), false);
+        mcmc.run();
+
+        assertEquals(List.of("posterior", "x"), mcmc.getTraceNames());
+        for (double ess : mcmc.getESS())
+            assertTrue(ess >= 100.0, "ESS = " + ess);
+
+        List<Long> logged = Files.readAllLines(logFile).stream()
+                .filter(line -> !line.startsWith("#") && !line.startsWith("Sample"))
+                .map(line -> Long.parseLong(line.split("\t")[0])).toList();
+        // stop far before the maximum length
+        long last = logged.get(logged.size() - 1);
+        assertTrue(last < maxLength, "last sample " + last);
+        assertTrue(logged.size() >= samples && logged.size() <= 2 * samples, logged.size() + " samples");
+        // regular interval
+        long interval = logged.get(1) - logged.get(0);
+        for (int i = 0; i < logged.size(); i++)
+            assertEquals(i * interval, logged.get(i));
+    }
+
+    @Test
+    public void testThinLog() throws Exception {
+        Path treeLog = tempDir.resolve("test.trees");
+        Files.write(treeLog, List.of("#NEXUS", "Begin trees;", "\tTranslate", "\t\t1 A,", "\t\t2 B", ";",
+                "tree STATE_0 = (1:1.0,2:1.0):0.0;", "tree STATE_10 = (1:1.0,2:1.0):0.0;",
+                "tree STATE_20 = (1:1.0,2:1.0):0.0;", "End;"));
+        ESSTargetMCMC.thinLog(treeLog, 20);
+        assertEquals(List.of("#NEXUS", "Begin trees;", "\tTranslate", "\t\t1 A,", "\t\t2 B", ";",
+                "tree STATE_0 = (1:1.0,2:1.0):0.0;", "tree STATE_20 = (1:1.0,2:1.0):0.0;", "End;"),
+                Files.readAllLines(treeLog));
+
+        Path traceLog = tempDir.resolve("test.log");
+        Files.write(traceLog, List.of("# model", "Sample\tx", "0\t1.0", "5\t1.5", "10\t2.0", "15\t2.5"));
+        ESSTargetMCMC.thinLog(traceLog, 10);
+        assertEquals(List.of("# model", "Sample\tx", "0\t1.0", "10\t2.0"), Files.readAllLines(traceLog));
+    }
+
+}
@@ -0,0 +1,90 @@
+package lphybeast.inference;
+
+import beast.base.evolution.operator.kernel.BactrianScaleOperator;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.Logger;
+import beast.base.inference.MCMC;
+import beast.base.inference.State;
+import beast.base.inference.distribution.LogNormalDistributionModel;
+import beast.base.inference.distribution.Prior;
+import beast.base.inference.parameter.RealParameter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the in-process run samples from the prior given by -sp,
+ * as the MCMC is created for the XML, where sampleFromPrior is set after it is validated.
+ */
+public class InProcessRunnerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testSampleFromPrior() throws Exception {
+        RealParameter x = new RealParameter();
+        x.initByName("value", "1.0", "lower", 0.0);
+        x.setID("x");
+
+        CompoundDistribution prior = createCompound("prior", x, "0.0");
+        // far from the prior, so the samples would move if the likelihood was included
+        CompoundDistribution likelihood = createCompound(ProfilingMCMC.LIKELIHOOD_ID, x, "5.0");
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", List.of(prior, likelihood));
+        posterior.setID("posterior");
+
+        BactrianScaleOperator scale = new BactrianScaleOperator();
+        scale.initByName("parameter", x, "weight", 1.0);
+        Logger logger = new Logger();
+        // relative to the directory of the XML
+        logger.initByName("logEvery", 100, "log", List.of(posterior, prior, x), "fileName", "test.log");
+        State state = new State();
+        state.initByName("stateNode", List.of(x));
+
+        MCMC mcmc = new MCMC();
+        mcmc.initByName("distribution", posterior, "state", state, "operator", List.of(scale),
+                "logger", List.of(logger), "chainLength", 100000L);
+        // as BEASTContext#createMCMC, so that the likelihood is still in the XML
+        mcmc.setInputValue("sampleFromPrior", true);
+        assertTrue(posterior.pDistributions.get().contains(likelihood));
+
+        final String prefix = System.getProperty("file.name.prefix");
+        InProcessRunner.run(mcmc, tempDir.resolve("test.xml"), 777L);
+        assertEquals(prefix, System.getProperty("file.name.prefix"));
+
+        assertFalse(posterior.pDistributions.get().contains(likelihood), "likelihood excluded");
+        assertTrue(Files.exists(tempDir.resolve("test.xml.state")));
+        List<String> lines = Files.readAllLines(tempDir.resolve("test.log")).stream()
+                .filter(line -> !line.startsWith("#")).toList();
+        assertEquals("Sample\tposterior\tprior\tx", lines.get(0).trim());
+        assertEquals(1 + 1001, lines.size());
+        double mean = 0;
+        for (String line : lines.subList(1, lines.size())) {
+            String[] values = line.split("\t");
+            // the posterior is the prior only
+            assertEquals(Double.parseDouble(values[2]), Double.parseDouble(values[1]), 1e-10, line);
+            mean += Math.log(Double.parseDouble(values[3]));
+        }
+        mean /= lines.size() - 1;
+        // the mean of log(x) is 0 under the prior, but 5 under the posterior
+        assertEquals(0.0, mean, 0.5);
+    }
+
+    private CompoundDistribution createCompound(String id, RealParameter x, String logMean) {
+        LogNormalDistributionModel logNormal = new LogNormalDistributionModel();
+        logNormal.initByName("M", new RealParameter(logMean), "S", new RealParameter("0.5"));
+        Prior prior = new Prior();
+        prior.initByName("x", x, "distr", logNormal);
+        CompoundDistribution compound = new CompoundDistribution();
+        compound.initByName("distribution", List.of(prior));
+        compound.setID(id);
+        return compound;
+    }
+
+}
@@ -0,0 +1,147 @@
+package lphybeast.inference;
+
+import beast.base.core.BEASTObject;
+import beast.base.core.Loggable;
+import beast.base.evolution.operator.kernel.BactrianScaleOperator;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.Logger;
+import beast.base.inference.State;
+import beast.base.inference.parameter.RealParameter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static lphybeast.TestUtils.createPrior;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the performance log of a short MCMC has the operator time and evaluations.
+ */
+public class PerformanceLoggerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testPerformanceLog() throws Exception {
+        RealParameter x = new RealParameter();
+        x.initByName("value", "1.0", "lower", 0.0);
+        x.setID("x");
+        RealParameter y = new RealParameter();
+        y.initByName("value", "2.0", "lower", 0.0);
+        y.setID("y");
+
+        CompoundDistribution prior = new CompoundDistribution();
+        prior.initByName("distribution", List.of(createPrior(x)));
+        prior.setID("prior");
+        // not a real likelihood, only to count its evaluations
+        CompoundDistribution likelihood = new CompoundDistribution();
+        likelihood.initByName("distribution", List.of(createPrior(y)));
+        likelihood.setID("likelihood");
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", List.of(prior, likelihood));
+        posterior.setID("posterior");
+
+        BactrianScaleOperator scaleX = new BactrianScaleOperator();
+        scaleX.initByName("parameter", x, "weight", 3.0);
+        scaleX.setID("x.scale");
+        BactrianScaleOperator scaleY = new BactrianScaleOperator();
+        scaleY.initByName("parameter", y, "weight", 1.0);
+        scaleY.setID("y.scale");
+
+        PerformanceLogger performanceLogger = new PerformanceLogger();
+        performanceLogger.initByName("operator", List.of(scaleX, scaleY));
+        Path logFile = tempDir.resolve("test.perf.log");
+        Logger logger = new Logger();
+        logger.initByName("logEvery", 1000, "log", performanceLogger, "fileName", logFile.toString());
+
+        State state = new State();
+        state.initByName("stateNode", List.of(x, y));
+        ProfilingMCMC mcmc = new ProfilingMCMC();
+        mcmc.initByName("distribution", posterior, "state", state, "operator", List.of(scaleX, scaleY),
+                "logger", logger, "chainLength", 10000L);
+        mcmc.setStateFile(tempDir.resolve("test.state").toString(), false);
+        mcmc.run();
+
+        List<String> lines = Files.readAllLines(logFile).stream()
+                .filter(line -> !line.startsWith("#")).toList();
+        List<String> header = Arrays.asList(lines.get(0).split("\t"));
+        assertTrue(header.containsAll(List.of("wallSeconds", "x.scale.calls", "x.scale.seconds", "y.scale.calls",
+                "posterior.evaluations", "likelihood.evaluations", "prior.evaluations", "heapUsedMB", "gcCount")));
+        // sample 0 to 10000
+        assertEquals(1 + 11, lines.size());
+
+        String[] last = lines.get(lines.size() - 1).split("\t");
+        long callsX = Long.parseLong(last[header.indexOf("x.scale.calls")]);
+        long callsY = Long.parseLong(last[header.indexOf("y.scale.calls")]);
+        // the sample is logged by MCMC before its proposal is counted
+        assertEquals(10000, callsX + callsY);
+        assertTrue(callsX > callsY);
+        // each operator only changes one of the likelihood and prior,
+        // and MCMC recalculates the whole posterior to check it at samples 0 and 10000
+        long likelihoodEvaluations = Long.parseLong(last[header.indexOf("likelihood.evaluations")]);
+        long priorEvaluations = Long.parseLong(last[header.indexOf("prior.evaluations")]);
+        assertTrue(likelihoodEvaluations <= callsY + 2);
+        assertTrue(priorEvaluations <= callsX + 2);
+        assertTrue(likelihoodEvaluations > 0 && priorEvaluations > 0);
+        assertTrue(Double.parseDouble(last[header.indexOf("x.scale.seconds")]) > 0);
+    }
+
+    @Test
+    public void testLoggingNotTimed() throws Exception {
+        RealParameter x = new RealParameter();
+        x.initByName("value", "1.0", "lower", 0.0);
+        x.setID("x");
+        BactrianScaleOperator scaleX = new BactrianScaleOperator();
+        scaleX.initByName("parameter", x, "weight", 1.0);
+        scaleX.setID("x.scale");
+
+        Logger logger = new Logger();
+        logger.initByName("logEvery", 1, "log", new SlowLoggable(), "fileName", tempDir.resolve("slow.log").toString());
+        State state = new State();
+        state.initByName("stateNode", List.of(x));
+        ProfilingMCMC mcmc = new ProfilingMCMC();
+        mcmc.initByName("distribution", createPrior(x), "state", state, "operator", List.of(scaleX),
+                "logger", logger, "chainLength", 100L);
+        mcmc.setStateFile(tempDir.resolve("slow.state").toString(), false);
+        mcmc.run();
+
+        // sample 0 to 100, where each sample takes 2 ms to log, which is much slower than the proposal
+        assertEquals(101, mcmc.getCalls(scaleX));
+        assertTrue(mcmc.getLoggingNanos() >= 101 * SlowLoggable.MILLIS * 1_000_000L);
+        assertTrue(mcmc.getNanos(scaleX) < mcmc.getLoggingNanos() / 2,
+                "operator " + mcmc.getNanos(scaleX) + " ns, logging " + mcmc.getLoggingNanos() + " ns");
+    }
+
+    // sleeps when a sample is logged
+    private static class SlowLoggable extends BEASTObject implements Loggable {
+        static final int MILLIS = 2;
+
+        @Override
+        public void initAndValidate() {
+        }
+
+        @Override
+        public void init(PrintStream out) {
+        }
+
+        @Override
+        public void log(long sample, PrintStream out) {
+            try {
+                Thread.sleep(MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void close(PrintStream out) {
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package lphybeast.tobeast;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.likelihood.ThreadedTreeLikelihood;
+import lphybeast.TestUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static lphybeast.TestUtils.TAXA;
+import static lphybeast.TestUtils.calculateLogP;
+import static lphybeast.TestUtils.createAlignment;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the tip states have the same likelihood as the partials,
+ * if the alignment has no partially ambiguous state.
+ */
+public class AlignmentProfileTest {
+
+    @BeforeAll
+    static void loadServices() {
+        // BEAST data types
+        TestUtils.loadServices();
+    }
+
+    @Test
+    public void testUnknownStates() {
+        Alignment alignment = createAlignment(TAXA,
+                "ACGTACGTAA-GCTTA-CGN",
+                "ACGTACCTAA-GCTTA-CGA",
+                "ACGAACGTAT-GCTAA-CGA",
+                "NNNNNNNNNN-NNNNN-NN?");
+        AlignmentProfile profile = AlignmentProfile.profile(alignment);
+        assertFalse(profile.hasPartialAmbiguity());
+        assertEquals(0, profile.getAmbiguousStates());
+        // D, 2 gap columns, and N in A
+        assertEquals(20 + 2 * 3 + 1, profile.getUnknownStates());
+        assertEquals(2, profile.getUnknownSites());
+        assertEquals(1, profile.getMissingTaxa());
+
+        assertEquals(calculateLogP(new ThreadedTreeLikelihood(), alignment, null, true),
+                calculateLogP(new ThreadedTreeLikelihood(), alignment, null, false), 1e-10);
+    }
+
+    @Test
+    public void testPartialAmbiguity() {
+        Alignment alignment = createAlignment(TAXA,
+                "ACGTACGTAAGGCTTA-CGR",
+                "ACGTACCTAAGGCTTA-CGA",
+                "ACGAACGTATGGCTAA-CGA",
+                "ACGAACGTATGGGTAA-CGY");
+        AlignmentProfile profile = AlignmentProfile.profile(alignment);
+        assertTrue(profile.hasPartialAmbiguity());
+        assertEquals(2, profile.getAmbiguousStates());
+        assertEquals(0, profile.getMissingTaxa());
+
+        assertNotEquals(calculateLogP(new ThreadedTreeLikelihood(), alignment, null, true),
+                calculateLogP(new ThreadedTreeLikelihood(), alignment, null, false), 1e-6);
+    }
+
+}
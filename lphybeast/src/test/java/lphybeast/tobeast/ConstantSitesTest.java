@@ -0,0 +1,122 @@
+package lphybeast.tobeast;
+
+import beast.base.core.ProgramStatus;
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.alignment.FilteredAlignment;
+import beast.base.evolution.datatype.Nucleotide;
+import beast.base.evolution.likelihood.ThreadedTreeLikelihood;
+import beast.base.evolution.likelihood.TreeLikelihood;
+import beast.base.evolution.substitutionmodel.Frequencies;
+import beast.base.inference.parameter.IntegerParameter;
+import beast.base.inference.parameter.RealParameter;
+import lphybeast.TestUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static lphybeast.TestUtils.TAXA;
+import static lphybeast.TestUtils.calculateLogP;
+import static lphybeast.TestUtils.createAlignment;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the alignment of variable sites with constant site weights has the same likelihood as the original.
+ */
+public class ConstantSitesTest {
+
+    // site 16 is all gaps, site 17 and 19 are constant if ignoring the unknown state
+    private static final String[] SEQUENCES = {
+            "ACGTACGTAAGGCTTA-CGN",
+            "ACGTACCTAAGGCTTA-CGA",
+            "ACGAACGTATGGCTAA-?GA",
+            "ACGAACGTATGGGTAA-CGA"};
+
+    @BeforeAll
+    static void loadServices() {
+        // BEAST data types
+        TestUtils.loadServices();
+    }
+
+    @Test
+    public void testCompress() {
+        ConstantSites constantSites = ConstantSites.compress(SEQUENCES, new Nucleotide(), false);
+        assertEquals(20, constantSites.getSiteCount());
+        // A, C, G, T
+        assertArrayEquals(new int[]{4, 2, 4, 2}, constantSites.getWeights());
+        assertEquals(8, constantSites.getVariableSiteCount());
+        assertEquals("TGACT-CN", constantSites.getVariableSequences()[0]);
+        assertEquals("4 2 4 2", constantSites.getWeightsString());
+
+        constantSites = ConstantSites.compress(SEQUENCES, new Nucleotide(), true);
+        assertArrayEquals(new int[]{5, 3, 4, 2}, constantSites.getWeights());
+        // all gaps are kept
+        assertEquals("TGACT-", constantSites.getVariableSequences()[0]);
+        assertFalse(constantSites.hasPartialAmbiguity());
+
+        String[] sequences = SEQUENCES.clone();
+        sequences[0] = sequences[0].replace('N', 'R');
+        assertTrue(ConstantSites.compress(sequences, new Nucleotide(), false).hasPartialAmbiguity());
+    }
+
+    @Test
+    public void testLikelihood() {
+        Alignment original = createAlignment(TAXA, SEQUENCES);
+        FilteredAlignment filtered = createFilteredAlignment(SEQUENCES);
+        // only variable sites, but the same patterns
+        assertEquals(8, filtered.getSiteCount());
+        assertEquals(original.getPatternCount(), filtered.getPatternCount());
+
+        // the unknown states and gaps are the same without using ambiguities
+        double logP = calculateLogP(new TreeLikelihood(), original, createFrequencies(), true);
+        assertEquals(logP, calculateLogP(new TreeLikelihood(), filtered, createFrequencies(), false), 1e-10);
+
+        // constant site weights are added to the first thread
+        int threads = ProgramStatus.m_nThreads;
+        ProgramStatus.m_nThreads = 2;
+        try {
+            assertEquals(logP, calculateLogP(new ThreadedTreeLikelihood(),
+                    createFilteredAlignment(SEQUENCES), createFrequencies(), false), 1e-10);
+        } finally {
+            ProgramStatus.m_nThreads = threads;
+        }
+    }
+
+    @Test
+    public void testLargeAlignment() {
+        // mostly constant sites
+        StringBuilder[] sb = new StringBuilder[TAXA.length];
+        for (int t = 0; t < TAXA.length; t++)
+            sb[t] = new StringBuilder();
+        String states = "ACGT";
+        for (int rep = 0; rep < 500; rep++) {
+            for (int t = 0; t < TAXA.length; t++) {
+                sb[t].append(SEQUENCES[t]);
+                sb[t].append(states.charAt(rep % 4));
+            }
+        }
+        String[] sequences = new String[TAXA.length];
+        for (int t = 0; t < TAXA.length; t++)
+            sequences[t] = sb[t].toString();
+
+        Alignment original = createAlignment(TAXA, sequences);
+        FilteredAlignment filtered = createFilteredAlignment(sequences);
+        assertEquals(original.getPatternCount(), filtered.getPatternCount());
+        assertEquals(calculateLogP(new TreeLikelihood(), original, createFrequencies(), true),
+                calculateLogP(new TreeLikelihood(), filtered, createFrequencies(), false), 1e-8);
+    }
+
+    private FilteredAlignment createFilteredAlignment(String[] sequences) {
+        ConstantSites constantSites = ConstantSites.compress(sequences, new Nucleotide(), false);
+        FilteredAlignment filtered = new FilteredAlignment();
+        filtered.initByName("data", createAlignment(TAXA, constantSites.getVariableSequences()), "filter", "-",
+                "constantSiteWeights", new IntegerParameter(constantSites.getWeightsString()));
+        return filtered;
+    }
+
+    // fixed, as the frequencies of the filtered alignment are only from the variable sites
+    private Frequencies createFrequencies() {
+        Frequencies frequencies = new Frequencies();
+        frequencies.initByName("frequencies", new RealParameter("0.3 0.2 0.2 0.3"));
+        return frequencies;
+    }
+
+}
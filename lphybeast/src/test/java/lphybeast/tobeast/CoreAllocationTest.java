@@ -0,0 +1,57 @@
+package lphybeast.tobeast;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the threads never exceed the cores, and follow the pattern counts.
+ */
+public class CoreAllocationTest {
+
+    @Test
+    public void testSinglePartition() {
+        CoreAllocation allocation = CoreAllocation.allocate(8, new int[]{10000}, new boolean[]{true});
+        assertEquals(1, allocation.getPartitionThreads());
+        assertArrayEquals(new int[]{8}, allocation.getThreads());
+
+        // every thread has at least 500 patterns
+        allocation = CoreAllocation.allocate(8, new int[]{1600}, new boolean[]{true});
+        assertArrayEquals(new int[]{3}, allocation.getThreads());
+        assertEquals(3, allocation.getTotalThreads());
+    }
+
+    @Test
+    public void testPartitions() {
+        int[] patterns = new int[]{6000, 2000, 300, 4000};
+        CoreAllocation allocation = CoreAllocation.allocate(12, patterns,
+                new boolean[]{true, true, true, false});
+        assertEquals(4, allocation.getPartitionThreads());
+        // 300 patterns and TreeLikelihood only have 1 thread
+        assertEquals(1, allocation.getThreads()[2]);
+        assertEquals(1, allocation.getThreads()[3]);
+        assertTrue(allocation.getThreads()[0] > allocation.getThreads()[1]);
+        assertEquals(12, Arrays.stream(allocation.getThreads()).sum());
+        assertEquals(12, allocation.getTotalThreads());
+
+        String comment = allocation.toString(new String[]{"a", "b", "c", "d"});
+        assertTrue(comment.startsWith("Allocate 12 cores to 4 partitions, 4 in parallel, 12 threads at most"));
+        assertTrue(comment.contains("c : 300 patterns, 1 thread\n"));
+    }
+
+    @Test
+    public void testMorePartitionsThanCores() {
+        int[] patterns = new int[]{6000, 6000, 6000, 6000, 6000};
+        boolean[] threadable = new boolean[5];
+        Arrays.fill(threadable, true);
+        CoreAllocation allocation = CoreAllocation.allocate(4, patterns, threadable);
+        assertEquals(4, allocation.getPartitionThreads());
+        assertArrayEquals(new int[]{1, 1, 1, 1, 1}, allocation.getThreads());
+        assertEquals(4, allocation.getTotalThreads());
+
+        assertThrows(IllegalArgumentException.class, () -> CoreAllocation.allocate(0, patterns, threadable));
+    }
+
+}
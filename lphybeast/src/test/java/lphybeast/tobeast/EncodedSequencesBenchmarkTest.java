@@ -0,0 +1,175 @@
+package lphybeast.tobeast;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.alignment.Sequence;
+import beast.base.parser.XMLProducer;
+import lphy.base.evolution.alignment.SimpleAlignment;
+import lphy.core.model.Value;
+import lphy.core.parser.LPhyParserDictionary;
+import lphy.core.simulator.Sampler;
+import lphybeast.BEASTContext;
+import lphybeast.BEASTXMLWriter;
+import lphybeast.LPhyBeastConfig;
+import lphybeast.TestUtils;
+import lphybeast.tobeast.values.AlignmentToBEAST;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compare the memory allocated to convert an alignment and write its sequences into XML by
+ * {@link AlignmentToBEAST}, either copying the strings of sequences into the XML as default,
+ * or streaming the states by {@link EncodedSequences} given by -ss.
+ */
+public class EncodedSequencesBenchmarkTest {
+
+    private static final char[] CODES = {'A', 'C', 'G', 'T', '-'};
+    private static final String CODE_BLOCK = "D ~ PhyloCTMC(L=10000, Q=jukesCantor(), tree=tree);";
+
+    @BeforeAll
+    static void loadServices() {
+        // BEAST data types
+        TestUtils.loadServices();
+    }
+
+    private int[][] createStates(int ntaxa, int nchar) {
+        Random random = new Random(777);
+        int[][] states = new int[ntaxa][nchar];
+        for (int t = 0; t < ntaxa; t++)
+            for (int s = 0; s < nchar; s++)
+                states[t][s] = random.nextInt(CODES.length);
+        return states;
+    }
+
+    // the same as the sequence of LPhy alignment
+    private String getSequence(int[][] states, int taxon) {
+        StringBuilder sb = new StringBuilder();
+        for (int state : states[taxon])
+            sb.append(CODES[state]);
+        return sb.toString();
+    }
+
+    private Alignment createAlignment(int[][] states, List<String> sequences) {
+        List<Sequence> sequenceList = new ArrayList<>();
+        for (int t = 0; t < states.length; t++) {
+            Sequence seq = new Sequence();
+            seq.initByName("taxon", "t" + t, "value", sequences.get(t));
+            sequenceList.add(seq);
+        }
+        Alignment alignment = new Alignment();
+        alignment.initByName("sequence", sequenceList, "dataType", "nucleotide");
+        alignment.setID("D");
+        return alignment;
+    }
+
+    @Test
+    public void testSameXML() throws IOException {
+        int[][] states = createStates(5, 1000);
+        List<String> sequences = new ArrayList<>();
+        for (int t = 0; t < states.length; t++)
+            sequences.add(getSequence(states, t));
+        Alignment alignment = createAlignment(states, sequences);
+
+        StringWriter expected = new StringWriter();
+        BEASTXMLWriter.write(expected, CODE_BLOCK, new XMLProducer().toXML(alignment), null);
+
+        EncodedSequences encoded = new EncodedSequences((t, s) -> states[t][s], CODES, states.length, 1000);
+        assertEquals(sequences.get(0), encoded.getSequence(0));
+        for (int t = 0; t < states.length; t++)
+            alignment.sequenceInput.get().get(t).setInputValue("value", BEASTXMLWriter.getSequenceToken(0, t));
+        String xml = new XMLProducer().toXML(alignment);
+        assertFalse(xml.contains(sequences.get(0)));
+
+        StringWriter actual = new StringWriter();
+        BEASTXMLWriter.write(actual, CODE_BLOCK, xml, null, List.of(encoded));
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    // 20 taxa and 200000 sites, i.e. 4 million states
+    private static final String LARGE_ALIGNMENT = """
+            Θ ~ LogNormal(meanlog=3.0, sdlog=1.0);
+            ψ ~ Coalescent(theta=Θ, n=20);
+            D ~ PhyloCTMC(tree=ψ, L=200000, Q=jukesCantor());""";
+
+    // the real path of -ss: AlignmentToBEAST and then BEASTXMLWriter
+    private long writeAlignment(Value<SimpleAlignment> alignmentValue, LPhyParserDictionary parserDict,
+                                boolean streamSequences, Writer writer) throws IOException {
+        LPhyBeastConfig config = new LPhyBeastConfig();
+        config.setStreamSequences(streamSequences);
+        BEASTContext context = new BEASTContext(parserDict, config);
+
+        long start = getAllocatedBytes();
+        Alignment alignment = new AlignmentToBEAST().valueToBEAST(alignmentValue, context);
+        BEASTXMLWriter.write(writer, CODE_BLOCK, new XMLProducer().toXML(alignment), null,
+                context.getStreamedSequences());
+        long bytes = getAllocatedBytes() - start;
+        assertEquals(streamSequences ? 1 : 0, context.getStreamedSequences().size());
+        return bytes;
+    }
+
+    private static long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testAllocation() throws IOException {
+        LPhyParserDictionary parserDict = Sampler.createSampler(LARGE_ALIGNMENT).getParserDictionary();
+        Value<SimpleAlignment> alignmentValue = (Value<SimpleAlignment>)
+                parserDict.getValue("D", LPhyParserDictionary.Context.model);
+        final long states = (long) alignmentValue.value().ntaxa() * alignmentValue.value().nchar();
+
+        HashWriter stringsOut = new HashWriter();
+        HashWriter encodedOut = new HashWriter();
+        // warm up
+        writeAlignment(alignmentValue, parserDict, false, Writer.nullWriter());
+        writeAlignment(alignmentValue, parserDict, true, Writer.nullWriter());
+        // the baseline copies the sequences into strings and the XML string
+        long stringBytes = writeAlignment(alignmentValue, parserDict, false, stringsOut);
+        long encodedBytes = writeAlignment(alignmentValue, parserDict, true, encodedOut);
+
+        System.out.println("Allocate " + stringBytes / 1024 + " KB to convert and write strings, and " +
+                encodedBytes / 1024 + " KB to stream encoded sequences, given " + states + " states.");
+        assertEquals(stringsOut.length, encodedOut.length);
+        assertEquals(stringsOut.hash, encodedOut.hash);
+        // both keep the states in BEAST alignment, but strings are copied at least twice more
+        assertTrue(stringBytes - encodedBytes > 2 * states, "Strings allocate " + stringBytes +
+                " bytes, but streaming allocates " + encodedBytes + " bytes");
+    }
+
+    // compare the output without keeping it
+    private static class HashWriter extends Writer {
+        long length = 0;
+        long hash = 0;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++)
+                hash = 31 * hash + cbuf[i];
+            length += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            for (int i = off; i < off + len; i++)
+                hash = 31 * hash + str.charAt(i);
+            length += len;
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    }
+
+}
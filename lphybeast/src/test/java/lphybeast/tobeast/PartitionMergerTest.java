@@ -0,0 +1,115 @@
+package lphybeast.tobeast;
+
+import beast.base.evolution.alignment.Alignment;
+import beast.base.evolution.branchratemodel.StrictClockModel;
+import beast.base.evolution.likelihood.GenericTreeLikelihood;
+import beast.base.evolution.likelihood.ThreadedTreeLikelihood;
+import beast.base.evolution.sitemodel.SiteModel;
+import beast.base.evolution.substitutionmodel.Frequencies;
+import beast.base.evolution.substitutionmodel.HKY;
+import beast.base.evolution.tree.Tree;
+import beast.base.inference.Distribution;
+import beast.base.inference.parameter.RealParameter;
+import lphybeast.TestUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static lphybeast.TestUtils.TAXA;
+import static lphybeast.TestUtils.createAlignment;
+import static lphybeast.TestUtils.createTree;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the partitions having the identical model are merged,
+ * and the merged likelihood equals the sum of the partition likelihoods.
+ */
+public class PartitionMergerTest {
+
+    private Tree tree;
+    private HKY hky;
+
+    @BeforeAll
+    static void loadServices() {
+        // BEAST data types
+        TestUtils.loadServices();
+    }
+
+    @BeforeEach
+    void setUp() {
+        tree = createTree(null);
+
+        Frequencies frequencies = new Frequencies();
+        frequencies.initByName("frequencies", new RealParameter("0.2 0.3 0.3 0.2"));
+        hky = new HKY();
+        hky.initByName("kappa", new RealParameter("2.0"), "frequencies", frequencies);
+    }
+
+    @Test
+    public void testMerge() {
+        ThreadedTreeLikelihood l1 = createTreeLikelihood("D1", TAXA, 0.5,
+                "ACGTACGTAAGGCTTA-CGN", "ACGTACCTAAGGCTTA-CGA", "ACGAACGTATGGCTAA-CGA", "ACGAACGTATGGGTAA-CGA");
+        // taxa in a different order
+        ThreadedTreeLikelihood l2 = createTreeLikelihood("D2", new String[]{"D", "C", "B", "A"}, 0.5,
+                "TTGACCA", "TTGACCA", "TAGACCA", "TAGCCGA");
+        // different shape
+        ThreadedTreeLikelihood l3 = createTreeLikelihood("D3", TAXA, 0.8,
+                "TTGACCA", "TTGACCA", "TAGACCA", "TAGCCGA");
+
+        PartitionMerger merger = new PartitionMerger(stateNode -> stateNode == tree);
+        List<List<GenericTreeLikelihood>> groups = merger.group(List.of(l1, l2, l3));
+        assertEquals(1, groups.size());
+        assertEquals(List.of(l1, l2), groups.get(0));
+
+        ThreadedTreeLikelihood merged = PartitionMerger.merge(groups.get(0));
+        merged.initAndValidate();
+        Alignment alignment = merged.dataInput.get();
+        assertEquals("D1_D2", alignment.getID());
+        assertEquals(27, alignment.getSiteCount());
+        // the constant sites 'C' are shared
+        assertTrue(alignment.getPatternCount() <
+                l1.dataInput.get().getPatternCount() + l2.dataInput.get().getPatternCount());
+
+        assertEquals(l1.calculateLogP() + l2.calculateLogP(), merged.calculateLogP(), 1e-10);
+    }
+
+    @Test
+    public void testEstimatedParameters() {
+        ThreadedTreeLikelihood l1 = createTreeLikelihood("D1", TAXA, 0.5,
+                "ACGTACGTAA", "ACGTACCTAA", "ACGAACGTAT", "ACGAACGTAT");
+        ThreadedTreeLikelihood l2 = createTreeLikelihood("D2", TAXA, 0.5,
+                "TTGACCA", "TTGACCA", "TAGACCA", "TAGCCGA");
+
+        SiteModel siteModel1 = (SiteModel) l1.siteModelInput.get();
+        SiteModel siteModel2 = (SiteModel) l2.siteModelInput.get();
+        RealParameter shape = siteModel1.shapeParameterInput.get();
+
+        // the shapes are estimated separately
+        PartitionMerger merger = new PartitionMerger(stateNode ->
+                stateNode == shape || stateNode == siteModel2.shapeParameterInput.get());
+        List<Distribution> likelihoods = List.of(l1, l2);
+        assertTrue(merger.group(likelihoods).isEmpty());
+        // unless they are the same parameter
+        siteModel2.setInputValue("shape", shape);
+        assertEquals(1, merger.group(likelihoods).size());
+    }
+
+    private ThreadedTreeLikelihood createTreeLikelihood(String id, String[] taxa, double shape, String... sequences) {
+        Alignment alignment = createAlignment(taxa, sequences);
+        alignment.setID(id);
+
+        SiteModel siteModel = new SiteModel();
+        siteModel.initByName("substModel", hky, "gammaCategoryCount", 4, "shape", new RealParameter(String.valueOf(shape)));
+        StrictClockModel clockModel = new StrictClockModel();
+        clockModel.initByName("clock.rate", new RealParameter("1.0"));
+
+        ThreadedTreeLikelihood likelihood = new ThreadedTreeLikelihood();
+        likelihood.initByName("data", alignment, "tree", tree, "siteModel", siteModel,
+                "branchRateModel", clockModel, "useAmbiguities", false);
+        likelihood.setID(id + ".treeLikelihood");
+        return likelihood;
+    }
+
+}
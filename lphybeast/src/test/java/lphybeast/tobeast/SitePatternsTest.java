@@ -0,0 +1,57 @@
+package lphybeast.tobeast;
+
+import beast.base.evolution.alignment.Alignment;
+import lphybeast.TestUtils;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static lphybeast.TestUtils.TAXA;
+import static lphybeast.TestUtils.calculateLogP;
+import static lphybeast.TestUtils.createAlignment;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the pattern-compressed alignment has the same likelihood as the original.
+ */
+public class SitePatternsTest {
+
+    private static final String[] SEQUENCES = {
+            "ACGTACGTAAGGCTTA-CGN",
+            "ACGTACCTAAGGCTTA-CGA",
+            "ACGAACGTATGGCTAA-CGA",
+            "ACGAACGTATGGGTAA-CGA"};
+
+    @BeforeAll
+    static void loadServices() {
+        // BEAST data types
+        TestUtils.loadServices();
+    }
+
+    @Test
+    public void testCompress() {
+        SitePatterns sitePatterns = SitePatterns.compress(SEQUENCES);
+        assertEquals(20, sitePatterns.getSiteCount());
+        assertEquals(10, sitePatterns.getPatternCount());
+        assertEquals(20, Arrays.stream(sitePatterns.getWeights()).sum());
+        // in the order of the first sites
+        assertEquals("4,3,4,2,1,2,1,1,1,1", sitePatterns.getWeightsString());
+        assertEquals("ACGTGTAC-N", sitePatterns.getSequences()[0]);
+        assertEquals("ACGAGTTG-A", sitePatterns.getSequences()[3]);
+
+        assertThrows(IllegalArgumentException.class, () -> SitePatterns.compress(new String[]{"AC", "A"}));
+    }
+
+    @Test
+    public void testLikelihood() {
+        Alignment original = createAlignment(TAXA, SEQUENCES);
+
+        SitePatterns sitePatterns = SitePatterns.compress(SEQUENCES);
+        Alignment compressed = createAlignment(TAXA, sitePatterns.getSequences(), sitePatterns.getWeightsString());
+
+        assertEquals(original.getPatternCount(), compressed.getPatternCount());
+        assertEquals(calculateLogP(original), calculateLogP(compressed), 1e-10);
+    }
+
+}
@@ -0,0 +1,153 @@
+package lphybeast.tobeast.operators;
+
+import beast.base.core.BEASTInterface;
+import beast.base.evolution.operator.kernel.BactrianScaleOperator;
+import beast.base.inference.CompoundDistribution;
+import beast.base.inference.Distribution;
+import beast.base.inference.MCMC;
+import beast.base.inference.Operator;
+import beast.base.inference.OperatorSchedule;
+import beast.base.inference.State;
+import beast.base.inference.operator.RealRandomWalkOperator;
+import beast.base.inference.parameter.RealParameter;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static lphybeast.TestUtils.createPrior;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Check the operator weights follow the accepted moves per second,
+ * and the pilot run keeps the state and operators.
+ */
+public class OperatorTunerTest {
+
+    @Test
+    public void testReweight() {
+        double[] weights = {3, 3, 1, 1};
+        long[] proposals = {1000, 1000, 1000, 10};
+        // the 2nd operator is rarely accepted and 10 times slower
+        long[] accepted = {400, 20, 300, 1};
+        long[] nanos = {1_000_000, 10_000_000, 1_000_000, 10_000};
+        double[] tuned = OperatorTuner.reweight(weights, proposals, accepted, nanos);
+
+        assertEquals(Arrays.stream(weights).sum(), Arrays.stream(tuned).sum(), 1e-10);
+        assertTrue(tuned[0] > weights[0]);
+        assertTrue(tuned[1] < weights[1]);
+        // bounded
+        assertEquals(OperatorTuner.MAX_FACTOR * OperatorTuner.MAX_FACTOR, (tuned[0] / weights[0]) / (tuned[1] / weights[1]), 1e-10);
+        // too few proposals, so only normalised
+        assertEquals(tuned[0] / weights[0] / OperatorTuner.MAX_FACTOR, tuned[3] / weights[3], 1e-10);
+        assertTrue(tuned[3] < weights[3]);
+
+        // nothing accepted
+        assertArrayEquals(weights, OperatorTuner.reweight(weights, proposals, new long[4], nanos), 1e-10);
+    }
+
+    @Test
+    public void testTune() {
+        RealParameter x = new RealParameter();
+        x.initByName("value", "1.0", "lower", 0.0);
+        x.setID("x");
+        RealParameter y = new RealParameter();
+        y.initByName("value", "2.0");
+        y.setID("y");
+
+        Distribution priorX = createPrior(x);
+        Distribution priorY = createPrior(y);
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", List.of(priorX, priorY));
+        posterior.setID("posterior");
+
+        BactrianScaleOperator scale = new BactrianScaleOperator();
+        scale.initByName("parameter", x, "weight", 1.0);
+        scale.setID("x.scale");
+        RealRandomWalkOperator randomWalk = new RealRandomWalkOperator();
+        randomWalk.initByName("parameter", y, "weight", 1.0, "windowSize", 1e-4);
+        randomWalk.setID("y.randomWalk");
+
+        State state = new State();
+        state.initByName("stateNode", List.of(x, y));
+        MCMC mcmc = new MCMC();
+        mcmc.setInputValue("distribution", posterior);
+        mcmc.setInputValue("state", state);
+        mcmc.setInputValue("operator", List.of(scale, randomWalk));
+        mcmc.setInputValue("chainLength", 1000000L);
+        mcmc.initAndValidate();
+
+        OperatorTuner tuner = new OperatorTuner(5000);
+        tuner.tune(mcmc);
+
+        // the state is restored
+        assertEquals(1.0, x.getValue(), 1e-10);
+        assertEquals(2.0, y.getValue(), 1e-10);
+        double total = 0;
+        for (Operator operator : mcmc.operatorsInput.get())
+            total += operator.getWeight();
+        assertEquals(2.0, total, 1e-10);
+        assertTrue(tuner.toString().contains("x.scale : "));
+    }
+
+    @Test
+    public void testRestoreOperators() throws ReflectiveOperationException {
+        RealParameter x = new RealParameter();
+        x.initByName("value", "1.0", "lower", 0.0);
+        x.setID("x");
+        RealParameter y = new RealParameter();
+        y.initByName("value", "2.0");
+        y.setID("y");
+
+        CompoundDistribution prior = new CompoundDistribution();
+        prior.initByName("distribution", List.of(createPrior(x)));
+        prior.setID("prior");
+        CompoundDistribution likelihood = new CompoundDistribution();
+        likelihood.initByName("distribution", List.of(createPrior(y)));
+        likelihood.setID("likelihood");
+        CompoundDistribution posterior = new CompoundDistribution();
+        posterior.initByName("distribution", List.of(prior, likelihood));
+        posterior.setID("posterior");
+
+        BactrianScaleOperator scale = new BactrianScaleOperator();
+        scale.initByName("parameter", x, "weight", 1.0);
+        scale.setID("x.scale");
+        RealRandomWalkOperator randomWalk = new RealRandomWalkOperator();
+        randomWalk.initByName("parameter", y, "weight", 1.0, "windowSize", 1e-4);
+        randomWalk.setID("y.randomWalk");
+        final double scaleFactor = scale.getCoercableParameterValue();
+
+        State state = new State();
+        state.initByName("stateNode", List.of(x, y));
+        MCMC mcmc = new MCMC();
+        mcmc.setInputValue("distribution", posterior);
+        mcmc.setInputValue("state", state);
+        mcmc.setInputValue("operator", List.of(scale, randomWalk));
+        mcmc.setInputValue("chainLength", 1000000L);
+        mcmc.initAndValidate();
+        // as BEASTContext, which keeps the likelihood in XML
+        mcmc.setInputValue("sampleFromPrior", true);
+        Set<BEASTInterface> posteriorOutputs = Set.copyOf(posterior.getOutputs());
+        Set<BEASTInterface> priorOutputs = Set.copyOf(prior.getOutputs());
+
+        new OperatorTuner(5000).tune(mcmc);
+
+        // the operators refer to the operator schedule of this MCMC, but not the pilot
+        Field field = Operator.class.getDeclaredField("operatorSchedule");
+        field.setAccessible(true);
+        OperatorSchedule schedule = mcmc.operatorScheduleInput.get();
+        for (Operator operator : mcmc.operatorsInput.get()) {
+            assertSame(schedule, field.get(operator), operator.getID());
+            assertEquals(0, operator.get_m_nNrAccepted(), operator.getID());
+            assertEquals(0, operator.get_m_nNrRejected(), operator.getID());
+        }
+        assertEquals(scaleFactor, scale.getCoercableParameterValue(), 1e-10);
+        // no outputs of the pilot and its prior are left
+        assertEquals(posteriorOutputs, posterior.getOutputs());
+        assertEquals(priorOutputs, prior.getOutputs());
+        assertEquals(Set.of(posterior), likelihood.getOutputs());
+    }
+
+}